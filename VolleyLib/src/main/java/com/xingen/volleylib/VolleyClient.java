@@ -12,7 +12,9 @@ import com.xingen.volleylib.request.CircleBitmapImageRequest;
 import com.xingen.volleylib.request.DownloadRequest;
 import com.xingen.volleylib.request.FormRequest;
 import com.xingen.volleylib.request.GsonRequest;
+import com.xingen.volleylib.request.MultipartRequest;
 import com.xingen.volleylib.request.SingleFileRequest;
+import com.xingen.volleylib.volley.ExecutorDelivery;
 import com.xingen.volleylib.volley.Request;
 import com.xingen.volleylib.volley.RequestQueue;
 import com.xingen.volleylib.volley.toolbox.ImageLoader;
@@ -23,6 +25,7 @@ import org.json.JSONObject;
 import java.io.File;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * Created by ${xinGen} on 2018/3/3.
@@ -68,7 +71,17 @@ public class VolleyClient {
     }
 
     public <T> FormRequest<T> sendFormRequest(String tag, String url, Map<String, String> body, Map<String, String> headers, GsonResultListener<T> resultListener) {
+        return sendFormRequest(tag, url, body, headers, null, resultListener);
+    }
+
+    /**
+     * 发送Form表单请求，在指定的线程中传递结果
+     *
+     * @param deliveryExecutor 传递结果的线程，{@link ExecutorDelivery#DIRECT}表示在网络线程中直接传递，为null时在主线程中传递
+     */
+    public <T> FormRequest<T> sendFormRequest(String tag, String url, Map<String, String> body, Map<String, String> headers, Executor deliveryExecutor, GsonResultListener<T> resultListener) {
         FormRequest<T> request = new FormRequest<T>(url, body, resultListener);
+        request.setDeliveryExecutor(deliveryExecutor);
         if (headers != null) {
             Set<Map.Entry<String, String>> set = headers.entrySet();
             for (Map.Entry<String, String> entry : set) {
@@ -96,7 +109,17 @@ public class VolleyClient {
      * @return
      */
     public <T> GsonRequest<T> sendGsonRequest(String tag, String url, Object body, Map<String, String> headers, GsonResultListener<T> resultListener) {
+        return sendGsonRequest(tag, url, body, headers, null, resultListener);
+    }
+
+    /**
+     * 发送json请求，在指定的线程中传递结果
+     *
+     * @param deliveryExecutor 传递结果的线程，{@link ExecutorDelivery#DIRECT}表示在网络线程中直接传递，为null时在主线程中传递
+     */
+    public <T> GsonRequest<T> sendGsonRequest(String tag, String url, Object body, Map<String, String> headers, Executor deliveryExecutor, GsonResultListener<T> resultListener) {
         GsonRequest<T> request = new GsonRequest<T>(url, body, resultListener);
+        request.setDeliveryExecutor(deliveryExecutor);
         if (headers != null) {
             Set<Map.Entry<String, String>> set = headers.entrySet();
             for (Map.Entry<String, String> entry : set) {
@@ -179,6 +202,34 @@ public class VolleyClient {
         return request;
     }
 
+    /**
+     * 多文件上传的请求，文本字段和文件在同一个请求中以流的方式上传
+     * @param tag
+     * @param url
+     * @param params 文本字段，可以为null
+     * @param files 文件，key为字段名
+     * @param fileProgressListener
+     * @param resultListener
+     * @param <T>
+     * @return
+     */
+    public <T> MultipartRequest<T> sendMultipartRequest(String tag, String url, Map<String, String> params, Map<String, File> files, FileProgressListener fileProgressListener, GsonResultListener<T> resultListener) {
+        MultipartRequest<T> request = new MultipartRequest<T>(url, fileProgressListener, resultListener);
+        if (params != null) {
+            for (Map.Entry<String, String> entry : params.entrySet()) {
+                request.addFormField(entry.getKey(), entry.getValue());
+            }
+        }
+        if (files != null) {
+            for (Map.Entry<String, File> entry : files.entrySet()) {
+                request.addFile(entry.getKey(), entry.getValue());
+            }
+        }
+        request.setTag(tag);
+        this.mRequestQueue.add(request);
+        return request;
+    }
+
     /**
      * 开启下载请求
      * @param tag
@@ -189,7 +240,22 @@ public class VolleyClient {
      * @return
      */
     public DownloadRequest startDownload(String tag, String url, String filePath, FileProgressListener fileProgressListener, DownloadListener downloadListener){
+        return startDownload(tag, url, filePath, 1, fileProgressListener, downloadListener);
+    }
+
+    /**
+     * 开启分段并发下载的请求，支持断点续传
+     * @param tag
+     * @param url
+     * @param filePath
+     * @param segmentCount 并发下载的分段数
+     * @param fileProgressListener
+     * @param downloadListener
+     * @return
+     */
+    public DownloadRequest startDownload(String tag, String url, String filePath, int segmentCount, FileProgressListener fileProgressListener, DownloadListener downloadListener){
         DownloadRequest request=new DownloadRequest(url,filePath,fileProgressListener,downloadListener);
+        request.setSegmentCount(segmentCount);
         request.setTag(tag);
         this.mRequestQueue.add(request);
         return request;
@@ -229,6 +295,16 @@ public class VolleyClient {
         getRequestQueue().add(req);
     }
 
+    /**
+     * 添加请求，在指定的线程中传递结果
+     *
+     * @param deliveryExecutor 传递结果的线程，{@link ExecutorDelivery#DIRECT}表示在缓存线程、网络线程中直接传递，为null时在主线程中传递
+     */
+    public <T> void addToRequestQueue(Request<T> req, Executor deliveryExecutor) {
+        req.setDeliveryExecutor(deliveryExecutor);
+        getRequestQueue().add(req);
+    }
+
     public ImageLoader getImageLoader() {
         return imageLoader;
     }
@@ -1,14 +1,18 @@
 package com.xingen.volleylib.listener;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.internal.$Gson$Types;
+import com.google.gson.stream.JsonReader;
+import com.xingen.volleylib.volley.NetworkError;
 import com.xingen.volleylib.volley.NetworkResponse;
 import com.xingen.volleylib.volley.ParseError;
 import com.xingen.volleylib.volley.Response;
 import com.xingen.volleylib.volley.VolleyError;
 import com.xingen.volleylib.volley.toolbox.HttpHeaderParser;
 
+import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
@@ -26,13 +30,22 @@ public abstract class GsonResultListener<T> implements Response.Listener<T>, Res
     }
     public Response<T> parseResponse(NetworkResponse response) {
         try {
-            String json = new String(response.data, HttpHeaderParser.parseCharset(response.headers));
-            T t = gson.fromJson(json, type);
+            T t;
+            if (response.stream != null) {
+                //流式响应，通过JsonReader边读取边解析
+                JsonReader reader = new JsonReader(new InputStreamReader(response.stream, HttpHeaderParser.parseCharset(response.headers)));
+                t = gson.fromJson(reader, type);
+            } else {
+                String json = new String(response.data, HttpHeaderParser.parseCharset(response.headers));
+                t = gson.fromJson(json, type);
+            }
             return Response.success(t, HttpHeaderParser.parseCacheHeaders(response));
         } catch (UnsupportedEncodingException e) {
             return Response.error(new ParseError(e));
         } catch (JsonSyntaxException e) {
             return Response.error(new ParseError(e));
+        } catch (JsonIOException e) {
+            return Response.error(new NetworkError(e));
         }
     }
     @Override
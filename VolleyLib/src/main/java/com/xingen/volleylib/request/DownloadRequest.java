@@ -1,29 +1,44 @@
 package com.xingen.volleylib.request;
 
-import android.os.Handler;
-import android.os.Looper;
-
 import com.xingen.volleylib.listener.DownloadListener;
 import com.xingen.volleylib.listener.FileProgressListener;
+import com.xingen.volleylib.volley.FrameBatchExecutor;
 import com.xingen.volleylib.volley.NetworkResponse;
 import com.xingen.volleylib.volley.Request;
 import com.xingen.volleylib.volley.Response;
 import com.xingen.volleylib.volley.VolleyError;
 
+import java.util.concurrent.Executor;
+
 /**
  * Created by ${xinGen} on 2018/3/7.
  * <p>
  * 文件下载
+ * <p>
+ * 默认支持断点续传：下载内容先写入临时文件，再次下载相同url时，从断点处继续（服务器上文件已变化时重新下载）。
+ * 调用{@link #setSegmentCount(int)}可将大文件拆分为多段，并发下载。
  */
 
 public class DownloadRequest extends Request<Object> {
     /**
-     * 主线程的Handler
+     * 主线程中批量执行回调，同一个请求未执行的进度只保留最新的值
      */
-    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final FrameBatchExecutor mainExecutor = FrameBatchExecutor.getMainThreadExecutor();
     private final DownloadListener downloadListener;
     private final FileProgressListener progressListener;
     private final String downloadUrl, filePath;
+    /**
+     * 临时文件和断点记录文件的后缀
+     */
+    private static final String TEMP_SUFFIX = ".tmp", RECORD_SUFFIX = ".cfg";
+    /**
+     * 是否断点续传
+     */
+    private boolean resumable = true;
+    /**
+     * 并发下载的分段数
+     */
+    private int segmentCount = 1;
     public DownloadRequest(String url, String filePath, FileProgressListener progressListener, DownloadListener downloadListener) {
         super(Method.GET, url, downloadListener);
         this.downloadUrl = url;
@@ -31,6 +46,8 @@ public class DownloadRequest extends Request<Object> {
         this.downloadListener = downloadListener;
         this.progressListener = progressListener;
         this.setShouldCache(false);
+        //相同url的下载可能写入不同的文件，不合并
+        this.setShouldCoalesce(false);
     }
     @Override
     protected Response<Object> parseNetworkResponse(NetworkResponse response) {
@@ -48,6 +65,10 @@ public class DownloadRequest extends Request<Object> {
              downloadListener.downloadError(this.downloadUrl,error);
          }
     }
+    @Override
+    public boolean isBulkTransfer() {
+        return true;
+    }
     /**
      * 回调传递进度
      *
@@ -57,17 +78,68 @@ public class DownloadRequest extends Request<Object> {
         if (isCanceled()) {
             return;
         }
-        mainHandler.post(new Runnable() {
+        Runnable runnable = new Runnable() {
             @Override
             public void run() {
                 if (progressListener != null) {
                     progressListener.progress(progress);
                 }
             }
-        });
+        };
+        //设置了传递结果的线程时，进度也在该线程中传递
+        Executor executor = getDeliveryExecutor();
+        if (executor != null) {
+            executor.execute(runnable);
+        } else {
+            mainExecutor.executeLatest(this, runnable);
+        }
     }
 
     public String getFilePath() {
         return filePath;
     }
+
+    /**
+     * 下载过程中写入的临时文件
+     */
+    public String getTempFilePath() {
+        return filePath + TEMP_SUFFIX;
+    }
+
+    /**
+     * 保存断点信息（ETag/Last-Modified，文件长度，分段进度）的记录文件
+     */
+    public String getRecordFilePath() {
+        return filePath + RECORD_SUFFIX;
+    }
+
+    /**
+     * 设置是否断点续传，关闭后每次都从头下载，失败时删除临时文件。
+     *
+     * @param resumable
+     * @return
+     */
+    public DownloadRequest setResumable(boolean resumable) {
+        this.resumable = resumable;
+        return this;
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * 设置并发下载的分段数，服务器需支持Range，且文件足够大时才会拆分。
+     *
+     * @param segmentCount
+     * @return
+     */
+    public DownloadRequest setSegmentCount(int segmentCount) {
+        this.segmentCount = Math.max(1, segmentCount);
+        return this;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
 }
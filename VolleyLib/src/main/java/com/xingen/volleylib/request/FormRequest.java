@@ -8,7 +8,10 @@ import com.xingen.volleylib.volley.AuthFailureError;
 import com.xingen.volleylib.volley.NetworkResponse;
 import com.xingen.volleylib.volley.Request;
 import com.xingen.volleylib.volley.Response;
+import com.xingen.volleylib.volley.StreamingBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,6 +26,10 @@ public class FormRequest<T> extends Request<T> {
     private final GsonResultListener<T> resultListener;
     private Map<String, String> body;
     private Map<String, String> headers;
+    /**
+     * 是否使用gzip压缩请求体
+     */
+    private boolean gzipBody;
     public FormRequest(String url, Map<String, String> body, GsonResultListener<T> resultListener) {
         this(Method.POST, url, body, resultListener);
     }
@@ -46,7 +53,41 @@ public class FormRequest<T> extends Request<T> {
 
     @Override
     public Map<String, String> getHeaders() {
-        return headers;
+        if (!isGzipBody()) {
+            return headers;
+        }
+        Map<String, String> gzipHeaders = new HashMap<>(headers);
+        gzipHeaders.put("Content-Encoding", GzipBody.CONTENT_ENCODING);
+        return gzipHeaders;
+    }
+
+    /**
+     * 设置是否使用gzip压缩请求体（Content-Encoding: gzip），需要服务器支持。
+     *
+     * @param gzipBody
+     * @return
+     */
+    public FormRequest<T> setGzipBody(boolean gzipBody) {
+        this.gzipBody = gzipBody;
+        return this;
+    }
+
+    private boolean isGzipBody() {
+        return gzipBody && body != null && !body.isEmpty();
+    }
+
+    @Override
+    public StreamingBody getStreamingBody() throws AuthFailureError {
+        if (!isGzipBody()) {
+            return null;
+        }
+        final byte[] content = getBody();
+        return new GzipBody(getBodyContentType()) {
+            @Override
+            protected void writeContent(OutputStream out) throws IOException {
+                out.write(content);
+            }
+        };
     }
 
     public Map<String, String> setHeader(String key, String content) {
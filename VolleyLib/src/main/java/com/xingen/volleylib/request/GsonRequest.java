@@ -2,15 +2,22 @@ package com.xingen.volleylib.request;
 
 import android.text.TextUtils;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
 import com.xingen.volleylib.listener.GsonResultListener;
-import com.xingen.volleylib.utils.GsonUtils;
 import com.xingen.volleylib.volley.AuthFailureError;
 import com.xingen.volleylib.volley.NetworkResponse;
 import com.xingen.volleylib.volley.Request;
 import com.xingen.volleylib.volley.Response;
+import com.xingen.volleylib.volley.StreamingBody;
 
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Type;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,6 +27,8 @@ import java.util.Map;
  * json数据格式，Gson解析json的请求
  *
  * 内容格式：application/json
+ *
+ * 请求体较大时，可以通过setGzipBody(true)压缩上传。
  */
 
 public class GsonRequest<T> extends Request<T> {
@@ -27,22 +36,58 @@ public class GsonRequest<T> extends Request<T> {
     private static final String PROTOCOL_CONTENT_TYPE = String.format("application/json; charset=%s", PROTOCOL_CHARSET);
     private Map<String, String> headers;
     private final GsonResultListener<T> resultListener;
-    private final String body;
+    private static final Gson GSON = new Gson();
+    /**
+     * 请求体对象及其类型，发送时才转换成json
+     */
+    private final Object bodyObject;
+    private final Type bodyType;
+    /**
+     * 请求体的字节，对象请求体在第一次调用getBody()时转换，重试时不再转换
+     */
+    private byte[] body;
+    /**
+     * 是否使用gzip压缩请求体
+     */
+    private boolean gzipBody;
     public GsonRequest(String url, GsonResultListener<T> resultListener) {
         this(Method.GET, url, (String) null, resultListener);
     }
     public GsonRequest( String url, Object body, GsonResultListener<T> resultListener) {
-        this(Method.POST, url, GsonUtils.toJson(body), resultListener);
+        this(url, body, body != null ? body.getClass() : Object.class, resultListener);
+    }
+
+    /**
+     * @param bodyType 请求体的类型，请求体包含泛型时使用，例如new TypeToken&lt;List&lt;User&gt;&gt;(){}.getType()
+     */
+    public GsonRequest(String url, Object body, Type bodyType, GsonResultListener<T> resultListener) {
+        this(Method.POST, url, null, body, bodyType, resultListener);
     }
     public GsonRequest( String url, JSONObject body, GsonResultListener<T> resultListener) {
         this(Method.POST, url, body.toString(), resultListener);
     }
     public GsonRequest(int method, String url, String body, GsonResultListener<T> resultListener) {
+        this(method, url, toBytes(body), null, null, resultListener);
+    }
+    private GsonRequest(int method, String url, byte[] body, Object bodyObject, Type bodyType, GsonResultListener<T> resultListener) {
         super(method, url, resultListener);
         this.headers = new HashMap<>();
         this.body = body;
+        this.bodyObject = bodyObject;
+        this.bodyType = bodyType;
         this.resultListener = resultListener;
     }
+    private static byte[] toBytes(String body) {
+        byte[] bytes = null;
+        if (body != null) {
+            try {
+                bytes = body.getBytes(PROTOCOL_CHARSET);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return bytes;
+    }
     @Override
     protected Response<T> parseNetworkResponse(NetworkResponse response) {
         return this.resultListener.parseResponse(response);
@@ -59,7 +104,53 @@ public class GsonRequest<T> extends Request<T> {
     }
     @Override
     public Map<String, String> getHeaders() {
-        return headers;
+        if (!isGzipBody()) {
+            return headers;
+        }
+        Map<String, String> gzipHeaders = new HashMap<>(headers);
+        gzipHeaders.put("Content-Encoding", GzipBody.CONTENT_ENCODING);
+        return gzipHeaders;
+    }
+
+    /**
+     * 设置是否使用gzip压缩请求体（Content-Encoding: gzip），需要服务器支持。
+     * <p>
+     * 压缩时请求体边压缩边写入连接，不生成压缩后的byte[]，适合较大的json请求体。
+     *
+     * @param gzipBody
+     * @return
+     */
+    public GsonRequest<T> setGzipBody(boolean gzipBody) {
+        this.gzipBody = gzipBody;
+        return this;
+    }
+
+    private boolean isGzipBody() {
+        return gzipBody && (body != null || bodyObject != null);
+    }
+
+    @Override
+    public StreamingBody getStreamingBody() throws AuthFailureError {
+        if (!isGzipBody()) {
+            return null;
+        }
+        return new GzipBody(PROTOCOL_CONTENT_TYPE) {
+            @Override
+            protected void writeContent(OutputStream out) throws IOException {
+                if (bodyObject == null) {
+                    out.write(body);
+                    return;
+                }
+                //对象直接序列化到压缩流中，不生成中间的String和byte[]
+                JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, PROTOCOL_CHARSET));
+                try {
+                    GSON.toJson(bodyObject, bodyType, writer);
+                } catch (JsonIOException e) {
+                    throw new IOException(e);
+                }
+                writer.flush();
+            }
+        };
     }
     /**
      * 重写Content-type格式
@@ -72,14 +163,9 @@ public class GsonRequest<T> extends Request<T> {
     }
     @Override
     public byte[] getBody() throws AuthFailureError {
-        byte[] bytes = null;
-        if (body != null) {
-            try {
-                bytes = body.getBytes(PROTOCOL_CHARSET);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+        if (body == null && bodyObject != null) {
+            body = toBytes(GSON.toJson(bodyObject, bodyType));
         }
-        return bytes;
+        return body;
     }
 }
@@ -0,0 +1,69 @@
+package com.xingen.volleylib.request;
+
+import com.xingen.volleylib.volley.StreamingBody;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * gzip压缩的流式请求体，请求需要同时发送Content-Encoding: gzip。
+ * <p>
+ * 1. 子类在{@link #writeContent(OutputStream)}中写入原始内容，边写入边压缩，直接写入连接，不生成压缩后的byte[]。
+ * 2. 压缩后的长度未知，使用分块传输。
+ * 3. 重试时会再次调用writeContent()，子类需要能够重复写入。
+ */
+public abstract class GzipBody implements StreamingBody {
+    public static final String CONTENT_ENCODING = "gzip";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final String contentType;
+
+    /**
+     * @param contentType 压缩前内容的Content-Type
+     */
+    public GzipBody(String contentType) {
+        this.contentType = contentType;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+        //关闭压缩流时释放Deflater，但不关闭连接的输出流
+        GZIPOutputStream gzip = new GZIPOutputStream(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        }, BUFFER_SIZE);
+        try {
+            writeContent(gzip);
+        } finally {
+            gzip.close();
+        }
+    }
+
+    /**
+     * 写入压缩前的内容，不需要关闭输出流
+     *
+     * @param out 压缩输出流
+     * @throws IOException
+     */
+    protected abstract void writeContent(OutputStream out) throws IOException;
+}
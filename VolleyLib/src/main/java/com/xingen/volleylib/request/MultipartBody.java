@@ -0,0 +1,248 @@
+package com.xingen.volleylib.request;
+
+import com.xingen.volleylib.listener.FileProgressListener;
+import com.xingen.volleylib.volley.Platform;
+import com.xingen.volleylib.volley.Request;
+import com.xingen.volleylib.volley.StreamingBody;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * multipart/form-data格式的流式请求体，支持文本字段、byte数组、文件混合上传。
+ * <p>
+ * 1. 每个请求使用随机生成的boundary，并发请求之间互不影响。
+ * 2. 提前计算准确的内容长度，文件内容通过FileChannel直接写入连接，不读入内存。
+ * 3. 进度按全部part的字节数计算，只在百分比变化且超过间隔时间时回调。
+ */
+public class MultipartBody implements StreamingBody {
+    private static final Charset UTF_8 = Charset.forName("utf-8");
+    private static final byte[] CRLF = "\r\n".getBytes(UTF_8);
+    /**
+     * 默认的文件内容类型
+     */
+    public static final String DEFAULT_FILE_TYPE = "application/octet-stream";
+    /**
+     * 每次读取文件的长度
+     */
+    private static final int READ_SIZE = 64 * 1024;
+    /**
+     * 两次进度回调之间的最小间隔
+     */
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    private final Request<?> request;
+    private final String boundary;
+    private final List<Part> parts = new ArrayList<>();
+    private FileProgressListener progressListener;
+
+    /**
+     * @param request 所属的请求，用于判断是否被取消
+     */
+    public MultipartBody(Request<?> request) {
+        this(request, createBoundary());
+    }
+
+    public MultipartBody(Request<?> request, String boundary) {
+        this.request = request;
+        this.boundary = boundary;
+    }
+
+    /**
+     * 生成随机的boundary
+     */
+    public static String createBoundary() {
+        return "----------" + UUID.randomUUID().toString().replace("-", "");
+    }
+
+    public String getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * 设置进度监听器，在网络线程中回调。
+     */
+    public MultipartBody setProgressListener(FileProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * 添加文本字段
+     */
+    public MultipartBody addFormField(String name, String value) {
+        parts.add(new Part(name, null, null, value.getBytes(UTF_8), null));
+        return this;
+    }
+
+    /**
+     * 添加byte数组
+     */
+    public MultipartBody addBytes(String name, String fileName, String contentType, byte[] data) {
+        parts.add(new Part(name, fileName, contentType == null ? DEFAULT_FILE_TYPE : contentType, data, null));
+        return this;
+    }
+
+    /**
+     * 添加文件
+     */
+    public MultipartBody addFile(String name, File file) {
+        return addFile(name, file.getName(), DEFAULT_FILE_TYPE, file);
+    }
+
+    public MultipartBody addFile(String name, String fileName, String contentType, File file) {
+        parts.add(new Part(name, fileName, contentType == null ? DEFAULT_FILE_TYPE : contentType, null, file));
+        return this;
+    }
+
+    /**
+     * part的头部
+     */
+    public String getPartHeader(String name, String fileName, String contentType) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("--").append(boundary).append("\r\n");
+        builder.append("Content-Disposition: form-data; name=\"").append(escape(name)).append('"');
+        if (fileName != null) {
+            builder.append("; filename=\"").append(escape(fileName)).append('"');
+        }
+        builder.append("\r\n");
+        if (contentType != null) {
+            builder.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        builder.append("\r\n");
+        return builder.toString();
+    }
+
+    /**
+     * 请求体的尾部
+     */
+    public String getFoot() {
+        return "--" + boundary + "--\r\n";
+    }
+
+    @Override
+    public long getContentLength() {
+        long length = getFoot().getBytes(UTF_8).length;
+        for (Part part : parts) {
+            length += part.header.length + part.length() + CRLF.length;
+        }
+        return length;
+    }
+
+    @Override
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        Progress progress = new Progress(getContentLength());
+        for (Part part : parts) {
+            checkCanceled();
+            out.write(part.header);
+            progress.add(part.header.length);
+            if (part.file != null) {
+                writeFile(out, part.file, progress);
+            } else {
+                out.write(part.data);
+                progress.add(part.data.length);
+            }
+            out.write(CRLF);
+            progress.add(CRLF.length);
+        }
+        byte[] foot = getFoot().getBytes(UTF_8);
+        out.write(foot);
+        progress.add(foot.length);
+    }
+
+    /**
+     * 通过FileChannel读取文件，写入输出流
+     */
+    private void writeFile(OutputStream out, File file, Progress progress) throws IOException {
+        if (!file.exists()) {
+            throw new IOException("File 文件不存在：" + file.getAbsolutePath());
+        }
+        FileInputStream fileInputStream = new FileInputStream(file);
+        FileChannel channel = fileInputStream.getChannel();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                checkCanceled();
+                out.write(buffer.array(), 0, read);
+                buffer.clear();
+                progress.add(read);
+            }
+        } finally {
+            fileInputStream.close();
+        }
+    }
+
+    private void checkCanceled() throws IOException {
+        if (request != null && request.isCanceled()) {
+            throw new IOException("MultipartRequest 被取消");
+        }
+    }
+
+    /**
+     * 避免name和filename中的引号、换行符破坏头部格式
+     */
+    private static String escape(String value) {
+        return value.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+    }
+
+    /**
+     * 一个part：头部 + 内容（byte数组或者文件）
+     */
+    private class Part {
+        final byte[] header;
+        final byte[] data;
+        final File file;
+
+        Part(String name, String fileName, String contentType, byte[] data, File file) {
+            this.header = getPartHeader(name, fileName, contentType).getBytes(UTF_8);
+            this.data = data;
+            this.file = file;
+        }
+
+        long length() {
+            return file != null ? file.length() : data.length;
+        }
+    }
+
+    /**
+     * 计算全部part的总进度，节流回调
+     */
+    private class Progress {
+        private final long total;
+        private long written;
+        private int lastProgress = -1;
+        private long lastTime;
+
+        Progress(long total) {
+            this.total = total;
+        }
+
+        void add(long count) {
+            written += count;
+            if (progressListener == null || total <= 0) {
+                return;
+            }
+            int progress = (int) (Math.min(written, total) * 100 / total);
+            long now = Platform.elapsedRealtime();
+            if (progress != lastProgress && (progress == 100 || now - lastTime >= PROGRESS_INTERVAL_MS)) {
+                lastProgress = progress;
+                lastTime = now;
+                progressListener.progress(progress);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.xingen.volleylib.request;
+
+import android.text.TextUtils;
+
+import com.xingen.volleylib.listener.FileProgressListener;
+import com.xingen.volleylib.listener.GsonResultListener;
+import com.xingen.volleylib.utils.RetryPolicyUtils;
+import com.xingen.volleylib.volley.FrameBatchExecutor;
+import com.xingen.volleylib.volley.NetworkResponse;
+import com.xingen.volleylib.volley.Request;
+import com.xingen.volleylib.volley.Response;
+import com.xingen.volleylib.volley.StreamingBody;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * 多文件上传（内容格式）：multipart/form-data
+ * <p>
+ * 一个请求中混合上传文本字段、byte数组和多个文件，请求体以流的方式写入，进度按全部part计算。
+ */
+
+public class MultipartRequest<T> extends Request<T> {
+    /**
+     * 主线程中批量执行回调，同一个请求未执行的进度只保留最新的值
+     */
+    private static final FrameBatchExecutor mainExecutor = FrameBatchExecutor.getMainThreadExecutor();
+    /**
+     * 结果监听器
+     */
+    private final GsonResultListener<T> resultListener;
+    /**
+     * 进度监听器
+     */
+    private final FileProgressListener progressListener;
+    /**
+     * 请求体，每个请求使用随机生成的boundary
+     */
+    private final MultipartBody body;
+    /**
+     * Header表头
+     */
+    private Map<String, String> headers;
+
+    public MultipartRequest(String url, FileProgressListener progressListener, GsonResultListener<T> resultListener) {
+        super(Method.POST, url, resultListener);
+        this.headers = new HashMap<>();
+        this.resultListener = resultListener;
+        this.progressListener = progressListener;
+        this.body = new MultipartBody(this).setProgressListener(new FileProgressListener() {
+            @Override
+            public void progress(int progress) {
+                deliverProgress(progress);
+            }
+        });
+        this.setShouldCache(false);
+        this.setRetryPolicy(RetryPolicyUtils.createDefaultPolicy());
+    }
+
+    /**
+     * 添加文本字段
+     */
+    public MultipartRequest<T> addFormField(String name, String value) {
+        body.addFormField(name, value);
+        return this;
+    }
+
+    /**
+     * 添加byte数组
+     */
+    public MultipartRequest<T> addBytes(String name, String fileName, String contentType, byte[] data) {
+        body.addBytes(name, fileName, contentType, data);
+        return this;
+    }
+
+    /**
+     * 添加文件
+     */
+    public MultipartRequest<T> addFile(String name, File file) {
+        body.addFile(name, file);
+        return this;
+    }
+
+    public MultipartRequest<T> addFile(String name, String fileName, String contentType, File file) {
+        body.addFile(name, fileName, contentType, file);
+        return this;
+    }
+
+    @Override
+    protected Response<T> parseNetworkResponse(NetworkResponse response) {
+        return this.resultListener.parseResponse(response);
+    }
+
+    @Override
+    protected void deliverResponse(T response) {
+        this.resultListener.onResponse(response);
+    }
+
+    public Map<String, String> setHeader(String key, String content) {
+        if (!TextUtils.isEmpty(key) && !TextUtils.isEmpty(content)) {
+            headers.put(key, content);
+        }
+        return headers;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public String getBodyContentType() {
+        return body.getContentType();
+    }
+
+    @Override
+    public boolean isBulkTransfer() {
+        return true;
+    }
+
+    @Override
+    public StreamingBody getStreamingBody() {
+        return body;
+    }
+
+    /**
+     * 回调传递进度
+     *
+     * @param progress
+     */
+    public void deliverProgress(final int progress) {
+        if (isCanceled()) {
+            return;
+        }
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                if (progressListener != null) {
+                    progressListener.progress(progress);
+                }
+            }
+        };
+        //设置了传递结果的线程时，进度也在该线程中传递
+        Executor executor = getDeliveryExecutor();
+        if (executor != null) {
+            executor.execute(runnable);
+        } else {
+            mainExecutor.executeLatest(this, runnable);
+        }
+    }
+}
@@ -1,19 +1,20 @@
 package com.xingen.volleylib.request;
 
-import android.os.Handler;
-import android.os.Looper;
 import android.text.TextUtils;
 
 import com.xingen.volleylib.listener.FileProgressListener;
 import com.xingen.volleylib.listener.GsonResultListener;
 import com.xingen.volleylib.utils.FileUtils;
+import com.xingen.volleylib.volley.FrameBatchExecutor;
 import com.xingen.volleylib.volley.NetworkResponse;
 import com.xingen.volleylib.volley.Request;
 import com.xingen.volleylib.volley.Response;
+import com.xingen.volleylib.volley.StreamingBody;
 
 import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * Created by ${xinGen} on 2018/3/7.
@@ -27,20 +28,9 @@ public class SingleFileRequest<T> extends Request<T> {
      */
     public static final String DEFAULT_NAME = "media";
     /**
-     * 字符编码格式
+     * 主线程中批量执行回调，同一个请求未执行的进度只保留最新的值
      */
-    private static final String PROTOCOL_CHARSET = "utf-8";
-
-
-    private static final String BOUNDARY = "----------" + System.currentTimeMillis();
-    /**
-     * Content type for request.
-     */
-    private static final String PROTOCOL_CONTENT_TYPE = "multipart/form-data; boundary=" + BOUNDARY;
-    /**
-     * 主线程的Handler
-     */
-    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final FrameBatchExecutor mainExecutor = FrameBatchExecutor.getMainThreadExecutor();
     /**
      * 结果监听器
      */
@@ -50,9 +40,6 @@ public class SingleFileRequest<T> extends Request<T> {
      */
     private final FileProgressListener progressListener;
 
-    //每次读取的长度
-    public  static final int READ_SIZE = 4096;
-
     private final String name;
     /**
      * 文件进度
@@ -62,6 +49,10 @@ public class SingleFileRequest<T> extends Request<T> {
      * Header表头
      */
     private Map<String, String> headers;
+    /**
+     * 请求体，每个请求随机生成的boundary，并发上传时互不影响
+     */
+    private final MultipartBody body;
 
     public SingleFileRequest(String url, File file, FileProgressListener progressListener, GsonResultListener<T> resultListener) {
         this(url, DEFAULT_NAME, file, progressListener, resultListener);
@@ -82,6 +73,14 @@ public class SingleFileRequest<T> extends Request<T> {
         this.name = name;
         this.resultListener = resultListener;
         this.progressListener = progressListener;
+        this.body = new MultipartBody(this)
+                .addFile(name, getFileName(), MultipartBody.DEFAULT_FILE_TYPE, new File(filePath))
+                .setProgressListener(new FileProgressListener() {
+                    @Override
+                    public void progress(int progress) {
+                        deliverProgress(progress);
+                    }
+                });
         this.setShouldCache(false);
     }
 
@@ -109,7 +108,23 @@ public class SingleFileRequest<T> extends Request<T> {
 
     @Override
     public String getBodyContentType() {
-        return PROTOCOL_CONTENT_TYPE;
+        return body.getContentType();
+    }
+
+    /**
+     * 文件上传，在bulk通道中执行，不阻塞小请求
+     */
+    @Override
+    public boolean isBulkTransfer() {
+        return true;
+    }
+
+    /**
+     * 以流的方式写入文件，不需要将文件读入内存
+     */
+    @Override
+    public StreamingBody getStreamingBody() {
+        return body;
     }
 
     /**
@@ -121,14 +136,21 @@ public class SingleFileRequest<T> extends Request<T> {
         if (isCanceled()) {
             return;
         }
-        mainHandler.post(new Runnable() {
+        Runnable runnable = new Runnable() {
             @Override
             public void run() {
                 if (progressListener != null) {
                     progressListener.progress(progress);
                 }
             }
-        });
+        };
+        //设置了传递结果的线程时，进度也在该线程中传递
+        Executor executor = getDeliveryExecutor();
+        if (executor != null) {
+            executor.execute(runnable);
+        } else {
+            mainExecutor.executeLatest(this, runnable);
+        }
     }
 
     /**
@@ -144,39 +166,14 @@ public class SingleFileRequest<T> extends Request<T> {
      * 文件内容的头部
      */
     public String getContentHeader() {
-        try {
-            StringBuffer buffer = new StringBuffer();
-            buffer.append("--");
-            buffer.append(BOUNDARY);
-            buffer.append("\r\n");
-            buffer.append("Content-Disposition: form-data;name=\"");
-            buffer.append(name);
-            buffer.append("\";filename=\"");
-            buffer.append(getFileName());
-            buffer.append("\"\r\n");
-            buffer.append("Content-Type:application/octet-stream\r\n\r\n");
-            String s = buffer.toString();
-            return s;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+        return body.getPartHeader(name, getFileName(), MultipartBody.DEFAULT_FILE_TYPE);
     }
 
     /**
      * 文件内容的尾部
      */
     public String getContentFoot() {
-        try {
-            StringBuffer buffer = new StringBuffer();
-            buffer.append("\r\n--");
-            buffer.append(BOUNDARY);
-            buffer.append("--\r\n");
-            String s = buffer.toString();
-            return s;
-        } catch (Exception e) {
-            return null;
-        }
+        return "\r\n" + body.getFoot();
     }
 
     public String getFilePath() {
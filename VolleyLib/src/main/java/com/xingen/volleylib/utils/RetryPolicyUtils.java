@@ -1,6 +1,7 @@
 package com.xingen.volleylib.utils;
 
 import com.xingen.volleylib.volley.DefaultRetryPolicy;
+import com.xingen.volleylib.volley.ExponentialBackoffRetryPolicy;
 import com.xingen.volleylib.volley.RetryPolicy;
 
 /**
@@ -17,4 +18,13 @@ public class RetryPolicyUtils {
     public static RetryPolicy createPolicy(int initialTimeoutMs, int maxNumRetries, float backoffMultiplier){
         return new DefaultRetryPolicy(initialTimeoutMs,maxNumRetries,backoffMultiplier);
     }
+
+    /**
+     * 随机指数退避的重试策略，超时、5xx、429时等待一段时间后重试，等待期间不占用网络线程。
+     * 默认只重试幂等的请求
+     */
+    public static RetryPolicy createBackoffPolicy(int timeoutMs, int maxNumRetries){
+        return new ExponentialBackoffRetryPolicy(timeoutMs, maxNumRetries,
+                ExponentialBackoffRetryPolicy.DEFAULT_BASE_DELAY_MS, ExponentialBackoffRetryPolicy.DEFAULT_MAX_DELAY_MS);
+    }
 }
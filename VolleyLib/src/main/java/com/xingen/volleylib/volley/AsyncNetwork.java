@@ -0,0 +1,42 @@
+package com.xingen.volleylib.volley;
+
+/**
+ * A {@link Network} counterpart that performs requests without blocking the calling thread.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 请求交给实现类后立即返回，网络响应或者异常通过{@link Callback}回调，不占用调用的线程。
+ * 2. 与{@link NetworkProcessor#begin(Request)}、{@link NetworkProcessor#onNetworkResponse(Request, NetworkResponse)}
+ * 配合使用，由{@link NetworkEngine}决定在哪个线程中解析响应。
+ */
+public interface AsyncNetwork {
+
+    /**
+     * Receives the outcome of an asynchronous request. Called on the network's I/O thread, so
+     * implementations should hand off any real work.
+     */
+    public interface Callback {
+        /**
+         * 请求成功，包括304
+         */
+        public void onResponse(NetworkResponse response);
+
+        /**
+         * 重试之后仍然失败
+         */
+        public void onError(VolleyError error);
+    }
+
+    /**
+     * 是否能以非阻塞的方式执行该请求，例如下载、流式解析的请求需要使用阻塞的{@link Network}
+     */
+    public boolean canPerformAsync(Request<?> request);
+
+    /**
+     * Starts performing the request, retrying according to its {@link RetryPolicy}.
+     *
+     * @param request  the request to perform
+     * @param callback receives exactly one of the response or the error
+     */
+    public void performRequest(Request<?> request, Callback callback);
+}
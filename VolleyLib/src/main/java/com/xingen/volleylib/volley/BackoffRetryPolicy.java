@@ -0,0 +1,30 @@
+package com.xingen.volleylib.volley;
+
+/**
+ * A {@link RetryPolicy} whose retries wait for a delay before being performed again.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. Network不在当前线程中重试，直接抛出异常；由{@link NetworkProcessor}调用{@link #retry(VolleyError)}，
+ * 等待{@link #getRetryDelayMs()}后将请求重新加入网络队列，等待期间不占用网络线程。
+ * 2. 重试受{@link RequestQueue}的{@link RetryBudget}限制。
+ * 3. 默认只重试幂等的请求，见{@link #shouldRetryNonIdempotent()}。
+ */
+public interface BackoffRetryPolicy extends RetryPolicy {
+
+    /**
+     * Returns the delay before the retry prepared by the last successful call to
+     * {@link #retry(VolleyError)}.
+     *
+     * 返回下一次重试前需要等待的毫秒数
+     */
+    public long getRetryDelayMs();
+
+    /**
+     * Returns true if requests with a non-idempotent method (POST, PATCH) may be retried
+     * automatically. The server may have processed the failed attempt already.
+     *
+     * 非幂等的请求重试时，服务器可能执行两次，返回false时只重试GET、HEAD、PUT、DELETE、OPTIONS、TRACE
+     */
+    public boolean shouldRetryNonIdempotent();
+}
@@ -16,6 +16,9 @@
 
 package com.xingen.volleylib.volley;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Map;
 
@@ -75,6 +78,12 @@ public interface Cache {
         /** The data returned from cache.  从缓存返回的数据 */
         public byte[] data;
 
+        /**
+         * Read-only body returned instead of {@link #data} for large entries, e.g. a memory
+         * mapped region of the cache file. 较大的缓存通过内存映射读取，此时data为null。
+         */
+        public ByteBuffer buffer;
+
         /** ETag for cache coherency etag用于缓存一致性.   */
         public String etag;
 
@@ -90,6 +99,35 @@ public interface Cache {
         /** Immutable response headers as received from server; must be non-null.  从服务器上响应的header */
         public Map<String, String> responseHeaders = Collections.emptyMap();
 
+        /**
+         * 返回数据的长度
+         */
+        public int getDataLength() {
+            return data != null ? data.length : buffer.remaining();
+        }
+
+        /**
+         * 返回byte数组形式的数据，数据在只读缓冲区中时复制一份。
+         */
+        public byte[] getData() {
+            if (data != null || buffer == null) {
+                return data;
+            }
+            byte[] copy = new byte[buffer.remaining()];
+            buffer.duplicate().get(copy);
+            return copy;
+        }
+
+        /**
+         * 返回读取数据的输入流，数据在只读缓冲区中时不复制。
+         */
+        public InputStream openStream() {
+            if (data != null || buffer == null) {
+                return new ByteArrayInputStream(data);
+            }
+            return new ByteBufferInputStream(buffer.duplicate());
+        }
+
         /**
          * 返回true,实体已经过期
          **/
@@ -103,6 +141,75 @@ public interface Cache {
         public boolean refreshNeeded() {
             return this.softTtl < System.currentTimeMillis();
         }
+
+        /**
+         * Returns true if the server allowed this entry to be used when revalidating it fails,
+         * i.e. it is within the RFC 5861 stale-if-error window after {@link #softTtl}.
+         *
+         * 返回true，网络请求失败（连接失败、超时、5xx）时可以使用该数据。
+         * 从响应头的Cache-Control中读取stale-if-error，不需要改变缓存的格式；must-revalidate时不允许。
+         */
+        public boolean isUsableOnError() {
+            if (softTtl <= 0) {
+                return false;
+            }
+            long staleIfErrorMs = 0;
+            for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
+                if (!"Cache-Control".equalsIgnoreCase(header.getKey()) || header.getValue() == null) {
+                    continue;
+                }
+                for (String token : header.getValue().split(",")) {
+                    token = token.trim();
+                    if (token.equals("must-revalidate") || token.equals("proxy-revalidate")) {
+                        return false;
+                    }
+                    if (token.startsWith("stale-if-error=")) {
+                        try {
+                            staleIfErrorMs = Long.parseLong(token.substring(15)) * 1000;
+                        } catch (NumberFormatException ignored) {
+                        }
+                    }
+                }
+            }
+            return staleIfErrorMs > 0 && softTtl + staleIfErrorMs >= System.currentTimeMillis();
+        }
     }
 
+    /**
+     * 读取ByteBuffer中剩余数据的输入流
+     */
+    class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) {
+            if (!mBuffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(count, mBuffer.remaining());
+            mBuffer.get(buffer, offset, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.min(Math.max(n, 0), mBuffer.remaining());
+            mBuffer.position(mBuffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
 }
@@ -16,8 +16,9 @@
 
 package com.xingen.volleylib.volley;
 
-import android.os.Process;
+import org.apache.http.HttpStatus;
 
+import java.io.IOException;
 import java.util.concurrent.BlockingQueue;
 
 /**
@@ -77,7 +78,7 @@ public class CacheDispatcher extends Thread {
     public void run() {
         if (DEBUG) VolleyLog.v("start new dispatcher");
         //设置线程优先级，这里是后台线程
-        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        Platform.setBackgroundThreadPriority();
         //进行一个阻塞调用，来初始化这缓存。实际上是进行 DiskBasedCache上读取到全部文件的详细信息，不包括文件内容。
         mCache.initialize();
        //while循环，从缓存请求的队列中取出请求，执行操作
@@ -92,6 +93,12 @@ public class CacheDispatcher extends Thread {
                     request.finish("cache-discard-canceled");
                     continue;
                 }
+                //超过截止时间的请求不再读取缓存、执行网络请求
+                if (request.isDeadlineExceeded()) {
+                    request.addMarker("cache-discard-deadline");
+                    mDelivery.postError(request, new DeadlineExceededError());
+                    continue;
+                }
                 //从磁盘中获取该请求需要的数据，若是没有则加入网络队列中，执行网络操作。
                 Cache.Entry entry = mCache.get(request.getCacheKey());
                 if (entry == null) {
@@ -110,7 +117,7 @@ public class CacheDispatcher extends Thread {
                 }
                 request.addMarker("cache-hit");
                 //解析从磁盘中读取到数据
-                Response<?> response = request.parseNetworkResponse(new NetworkResponse(entry.data, entry.responseHeaders));
+                Response<?> response = parseCacheEntry(mCache, request, entry);
                 request.addMarker("cache-hit-parsed");
                  //数据是否需要刷新
                 if (!entry.refreshNeeded()) {
@@ -144,4 +151,37 @@ public class CacheDispatcher extends Thread {
             }
         }
     }
+
+    /**
+     * 解析缓存实体。若是缓存中保存了该请求解析后的对象，直接使用，不再解析。
+     * 网络请求失败时使用缓存数据（stale-if-error），也由{@link NetworkProcessor}调用。
+     */
+    @SuppressWarnings("unchecked")
+    static <T> Response<T> parseCacheEntry(Cache cache, Request<T> request, Cache.Entry entry) {
+        ParsedResponseCache parsedCache = null;
+        if (request.shouldCacheParsedResponse() && cache instanceof ParsedResponseCache) {
+            parsedCache = (ParsedResponseCache) cache;
+            Object parsed = parsedCache.getParsedResponse(request.getCacheKey(), entry, request.getClass());
+            if (parsed != null) {
+                request.addMarker("cache-hit-parsed-object");
+                return Response.success((T) parsed, entry);
+            }
+        }
+        NetworkResponse cachedResponse = NetworkResponse.fromCacheEntry(HttpStatus.SC_OK,
+                entry, entry.responseHeaders, false, request);
+        Response<T> response;
+        try {
+            response = request.parseNetworkResponse(cachedResponse);
+        } finally {
+            if (cachedResponse.stream != null) {
+                try {
+                    cachedResponse.stream.close();
+                } catch (IOException ignored) { }
+            }
+        }
+        if (parsedCache != null && response.isSuccess()) {
+            parsedCache.putParsedResponse(request.getCacheKey(), entry, request.getClass(), response.result);
+        }
+        return response;
+    }
 }
@@ -0,0 +1,33 @@
+package com.xingen.volleylib.volley;
+
+/**
+ * Indicates that a request was not performed because the circuit breaker of its host is open.
+ * <p>
+ * 该host最近的请求大量失败，请求没有发出，立即失败。
+ */
+@SuppressWarnings("serial")
+public class CircuitOpenError extends VolleyError {
+    private final String mHost;
+    private final long mRetryAfterMs;
+
+    /**
+     * @param host         请求的host
+     * @param retryAfterMs 距离允许试探请求的毫秒数
+     */
+    public CircuitOpenError(String host, long retryAfterMs) {
+        super("Circuit open for " + host);
+        mHost = host;
+        mRetryAfterMs = retryAfterMs;
+    }
+
+    public String getHost() {
+        return mHost;
+    }
+
+    /**
+     * 返回距离允许试探请求的毫秒数，为0时表示正在进行试探请求
+     */
+    public long getRetryAfterMs() {
+        return mRetryAfterMs;
+    }
+}
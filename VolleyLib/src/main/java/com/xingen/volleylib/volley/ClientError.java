@@ -0,0 +1,18 @@
+package com.xingen.volleylib.volley;
+
+/**
+ * Indicates that the server responded with a 4xx status other than 401/403, i.e. an error in
+ * the request itself.
+ * <p>
+ * 客户端错误，重试不会得到不同的结果。继承ServerError，原有的判断不受影响。
+ */
+@SuppressWarnings("serial")
+public class ClientError extends ServerError {
+    public ClientError(NetworkResponse networkResponse) {
+        super(networkResponse);
+    }
+
+    public ClientError() {
+        super();
+    }
+}
@@ -0,0 +1,11 @@
+package com.xingen.volleylib.volley;
+
+/**
+ * Indicates that a request was abandoned because its {@link Request#setDeadline(long) deadline}
+ * passed, either while it was queued or between retries.
+ * <p>
+ * 超过截止时间的请求不再执行或者重试。最后一次网络请求的异常可以通过{@link #getCause()}获取。
+ */
+@SuppressWarnings("serial")
+public class DeadlineExceededError extends TimeoutError {
+}
@@ -29,6 +29,18 @@ import java.util.concurrent.Executor;
  *
  */
 public class ExecutorDelivery implements ResponseDelivery {
+    /**
+     * Runs deliveries on the thread that produced the response, i.e. a cache or network thread.
+     *
+     * 在产生结果的线程中直接传递，不经过主线程
+     */
+    public static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     /**
      * 主线程的线程执行工具
      *  */
@@ -68,14 +80,22 @@ public class ExecutorDelivery implements ResponseDelivery {
     public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
         request.markDelivered();
         request.addMarker("post-response");
-        mResponsePoster.execute(new ResponseDeliveryRunnable(request, response, runnable));
+        getPoster(request).execute(new ResponseDeliveryRunnable(request, response, runnable));
     }
 
     @Override
     public void postError(Request<?> request, VolleyError error) {
         request.addMarker("post-error");
         Response<?> response = Response.error(error);
-        mResponsePoster.execute(new ResponseDeliveryRunnable(request, response, null));
+        getPoster(request).execute(new ResponseDeliveryRunnable(request, response, null));
+    }
+
+    /**
+     * 请求设置了传递结果的线程时，使用该线程，否则使用默认的线程
+     */
+    private Executor getPoster(Request<?> request) {
+        Executor executor = request.getDeliveryExecutor();
+        return executor != null ? executor : mResponsePoster;
     }
 
     /**
@@ -110,6 +130,8 @@ public class ExecutorDelivery implements ResponseDelivery {
             } else {
                 mRequest.deliverError(mResponse.error);
             }
+            // 通过addAsync()添加的请求，结果也传递给RequestPromise
+            mRequest.completePromise(mResponse);
 
             // If this is an intermediate response, add a marker, otherwise we're done
             // and the request can be finished.
@@ -0,0 +1,149 @@
+package com.xingen.volleylib.volley;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A {@link BackoffRetryPolicy} with jittered exponential backoff.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 第n次重试前等待[0, min(maxDelay, baseDelay * 2^(n-1))]之间的随机时间（full jitter），
+ * 服务器异常时各个客户端的重试被分散开，不会同时重试。
+ * 2. 超时、连接失败、5xx、429时重试，其余异常不重试。401、403需要新的凭据，重试不会成功。
+ * 3. 429、503的响应带有Retry-After（秒）时，至少等待该时间；超过最大等待时间时不再重试。
+ * 4. 默认只重试幂等的请求，POST、PATCH需要调用{@link #setRetryNonIdempotent(boolean)}。
+ * <p>
+ * 每个请求需要使用一个新的对象。
+ */
+public class ExponentialBackoffRetryPolicy implements BackoffRetryPolicy {
+
+    /** The default socket timeout in milliseconds */
+    public static final int DEFAULT_TIMEOUT_MS = DefaultRetryPolicy.DEFAULT_TIMEOUT_MS;
+
+    /** The default number of retries */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /** 第一次重试的最大等待时间 */
+    public static final long DEFAULT_BASE_DELAY_MS = 500;
+
+    /** 每次重试的最大等待时间 */
+    public static final long DEFAULT_MAX_DELAY_MS = 30 * 1000;
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final int SC_SERVICE_UNAVAILABLE = 503;
+
+    private static final Random sRandom = new Random();
+
+    private final int mTimeoutMs;
+    private final int mMaxNumRetries;
+    private final long mBaseDelayMs;
+    private final long mMaxDelayMs;
+
+    private int mCurrentRetryCount;
+    private long mRetryDelayMs;
+    private boolean mRetryNonIdempotent;
+
+    public ExponentialBackoffRetryPolicy() {
+        this(DEFAULT_TIMEOUT_MS, DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS);
+    }
+
+    /**
+     * @param timeoutMs     每次请求的超时时间
+     * @param maxNumRetries 最大重试次数
+     * @param baseDelayMs   第一次重试的最大等待时间，之后每次翻倍
+     * @param maxDelayMs    每次重试的最大等待时间
+     */
+    public ExponentialBackoffRetryPolicy(int timeoutMs, int maxNumRetries, long baseDelayMs, long maxDelayMs) {
+        mTimeoutMs = timeoutMs;
+        mMaxNumRetries = maxNumRetries;
+        mBaseDelayMs = baseDelayMs;
+        mMaxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * 设置是否自动重试POST、PATCH请求，默认为false。只在服务器能识别重复请求时（例如幂等键）开启。
+     *
+     * @return This policy object to allow for chaining.
+     */
+    public ExponentialBackoffRetryPolicy setRetryNonIdempotent(boolean retryNonIdempotent) {
+        mRetryNonIdempotent = retryNonIdempotent;
+        return this;
+    }
+
+    @Override
+    public boolean shouldRetryNonIdempotent() {
+        return mRetryNonIdempotent;
+    }
+
+    @Override
+    public int getCurrentTimeout() {
+        return mTimeoutMs;
+    }
+
+    @Override
+    public int getCurrentRetryCount() {
+        return mCurrentRetryCount;
+    }
+
+    @Override
+    public long getRetryDelayMs() {
+        return mRetryDelayMs;
+    }
+
+    @Override
+    public void retry(VolleyError error) throws VolleyError {
+        if (!isRetryable(error) || mCurrentRetryCount >= mMaxNumRetries) {
+            throw error;
+        }
+        long retryAfterMs = getRetryAfterMs(error);
+        if (retryAfterMs > mMaxDelayMs) {
+            throw error;
+        }
+        mCurrentRetryCount++;
+        //2^(n-1)，避免移位溢出
+        int shift = Math.min(mCurrentRetryCount - 1, 30);
+        long ceiling = Math.min(mMaxDelayMs, mBaseDelayMs << shift);
+        if (ceiling < 0) {
+            ceiling = mMaxDelayMs;
+        }
+        long jitter = (long) (sRandom.nextDouble() * ceiling);
+        mRetryDelayMs = Math.max(jitter, retryAfterMs);
+    }
+
+    /**
+     * 返回该异常是否需要重试，子类可以重写
+     */
+    protected boolean isRetryable(VolleyError error) {
+        if (error instanceof TimeoutError || error instanceof NoConnectionError) {
+            return true;
+        }
+        if (error.networkResponse == null) {
+            return error instanceof NetworkError;
+        }
+        int statusCode = error.networkResponse.statusCode;
+        return statusCode >= 500 || statusCode == SC_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * 解析429、503响应中的Retry-After，只支持秒数，没有时返回0
+     */
+    private static long getRetryAfterMs(VolleyError error) {
+        NetworkResponse response = error.networkResponse;
+        if (response == null || response.headers == null
+                || (response.statusCode != SC_TOO_MANY_REQUESTS && response.statusCode != SC_SERVICE_UNAVAILABLE)) {
+            return 0;
+        }
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            if ("Retry-After".equalsIgnoreCase(header.getKey()) && header.getValue() != null) {
+                try {
+                    return Math.max(0, Long.parseLong(header.getValue().trim()) * 1000);
+                } catch (NumberFormatException e) {
+                    //HTTP日期格式，忽略
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,160 @@
+package com.xingen.volleylib.volley;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An {@link Executor} that runs commands on a {@link Handler}'s thread in batches, instead of
+ * posting one message per command.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 任意线程添加的任务先放入一个无锁队列，队列中有任务时只向Handler发送一个消息，在一个消息中依次执行全部任务。
+ * 2. 在主线程中（API 16及以上），批量执行与屏幕刷新对齐，每帧执行一次。
+ * 3. 一次执行超过{@link #FRAME_BUDGET_MS}时，剩余任务留到下一次执行，避免卡顿。
+ * 4. {@link #executeLatest(Object, Runnable)}：相同key的任务在执行前只保留最新的一个，用于传递进度。
+ * <p>
+ * 任务按添加的顺序执行。
+ */
+public class FrameBatchExecutor implements Executor {
+
+    /** 每次批量执行的时间上限 */
+    public static final long FRAME_BUDGET_MS = 8;
+
+    private static FrameBatchExecutor sMainThreadExecutor;
+
+    private final Handler mHandler;
+    /** 等待执行的任务 */
+    private final ConcurrentLinkedQueue<Runnable> mQueue = new ConcurrentLinkedQueue<Runnable>();
+    /** executeLatest()添加的任务，key与最新的任务 */
+    private final ConcurrentHashMap<Object, Runnable> mLatest = new ConcurrentHashMap<Object, Runnable>();
+    /** 是否已经安排了一次批量执行 */
+    private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final Runnable mPostToFrame = new Runnable() {
+        @Override
+        public void run() {
+            postFrameCallback();
+        }
+    };
+
+    /** Choreographer.FrameCallback，API 16以下为null */
+    private Object mFrameCallback;
+
+    public FrameBatchExecutor(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * 返回在主线程中批量执行任务的Executor
+     */
+    public static synchronized FrameBatchExecutor getMainThreadExecutor() {
+        if (sMainThreadExecutor == null) {
+            sMainThreadExecutor = new FrameBatchExecutor(new Handler(Looper.getMainLooper()));
+        }
+        return sMainThreadExecutor;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        mQueue.offer(command);
+        scheduleDrain();
+    }
+
+    /**
+     * Runs the command unless a newer command with the same key is added before it runs. The
+     * command keeps the position of the first pending command for the key.
+     *
+     * @param key     compared with equals()，例如请求对象
+     * @param command 要执行的任务
+     */
+    public void executeLatest(Object key, Runnable command) {
+        if (mLatest.put(key, command) == null) {
+            mQueue.offer(new LatestRunnable(key));
+            scheduleDrain();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (!mScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        if (!isFrameAligned()) {
+            mHandler.post(mDrain);
+        } else if (Looper.myLooper() == mHandler.getLooper()) {
+            postFrameCallback();
+        } else {
+            //Choreographer与线程绑定，需要在主线程中获取
+            mHandler.post(mPostToFrame);
+        }
+    }
+
+    private boolean isFrameAligned() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                && mHandler.getLooper() == Looper.getMainLooper();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    drain();
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    private void drain() {
+        //先重置标识，执行过程中添加的任务会安排下一次执行
+        mScheduled.set(false);
+        long start = SystemClock.uptimeMillis();
+        Runnable command;
+        while ((command = mQueue.poll()) != null) {
+            command.run();
+            if (SystemClock.uptimeMillis() - start >= FRAME_BUDGET_MS) {
+                if (!mQueue.isEmpty()) {
+                    scheduleDrain();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 在队列中占位，执行时取出该key最新的任务
+     */
+    private class LatestRunnable implements Runnable {
+        private final Object mKey;
+
+        LatestRunnable(Object key) {
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            Runnable command = mLatest.remove(mKey);
+            if (command != null) {
+                command.run();
+            }
+        }
+    }
+}
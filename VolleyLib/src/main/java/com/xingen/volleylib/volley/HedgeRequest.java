@@ -0,0 +1,60 @@
+package com.xingen.volleylib.volley;
+
+import java.util.Map;
+
+/**
+ * The second attempt of a hedged request, see {@link Request#setHedgePercentile(float)}.
+ * <p>
+ * 与原请求使用相同的URL、header和缓存验证信息，只执行网络请求，不重试、不传递；
+ * 响应由{@link NetworkProcessor}作为原请求的响应处理。
+ */
+class HedgeRequest extends Request<Object> {
+
+    private final Request<?> mOriginal;
+    private final RequestHedger.Call mCall;
+
+    HedgeRequest(Request<?> original, RequestHedger.Call call) {
+        super(original.getMethod(), original.getUrl(), null);
+        mOriginal = original;
+        mCall = call;
+        setRetryPolicy(new DefaultRetryPolicy(original.getTimeoutMs(), 0, 1f));
+        setShouldCache(false);
+        setShouldCoalesce(false);
+        setSequence(original.getSequence());
+        setCacheEntry(original.getCacheEntry());
+        setTag(original.getTag());
+    }
+
+    RequestHedger.Call getCall() {
+        return mCall;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        return mOriginal.getHeaders();
+    }
+
+    @Override
+    public Priority getPriority() {
+        return mOriginal.getPriority();
+    }
+
+    @Override
+    public int getTrafficStatsTag() {
+        return mOriginal.getTrafficStatsTag();
+    }
+
+    /**
+     * 对冲请求的响应由{@link NetworkProcessor}交给原请求解析，这里同样委托给原请求，不会抛出异常
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Response<Object> parseNetworkResponse(NetworkResponse response) {
+        //原请求的T在这里未知，解析结果只作为Object使用
+        return (Response<Object>) mOriginal.parseNetworkResponse(response);
+    }
+
+    @Override
+    protected void deliverResponse(Object response) {
+    }
+}
@@ -16,11 +16,6 @@
 
 package com.xingen.volleylib.volley;
 
-import android.annotation.TargetApi;
-import android.net.TrafficStats;
-import android.os.Build;
-import android.os.Process;
-
 import java.util.concurrent.BlockingQueue;
 
 /**
@@ -37,16 +32,14 @@ import java.util.concurrent.BlockingQueue;
  *      2.请求时添加到一个指定的队列中，完成请求是在Network接口中。
  *      3.使用一个Cache接口，来缓存响应结果
  *      4.有效的响应和异常是传递到在一个ResponseDelivery类中进行回调操作。
+ *
+ * 每个请求的执行过程在{@link NetworkProcessor}中。
  */
 public class NetworkDispatcher extends Thread {
     /** 需要执行网络操作的请求队列  */
     private final BlockingQueue<Request<?>> mQueue;
-    /** 网络执行工具类 */
-    private final Network mNetwork;
-    /** 磁盘缓存，操作类 */
-    private final Cache mCache;
-    /** 响应结果和异常的回调传递 */
-    private final ResponseDelivery mDelivery;
+    /** 执行请求 */
+    private final NetworkProcessor mProcessor;
     /** 用于告诉，线程失败标识 */
     private volatile boolean mQuit = false;
 
@@ -63,11 +56,18 @@ public class NetworkDispatcher extends Thread {
     public NetworkDispatcher(BlockingQueue<Request<?>> queue,
             Network network, Cache cache,
             ResponseDelivery delivery) {
+        this(queue, new NetworkProcessor(queue, network, cache, delivery, null));
+    }
+
+    /**
+     * @param queue Queue of incoming requests for triage
+     * @param processor Processor that performs each request
+     */
+    public NetworkDispatcher(BlockingQueue<Request<?>> queue, NetworkProcessor processor) {
         mQueue = queue;
-        mNetwork = network;
-        mCache = cache;
-        mDelivery = delivery;
+        mProcessor = processor;
     }
+
     /**
      * Forces this dispatcher to quit immediately.  If any requests are still in
      * the queue, they are not guaranteed to be processed.
@@ -78,17 +78,11 @@ public class NetworkDispatcher extends Thread {
         mQuit = true;
         interrupt();
     }
-    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
-    private void addTrafficStatsTag(Request<?> request) {
-        // Tag the request (if API >= 14)
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-            TrafficStats.setThreadStatsTag(request.getTrafficStatsTag());
-        }
-    }
+
     @Override
     public void run() {
         //设置线程优先级，这里是后台线程
-        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        Platform.setBackgroundThreadPriority();
         Request<?> request;
         //while循环，从网络队列中获取要执行的请求。
         while (true) {
@@ -102,62 +96,7 @@ public class NetworkDispatcher extends Thread {
                 }
                 continue;
             }
-            try {
-                //添加被执行的标记
-                request.addMarker("network-queue-take");
-
-                //若是请求已经被取消，则不执行网络请求
-                if (request.isCanceled()) {
-                    request.finish("network-discard-cancelled");
-                    continue;
-                }
-                addTrafficStatsTag(request);
-                //在NetWork子类类中执行网络请求的操作，返回网络响应数据
-                NetworkResponse networkResponse = mNetwork.performRequest(request);
-                //在请求中添加网络操作完成的标志
-                request.addMarker("network-http-complete");
-                /**
-                 *  若是服务器返回304 和请求已经传递一个响应，则不会再二次传递一个相同的响应。
-                 *  服务器返回304代表，url指向的资源文件中内容没有发生变化。
-                 *
-                 *  request.hasHadResponseDelivered()返回true，这表明，该请求在缓存线程中读取到了磁盘中缓存数据，但是数据需要被刷新。
-                 */
-                if (networkResponse.notModified && request.hasHadResponseDelivered()) {
-                    request.finish("not-modified");
-                    continue;
-                }
-
-                //在网络线程中指向解析响应的数据
-                Response<?> response = request.parseNetworkResponse(networkResponse);
-                //在请求中添加网络解析已经完成的标志
-                request.addMarker("network-parse-complete");
-                //若是需要缓存，则将解析后数据写入缓存中。
-                //注意点：在304s情况下（即内容数据相同时），只会更新缓存的metadata, 不会更新内容数据。
-                if (request.shouldCache() && response.cacheEntry != null) {
-                    mCache.put(request.getCacheKey(), response.cacheEntry);
-                    //在请求中添加已经被写入缓存的标记
-                    request.addMarker("network-cache-written");
-                }
-                // Post the response back.
-                request.markDelivered();
-                //在ResponseDelivery类中回调请求和解析后响应数据
-                mDelivery.postResponse(request, response);
-            } catch (VolleyError volleyError) {
-                parseAndDeliverNetworkError(request, volleyError);
-            } catch (Exception e) {
-                VolleyLog.e(e, "Unhandled exception %s", e.toString());
-                mDelivery.postError(request, new VolleyError(e));
-            }
+            mProcessor.process(request);
         }
     }
-
-    /**
-     * 解析，传递网络异常。
-     * @param request
-     * @param error
-     */
-    private void parseAndDeliverNetworkError(Request<?> request, VolleyError error) {
-        error = request.parseNetworkError(error);
-        mDelivery.postError(request, error);
-    }
 }
@@ -0,0 +1,29 @@
+package com.xingen.volleylib.volley;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs the requests of the network queue on worker threads, in place of the fixed
+ * {@link NetworkDispatcher} threads of a {@link RequestQueue}.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 决定网络请求在哪些线程中、以怎样的并发执行，例如按请求类型分组、随队列长度增减线程。
+ * 2. 每个请求通过{@link NetworkProcessor#process(Request)}执行。
+ */
+public interface NetworkEngine {
+
+    /**
+     * Starts taking requests from the network queue and performing them with the processor.
+     *
+     * @param networkQueue the queue the cache dispatcher and the request queue add requests to
+     * @param processor    performs one request on the calling thread
+     */
+    public void start(BlockingQueue<Request<?>> networkQueue, NetworkProcessor processor);
+
+    /**
+     * Stops the engine. Requests that were taken from the network queue but not started are
+     * put back on it, so that the engine can be started again.
+     */
+    public void stop();
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.xingen.volleylib.volley;
+
+import android.annotation.TargetApi;
+import android.net.TrafficStats;
+import android.os.Build;
+
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Performs a single request taken from the network queue: runs it through a {@link Network},
+ * commits the response to the {@link Cache} if eligible and posts the result to a
+ * {@link ResponseDelivery}.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 执行网络请求、解析响应、写入缓存、传递结果，与运行在哪个线程无关。
+ * 2. 由{@link NetworkDispatcher}或者{@link NetworkEngine}在其工作线程中调用，可以被多个线程同时调用。
+ */
+public class NetworkProcessor {
+    /** 网络队列，合并的请求被取消后，接替的请求重新加入该队列 */
+    private final BlockingQueue<Request<?>> mQueue;
+    /** 网络执行工具类 */
+    private final Network mNetwork;
+    /** 磁盘缓存，操作类 */
+    private final Cache mCache;
+    /** 响应结果和异常的回调传递 */
+    private final ResponseDelivery mDelivery;
+    /** 合并相同的请求，可以为null */
+    private final RequestCoalescer mCoalescer;
+    /** 等待重试的请求到期后重新加入网络队列，可以为null */
+    private final RetryScheduler mRetryScheduler;
+    /** 限制重试的次数，可以为null */
+    private final RetryBudget mRetryBudget;
+    /** 发出对冲请求，可以为null */
+    private final RequestHedger mHedger;
+
+    NetworkProcessor(BlockingQueue<Request<?>> queue, Network network, Cache cache,
+            ResponseDelivery delivery, RequestCoalescer coalescer) {
+        this(queue, network, cache, delivery, coalescer, null, null, null);
+    }
+
+    NetworkProcessor(BlockingQueue<Request<?>> queue, Network network, Cache cache,
+            ResponseDelivery delivery, RequestCoalescer coalescer, RetryScheduler retryScheduler,
+            RetryBudget retryBudget, RequestHedger hedger) {
+        mQueue = queue;
+        mNetwork = network;
+        mCache = cache;
+        mDelivery = delivery;
+        mCoalescer = coalescer;
+        mRetryScheduler = retryScheduler;
+        mRetryBudget = retryBudget;
+        mHedger = hedger;
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private void addTrafficStatsTag(Request<?> request) {
+        // Tag the request (if API >= 14)
+        if (Platform.IS_ANDROID && Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            TrafficStats.setThreadStatsTag(request.getTrafficStatsTag());
+        }
+    }
+
+    /**
+     * 在当前线程中执行请求
+     *
+     * @param request 从网络队列中取出的请求
+     */
+    public void process(Request<?> request) {
+        if (!begin(request)) {
+            return;
+        }
+        NetworkResponse networkResponse;
+        try {
+            //在NetWork子类类中执行网络请求的操作，返回网络响应数据
+            networkResponse = mNetwork.performRequest(request);
+        } catch (VolleyError volleyError) {
+            onNetworkError(request, volleyError);
+            return;
+        } catch (Exception e) {
+            VolleyLog.e(e, "Unhandled exception %s", e.toString());
+            onFailure(request, new VolleyError(e), true);
+            return;
+        }
+        onNetworkResponse(request, networkResponse);
+    }
+
+    /**
+     * Prepares a request taken from the network queue for its network call. Used together with
+     * {@link #onNetworkResponse(Request, NetworkResponse)} and
+     * {@link #onNetworkError(Request, VolleyError)} by engines that perform the network call
+     * asynchronously, e.g. with an {@link AsyncNetwork}.
+     *
+     * @return false if the request was cancelled and must not be performed
+     */
+    public boolean begin(Request<?> request) {
+        if (request instanceof HedgeRequest) {
+            //对冲请求已经计入重试限制，不计入请求数
+            HedgeRequest hedge = (HedgeRequest) request;
+            hedge.addMarker("network-queue-take");
+            if (hedge.isCanceled()) {
+                onFailure(hedge, new VolleyError("Hedge cancelled"), false);
+                return false;
+            }
+            hedge.getCall().onHedgeStarted();
+            addTrafficStatsTag(hedge);
+            return true;
+        }
+        //添加被执行的标记
+        request.addMarker("network-queue-take");
+
+        //若是请求已经被取消，则不执行网络请求
+        if (request.isCanceled()) {
+            promoteCoalesced(request);
+            request.finish("network-discard-cancelled");
+            return false;
+        }
+        //超过截止时间的请求不再执行，已经传递过缓存的中间响应时不再传递异常
+        if (request.isDeadlineExceeded()) {
+            promoteCoalesced(request);
+            if (request.hasHadResponseDelivered()) {
+                request.finish("network-discard-deadline");
+            } else {
+                request.addMarker("network-discard-deadline");
+                mDelivery.postError(request, new DeadlineExceededError());
+            }
+            return false;
+        }
+        //重试的请求不计入重试限制的请求数
+        if (mRetryBudget != null && request.getRetryPolicy().getCurrentRetryCount() == 0) {
+            mRetryBudget.onRequest();
+        }
+        //需要对冲时开始计时，到期未完成时由其他线程发出相同的请求
+        request.setHedgeCall(mHedger != null ? mHedger.start(request, mRetryBudget) : null);
+        addTrafficStatsTag(request);
+        return true;
+    }
+
+    /**
+     * 网络请求完成：解析响应、写入缓存、传递结果，在当前线程中执行
+     */
+    public void onNetworkResponse(Request<?> request, NetworkResponse networkResponse) {
+        //对冲的请求，第一个成功的响应作为原请求的响应处理
+        if (request instanceof HedgeRequest) {
+            RequestHedger.Call call = ((HedgeRequest) request).getCall();
+            if (!claimHedged(call, false, networkResponse)) {
+                return;
+            }
+            request = call.original;
+            request.addMarker("hedge-won");
+        } else if (request.getHedgeCall() != null) {
+            if (!claimHedged(request.getHedgeCall(), true, networkResponse)) {
+                return;
+            }
+        }
+        deliverNetworkResponse(request, networkResponse);
+    }
+
+    /**
+     * 对冲的一次执行成功，记录耗时
+     *
+     * @return false表示另一次执行的响应已经被采用，丢弃该响应
+     */
+    private boolean claimHedged(RequestHedger.Call call, boolean primary, NetworkResponse networkResponse) {
+        if (mHedger != null) {
+            mHedger.recordLatency(call.original, call.getElapsedMs(primary));
+        }
+        if (call.claim(primary)) {
+            return true;
+        }
+        if (primary) {
+            call.original.addMarker("hedge-lost");
+        }
+        closeQuietly(networkResponse);
+        return false;
+    }
+
+    private void deliverNetworkResponse(Request<?> request, NetworkResponse networkResponse) {
+        try {
+            //在请求中添加网络操作完成的标志
+            request.addMarker("network-http-complete");
+            //先将响应传递给等待该请求的相同请求，leader解析失败时不影响它们
+            deliverToCoalesced(request, networkResponse);
+            /**
+             *  若是服务器返回304 和请求已经传递一个响应，则不会再二次传递一个相同的响应。
+             *  服务器返回304代表，url指向的资源文件中内容没有发生变化。
+             *
+             *  request.hasHadResponseDelivered()返回true，这表明，该请求在缓存线程中读取到了磁盘中缓存数据，但是数据需要被刷新。
+             */
+            if (networkResponse.notModified && request.hasHadResponseDelivered()) {
+                request.finish("not-modified");
+                return;
+            }
+
+            //在网络线程中指向解析响应的数据
+            Response<?> response;
+            try {
+                response = request.parseNetworkResponse(networkResponse);
+                //流式解析的响应，读取完剩余数据后，将复制的数据写入缓存实体中
+                if (networkResponse.stream != null && response.cacheEntry != null) {
+                    fillStreamedCacheEntry(request, networkResponse.stream, response.cacheEntry);
+                    //304时数据来自映射的缓存，直接使用原缓存的只读缓冲区
+                    if (networkResponse.notModified && response.cacheEntry.data == null
+                            && request.getCacheEntry() != null) {
+                        response.cacheEntry.buffer = request.getCacheEntry().buffer;
+                    }
+                }
+            } finally {
+                if (networkResponse.stream != null) {
+                    closeQuietly(networkResponse.stream);
+                }
+            }
+            //在请求中添加网络解析已经完成的标志
+            request.addMarker("network-parse-complete");
+            //若是需要缓存，则将解析后数据写入缓存中。
+            //注意点：在304s情况下（即内容数据相同时），只会更新缓存的metadata, 不会更新内容数据。
+            if (request.shouldCache() && response.cacheEntry != null
+                    && (response.cacheEntry.data != null || response.cacheEntry.buffer != null)) {
+                mCache.put(request.getCacheKey(), response.cacheEntry);
+                //在请求中添加已经被写入缓存的标记
+                request.addMarker("network-cache-written");
+                if (request.shouldCacheParsedResponse() && mCache instanceof ParsedResponseCache) {
+                    ((ParsedResponseCache) mCache).putParsedResponse(request.getCacheKey(),
+                            response.cacheEntry, request.getClass(), response.result);
+                }
+            }
+            // Post the response back.
+            request.markDelivered();
+            //在ResponseDelivery类中回调请求和解析后响应数据
+            mDelivery.postResponse(request, response);
+        } catch (Exception e) {
+            VolleyLog.e(e, "Unhandled exception %s", e.toString());
+            VolleyError volleyError = new VolleyError(e);
+            deliverErrorToCoalesced(request, volleyError);
+            mDelivery.postError(request, volleyError);
+        }
+    }
+
+    /**
+     * 网络请求失败：需要延迟重试时重新加入网络队列，否则传递异常，在当前线程中执行
+     */
+    public void onNetworkError(Request<?> request, VolleyError volleyError) {
+        onFailure(request, volleyError, false);
+    }
+
+    /**
+     * 网络请求失败。对冲的请求在两次执行都失败后才处理异常。
+     *
+     * @param unhandled 执行时抛出了非VolleyError的异常，不重试，直接传递
+     */
+    private void onFailure(Request<?> request, VolleyError volleyError, boolean unhandled) {
+        if (request instanceof HedgeRequest) {
+            RequestHedger.Call call = ((HedgeRequest) request).getCall();
+            volleyError = call.onError(false, volleyError);
+            request = call.original;
+        } else if (request.getHedgeCall() != null) {
+            volleyError = request.getHedgeCall().onError(true, volleyError);
+        }
+        if (volleyError == null) {
+            //另一次执行仍未结束，或者其响应已经被采用
+            return;
+        }
+        if (unhandled) {
+            deliverErrorToCoalesced(request, volleyError);
+            mDelivery.postError(request, volleyError);
+            return;
+        }
+        if (scheduleRetry(request, volleyError)) {
+            return;
+        }
+        deliverErrorToCoalesced(request, volleyError);
+        if (serveStaleOnError(request, volleyError)) {
+            return;
+        }
+        parseAndDeliverNetworkError(request, volleyError);
+    }
+
+    /**
+     * 刷新缓存的请求失败时，服务器允许（stale-if-error）则使用缓存数据代替异常
+     *
+     * @return true表示已经使用缓存数据，不传递异常
+     */
+    private boolean serveStaleOnError(Request<?> request, VolleyError volleyError) {
+        Cache.Entry entry = request.getCacheEntry();
+        if (entry == null || !isServerFailure(volleyError) || !entry.isUsableOnError()) {
+            return false;
+        }
+        //已经传递过缓存的中间响应，不再传递异常
+        if (request.hasHadResponseDelivered()) {
+            request.finish("network-stale-if-error");
+            return true;
+        }
+        Response<?> response;
+        try {
+            response = CacheDispatcher.parseCacheEntry(mCache, request, entry);
+        } catch (Exception e) {
+            VolleyLog.e(e, "Unhandled exception %s", e.toString());
+            return false;
+        }
+        if (!response.isSuccess()) {
+            return false;
+        }
+        request.addMarker("network-stale-if-error");
+        request.markDelivered();
+        mDelivery.postResponse(request, response);
+        return true;
+    }
+
+    /**
+     * RFC 5861中的错误：无法连接、超时、5xx。4xx等由服务器返回的结果不使用缓存数据代替。
+     */
+    private static boolean isServerFailure(VolleyError volleyError) {
+        if (volleyError instanceof TimeoutError || volleyError instanceof NetworkError
+                || volleyError instanceof CircuitOpenError) {
+            return true;
+        }
+        return volleyError instanceof ServerError
+                && (volleyError.networkResponse == null || volleyError.networkResponse.statusCode >= 500);
+    }
+
+    /**
+     * 请求使用{@link BackoffRetryPolicy}时，在重试限制内安排延迟重试
+     *
+     * @return true表示已经安排重试，不传递异常
+     */
+    private boolean scheduleRetry(Request<?> request, VolleyError volleyError) {
+        if (mRetryScheduler == null || !(request.getRetryPolicy() instanceof BackoffRetryPolicy)
+                || request.isCanceled()) {
+            return false;
+        }
+        BackoffRetryPolicy retryPolicy = (BackoffRetryPolicy) request.getRetryPolicy();
+        if (!isIdempotent(request.getMethod()) && !retryPolicy.shouldRetryNonIdempotent()) {
+            request.addMarker("retry-non-idempotent");
+            return false;
+        }
+        //先检查重试限制，超出时不改变重试策略的次数
+        if (mRetryBudget != null && mRetryBudget.getAvailableRetries() < 1) {
+            request.addMarker("retry-budget-exhausted");
+            return false;
+        }
+        try {
+            retryPolicy.retry(volleyError);
+        } catch (VolleyError e) {
+            request.addMarker("retry-giveup");
+            return false;
+        }
+        //其他线程可能同时用完了重试限制
+        if (mRetryBudget != null && !mRetryBudget.tryRetry()) {
+            request.addMarker("retry-budget-exhausted");
+            return false;
+        }
+        long delayMs = retryPolicy.getRetryDelayMs();
+        //重试前已经超过截止时间，不再重试
+        if (delayMs >= request.getRemainingTimeMs()) {
+            request.addMarker("retry-deadline-giveup");
+            return false;
+        }
+        request.addMarker(String.format("retry-scheduled [retry=%d, delay=%d]",
+                retryPolicy.getCurrentRetryCount(), delayMs));
+        mRetryScheduler.schedule(request, delayMs);
+        return true;
+    }
+
+    /**
+     * 重复发送不会改变结果的请求方法。DEPRECATED_GET_OR_POST可能是POST，不计为幂等。
+     */
+    private static boolean isIdempotent(int method) {
+        return method == Request.Method.GET || method == Request.Method.HEAD
+                || method == Request.Method.PUT || method == Request.Method.DELETE
+                || method == Request.Method.OPTIONS || method == Request.Method.TRACE;
+    }
+
+    /**
+     * leader在执行前被取消，由下一个相同的请求接替执行
+     */
+    private void promoteCoalesced(Request<?> request) {
+        if (mCoalescer == null) {
+            return;
+        }
+        Request<?> next = mCoalescer.promote(request);
+        if (next != null) {
+            next.addMarker("coalesced-promoted");
+            mQueue.add(next);
+        }
+    }
+
+    /**
+     * 在当前线程中，将网络响应分别解析后传递给等待的相同请求
+     */
+    private void deliverToCoalesced(Request<?> request, NetworkResponse networkResponse) {
+        if (mCoalescer == null) {
+            return;
+        }
+        for (Request<?> follower : mCoalescer.complete(request)) {
+            follower.addMarker("network-http-complete-coalesced");
+            if (follower.isCanceled()) {
+                follower.finish("network-discard-cancelled");
+                continue;
+            }
+            try {
+                Response<?> response = follower.parseNetworkResponse(networkResponse);
+                follower.addMarker("network-parse-complete");
+                follower.markDelivered();
+                mDelivery.postResponse(follower, response);
+            } catch (Exception e) {
+                VolleyLog.e(e, "Unhandled exception %s", e.toString());
+                mDelivery.postError(follower, new VolleyError(e));
+            }
+        }
+    }
+
+    /**
+     * 将网络异常传递给等待的相同请求
+     */
+    private void deliverErrorToCoalesced(Request<?> request, VolleyError error) {
+        if (mCoalescer == null) {
+            return;
+        }
+        for (Request<?> follower : mCoalescer.complete(request)) {
+            if (follower.isCanceled()) {
+                follower.finish("network-discard-cancelled");
+                continue;
+            }
+            parseAndDeliverNetworkError(follower, error);
+        }
+    }
+
+    /**
+     * 流式解析的响应，将读取时复制的数据设置到缓存实体中，数据不完整时不写入缓存。
+     */
+    private void fillStreamedCacheEntry(Request<?> request, ResponseStream stream, Cache.Entry entry) {
+        if (!request.shouldCache() || !stream.hasCopy()) {
+            return;
+        }
+        try {
+            entry.data = stream.drainCopy();
+        } catch (IOException e) {
+            VolleyLog.d("Could not read the rest of streamed response for %s", request.getUrl());
+            entry.data = null;
+        }
+    }
+
+    /**
+     * 丢弃的响应，关闭流式读取的数据
+     */
+    private static void closeQuietly(NetworkResponse networkResponse) {
+        if (networkResponse.stream != null) {
+            closeQuietly(networkResponse.stream);
+        }
+    }
+
+    private static void closeQuietly(ResponseStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            VolleyLog.v("Error occured when closing response stream");
+        }
+    }
+
+    /**
+     * 解析，传递网络异常。
+     * @param request
+     * @param error
+     */
+    private void parseAndDeliverNetworkError(Request<?> request, VolleyError error) {
+        error = request.parseNetworkError(error);
+        mDelivery.postError(request, error);
+    }
+}
@@ -18,6 +18,9 @@ package com.xingen.volleylib.volley;
 
 import org.apache.http.HttpStatus;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Map;
 
@@ -34,10 +37,57 @@ public class NetworkResponse {
      */
     public NetworkResponse(int statusCode, byte[] data, Map<String, String> headers,
             boolean notModified) {
+        this(statusCode, data, headers, notModified, null);
+    }
+
+    /**
+     * Creates a new network response whose body is read from a stream while it is parsed.
+     * @param statusCode the HTTP status code
+     * @param data Response body, or null when it is provided by <code>stream</code>
+     * @param headers Headers returned with this response, or null for none
+     * @param notModified True if the server returned a 304 and the data was already in cache
+     * @param stream Response body stream, see {@link Request#shouldStreamResponse()}
+     */
+    public NetworkResponse(int statusCode, byte[] data, Map<String, String> headers,
+            boolean notModified, ResponseStream stream) {
         this.statusCode = statusCode;
         this.data = data;
         this.headers = headers;
         this.notModified = notModified;
+        this.stream = stream;
+        this.buffer = null;
+    }
+
+    private NetworkResponse(int statusCode, ByteBuffer buffer, Map<String, String> headers,
+            boolean notModified) {
+        this.statusCode = statusCode;
+        this.data = null;
+        this.headers = headers;
+        this.notModified = notModified;
+        this.stream = null;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a response whose body is a cache entry. For a request that streams its response
+     * or parses buffers, the body of an entry held in a read-only buffer is passed without
+     * copying it to the heap; otherwise it is copied to {@link #data}.
+     * @param statusCode the HTTP status code
+     * @param entry the cache entry
+     * @param headers Headers returned with this response, or null for none
+     * @param notModified True if the server returned a 304 and the data was already in cache
+     * @param request the request the response is parsed by
+     */
+    public static NetworkResponse fromCacheEntry(int statusCode, Cache.Entry entry,
+            Map<String, String> headers, boolean notModified, Request<?> request) {
+        if (entry.data == null && entry.buffer != null && request.shouldStreamResponse()) {
+            return new NetworkResponse(statusCode, null, headers, notModified,
+                    new ResponseStream(entry.openStream(), null));
+        }
+        if (entry.data == null && entry.buffer != null && request.shouldParseBuffer()) {
+            return new NetworkResponse(statusCode, entry.buffer.duplicate(), headers, notModified);
+        }
+        return new NetworkResponse(statusCode, entry.getData(), headers, notModified);
     }
 
     public NetworkResponse(byte[] data) {
@@ -59,4 +109,44 @@ public class NetworkResponse {
 
     /** True if the server returned a 304 (Not Modified). */
     public final boolean notModified;
+
+    /**
+     * Body stream of a streamed response, or null if the body is in {@link #data}.
+     * 流式响应的输入流，解析时直接读取，此时data为null。
+     */
+    public final ResponseStream stream;
+
+    /**
+     * Read-only body of a cache entry, or null if the body is in {@link #data}. Only set for
+     * requests with {@link Request#shouldParseBuffer()}.
+     * 缓存的只读缓冲区，例如内存映射的缓存文件，此时data为null。
+     */
+    public final ByteBuffer buffer;
+
+    /**
+     * 返回byte数组形式的响应体。数据在只读缓冲区中时复制一份；流式响应时读取剩余的全部数据，
+     * 用于不能边读取边解析的请求，只能调用一次。
+     *
+     * @throws IOException 读取流式响应失败
+     */
+    public byte[] getData() throws IOException {
+        if (data != null) {
+            return data;
+        }
+        if (buffer != null) {
+            byte[] copy = new byte[buffer.remaining()];
+            buffer.duplicate().get(copy);
+            return copy;
+        }
+        if (stream != null) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int count;
+            while ((count = stream.read(chunk, 0, chunk.length)) != -1) {
+                out.write(chunk, 0, count);
+            }
+            return out.toByteArray();
+        }
+        return null;
+    }
 }
\ No newline at end of file
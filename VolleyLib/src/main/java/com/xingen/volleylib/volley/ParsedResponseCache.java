@@ -0,0 +1,34 @@
+package com.xingen.volleylib.volley;
+
+/**
+ * A {@link Cache} that can also hold the object a request parsed from a cache entry, so that
+ * later hits for the same entry skip {@link Request#parseNetworkResponse(NetworkResponse)}.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 解析后的对象与缓存实体绑定，缓存实体被替换、删除后，解析后的对象随之失效。
+ * 2. 同一个缓存key可能被不同类型的请求解析，使用请求的类型区分。
+ * <p>
+ * 只有{@link Request#shouldCacheParsedResponse()}返回true的请求会使用，解析后的对象会被多次传递，不能被修改。
+ */
+public interface ParsedResponseCache extends Cache {
+
+    /**
+     * 返回缓存实体对应的解析后的对象，没有时返回null。
+     *
+     * @param key         Cache key
+     * @param entry       the entry returned by {@link #get(String)}
+     * @param requestType the class of the request that parsed the entry
+     */
+    public Object getParsedResponse(String key, Entry entry, Class<?> requestType);
+
+    /**
+     * 保存缓存实体对应的解析后的对象，实体已经不是当前的缓存时忽略。
+     *
+     * @param key         Cache key
+     * @param entry       the entry the object was parsed from
+     * @param requestType the class of the request that parsed the entry
+     * @param parsed      the parsed object
+     */
+    public void putParsedResponse(String key, Entry entry, Class<?> requestType, Object parsed);
+}
@@ -0,0 +1,161 @@
+package com.xingen.volleylib.volley;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+/**
+ * Distinguishes the Android runtime from a plain JVM, where the android.* classes are absent.
+ * <p>
+ * 用途：
+ * <p>
+ * 在JVM中运行请求层时（例如后台工具），请求执行路径上的Android调用都通过该类：线程优先级、时钟、
+ * 解析URL的host、日志、主线程。Android中行为不变，JVM中使用对应的Java实现。
+ * <p>
+ * JVM中需要使用{@link RequestQueue#RequestQueue(Cache, Network, NetworkEngine, ResponseDelivery)}，
+ * 传入不依赖主线程Looper的ResponseDelivery。
+ */
+public final class Platform {
+
+    /** Dalvik和ART的java.vm.vendor都包含Android */
+    public static final boolean IS_ANDROID = isAndroidRuntime();
+
+    private Platform() {
+    }
+
+    private static boolean isAndroidRuntime() {
+        String vendor = System.getProperty("java.vm.vendor");
+        return vendor != null && vendor.contains("Android");
+    }
+
+    /**
+     * 在Android中把当前线程设置为后台优先级，JVM中不做处理。
+     */
+    public static void setBackgroundThreadPriority() {
+        setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * 在Android中设置当前线程的优先级，JVM中不做处理。
+     *
+     * @param priority {@link Process}中的优先级
+     */
+    public static void setThreadPriority(int priority) {
+        if (IS_ANDROID) {
+            Process.setThreadPriority(priority);
+        }
+    }
+
+    /**
+     * 返回单调递增的毫秒数，Android中为SystemClock.elapsedRealtime()，JVM中由System.nanoTime()换算。
+     * 只用于计算时间间隔。
+     */
+    public static long elapsedRealtime() {
+        if (IS_ANDROID) {
+            return SystemClock.elapsedRealtime();
+        }
+        return System.nanoTime() / 1000000L;
+    }
+
+    /**
+     * 返回URL中的host，URL为空或者没有host时返回null
+     */
+    public static String getHost(String url) {
+        if (url == null || url.length() == 0) {
+            return null;
+        }
+        if (IS_ANDROID) {
+            return Uri.parse(url).getHost();
+        }
+        try {
+            String host = new URI(url).getHost();
+            if (host != null) {
+                return host;
+            }
+        } catch (URISyntaxException ignored) {
+        }
+        //URI不接受的字符，按URL宽松解析
+        try {
+            String host = new URL(url).getHost();
+            return host.length() == 0 ? null : host;
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 是否在主线程中，JVM中没有主线程，返回true
+     */
+    static boolean isMainThread() {
+        return !IS_ANDROID || Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    /**
+     * 在Android主线程中执行，只在{@link #isMainThread()}返回false时调用
+     */
+    static void postToMainThread(Runnable runnable) {
+        new Handler(Looper.getMainLooper()).post(runnable);
+    }
+
+    /**
+     * 是否输出该tag的VERBOSE日志，JVM中不输出
+     */
+    static boolean isLoggable(String tag) {
+        return IS_ANDROID && Log.isLoggable(tag, Log.VERBOSE);
+    }
+
+    /**
+     * 输出日志，JVM中输出到System.err
+     *
+     * @param priority {@link Log}中的级别
+     */
+    static void log(int priority, String tag, String msg, Throwable tr) {
+        if (IS_ANDROID) {
+            if (tr != null) {
+                msg = msg + '\n' + Log.getStackTraceString(tr);
+            }
+            Log.println(priority, tag, msg);
+            return;
+        }
+        System.err.println(getLevel(priority) + "/" + tag + ": " + msg);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+    }
+
+    /**
+     * 输出不应该发生的错误，Android中为Log.wtf()
+     */
+    static void wtf(String tag, String msg, Throwable tr) {
+        if (IS_ANDROID) {
+            Log.wtf(tag, msg, tr);
+            return;
+        }
+        log(Log.ASSERT, tag, msg, tr);
+    }
+
+    private static char getLevel(int priority) {
+        switch (priority) {
+            case Log.VERBOSE:
+                return 'V';
+            case Log.DEBUG:
+                return 'D';
+            case Log.INFO:
+                return 'I';
+            case Log.WARN:
+                return 'W';
+            case Log.ERROR:
+                return 'E';
+            default:
+                return 'A';
+        }
+    }
+}
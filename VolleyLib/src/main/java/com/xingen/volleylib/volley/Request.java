@@ -17,11 +17,6 @@
 package com.xingen.volleylib.volley;
 
 import android.net.TrafficStats;
-import android.net.Uri;
-import android.os.Handler;
-import android.os.Looper;
-import android.os.SystemClock;
-import android.text.TextUtils;
 
 
 
@@ -29,6 +24,7 @@ import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * Base class for all network requests.
@@ -90,12 +86,42 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     /** Whether or not responses to this request should be cached. 默认情况下，请求是需要被缓存的，无论服务器的响应是否有 */
     private boolean mShouldCache = true;
 
+    /** Whether or not the response body is parsed directly from the connection stream. 是否边读取边解析响应数据 */
+    private boolean mShouldStreamResponse = false;
+
+    /** Whether or not a cached body held in a read-only buffer is parsed without copying. 是否直接解析只读缓冲区中的缓存数据 */
+    private boolean mShouldParseBuffer = false;
+
+    /** Whether or not the parsed response may be kept in memory and reused. 是否在内存中缓存解析后的对象 */
+    private boolean mShouldCacheParsedResponse = false;
+
+    /** Whether or not identical in-flight requests may share one network response. 是否与相同的请求合并执行 */
+    private boolean mShouldCoalesce;
+
+    /** Key of the in-flight group this request leads, see {@link RequestCoalescer}. */
+    private String mCoalesceKey;
+
     /** Whether or not this request has been canceled.   判断是否取消该请求 */
     private boolean mCanceled = false;
 
     /** Whether or not a response has been delivered for this request yet.  标志该请求是否已经传递过响应结果 */
     private boolean mResponseDelivered = false;
 
+    /** Executor the response is delivered on, or null for the queue's delivery. 传递结果的线程 */
+    private Executor mDeliveryExecutor;
+
+    /** Latency percentile after which a hedge is sent, 0 for no hedging. 发出对冲请求的耗时百分位数 */
+    private float mHedgePercentile = 0;
+
+    /** The hedge timer of the current attempt, see {@link RequestHedger}. 当前执行的对冲计时 */
+    private RequestHedger.Call mHedgeCall;
+
+    /** Elapsed realtime after which the request is abandoned, 0 for none. 整个请求的截止时间 */
+    private long mDeadline = 0;
+
+    /** 通过RequestQueue#addAsync()添加时，接收请求结果的对象 */
+    private RequestPromise<T> mPromise;
+
     // A cheap variant of request tracing used to dump slow requests.
     private long mRequestBirthTime = 0;
 
@@ -143,9 +169,11 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         mMethod = method;
         mUrl = url;
         mErrorListener = listener;
+        mShouldCoalesce = method == Method.GET;
         setRetryPolicy(new DefaultRetryPolicy());
 
-        mDefaultTrafficStatsTag = TextUtils.isEmpty(url) ? 0: Uri.parse(url).getHost().hashCode();
+        String host = Platform.getHost(url);
+        mDefaultTrafficStatsTag = host == null ? 0 : host.hashCode();
     }
 
     /**
@@ -200,7 +228,7 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         if (VolleyLog.MarkerLog.ENABLED) {
             mEventLog.add(tag, Thread.currentThread().getId());
         } else if (mRequestBirthTime == 0) {
-            mRequestBirthTime = SystemClock.elapsedRealtime();
+            mRequestBirthTime = Platform.elapsedRealtime();
         }
     }
 
@@ -215,11 +243,10 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         }
         if (VolleyLog.MarkerLog.ENABLED) {
             final long threadId = Thread.currentThread().getId();
-            if (Looper.myLooper() != Looper.getMainLooper()) {
+            if (!Platform.isMainThread()) {
                 // If we finish marking off of the main thread, we need to
                 // actually do it on the main thread to ensure correct ordering.
-                Handler mainThread = new Handler(Looper.getMainLooper());
-                mainThread.post(new Runnable() {
+                Platform.postToMainThread(new Runnable() {
                     @Override
                     public void run() {
                         mEventLog.add(tag, threadId);
@@ -232,7 +259,7 @@ public abstract class Request<T> implements Comparable<Request<T>> {
             mEventLog.add(tag, threadId);
             mEventLog.finish(this.toString());
         } else {
-            long requestTime = SystemClock.elapsedRealtime() - mRequestBirthTime;
+            long requestTime = Platform.elapsedRealtime() - mRequestBirthTime;
             if (requestTime >= SLOW_REQUEST_THRESHOLD_MS) {
                 VolleyLog.d("%d ms: %s", requestTime, this.toString());
             }
@@ -320,6 +347,9 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      */
     public void cancel() {
         mCanceled = true;
+        if (mPromise != null) {
+            mPromise.onRequestCanceled();
+        }
     }
 
     /**
@@ -454,6 +484,17 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return null;
     }
 
+    /**
+     * Returns a body that is streamed to the connection, or null to send {@link #getBody()}.
+     *
+     * @throws AuthFailureError in the event of auth failure
+     *
+     * 返回一个直接写入连接输出流的请求体，避免将大数据量的请求体转成byte[]。默认返回null，使用getBody()。
+     */
+    public StreamingBody getStreamingBody() throws AuthFailureError {
+        return null;
+    }
+
     /**
      * Converts <code>params</code> into an application/x-www-form-urlencoded encoded string.
      *
@@ -494,6 +535,211 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mShouldCache;
     }
 
+    /**
+     * Set whether or not the response body should be parsed directly from the connection.
+     * When enabled, {@link #parseNetworkResponse(NetworkResponse)} receives a response whose
+     * {@link NetworkResponse#stream} holds the body and whose data is null. Responses read
+     * from cache carry their data as usual, unless the entry is held in a read-only buffer.
+     *
+     * @return This Request object to allow for chaining.
+     *
+     * 设置是否边读取边解析响应数据，不需要先将整个响应转成byte[]。
+     * 若是需要缓存，读取时会复制一份数据，解析完成后写入缓存。
+     * 不能边读取边解析的请求（例如StringRequest、ImageRequest）会先读取全部数据，见{@link NetworkResponse#getData()}。
+     */
+    public final Request<?> setShouldStreamResponse(boolean shouldStreamResponse) {
+        mShouldStreamResponse = shouldStreamResponse;
+        return this;
+    }
+
+    /**
+     * 返回true，表示该请求直接从连接的输入流中解析响应数据。
+     */
+    public final boolean shouldStreamResponse() {
+        return mShouldStreamResponse;
+    }
+
+    /**
+     * Set whether or not {@link #parseNetworkResponse(NetworkResponse)} can read a cached body
+     * from {@link NetworkResponse#buffer}. When enabled, a cache entry held in a read-only
+     * buffer (e.g. a memory mapped file) is passed without copying it to a byte[], and the
+     * response's data is null. Other responses carry their data as usual.
+     *
+     * @return This Request object to allow for chaining.
+     *
+     * 设置解析时是否可以直接读取缓存的只读缓冲区，较大的缓存不需要先复制成byte[]。
+     */
+    public final Request<?> setShouldParseBuffer(boolean shouldParseBuffer) {
+        mShouldParseBuffer = shouldParseBuffer;
+        return this;
+    }
+
+    /**
+     * 返回true，表示该请求可以直接解析只读缓冲区中的缓存数据。
+     */
+    public final boolean shouldParseBuffer() {
+        return mShouldParseBuffer;
+    }
+
+    /**
+     * Set whether or not the parsed response may be kept by a {@link ParsedResponseCache} and
+     * delivered again for later cache hits of the same entry, skipping
+     * {@link #parseNetworkResponse(NetworkResponse)}. The parsed object is shared, so it must
+     * not be modified by the listener.
+     *
+     * @return This Request object to allow for chaining.
+     *
+     * 设置是否在内存中缓存解析后的对象，相同缓存的再次请求不需要重新解析。
+     */
+    public final Request<?> setShouldCacheParsedResponse(boolean shouldCacheParsedResponse) {
+        mShouldCacheParsedResponse = shouldCacheParsedResponse;
+        return this;
+    }
+
+    /**
+     * 返回true，表示该请求解析后的对象可以被缓存和复用。
+     */
+    public final boolean shouldCacheParsedResponse() {
+        return mShouldCacheParsedResponse;
+    }
+
+    /**
+     * Set whether or not this request may share the network response of an identical request
+     * that is already in flight: same method, URL, headers and body. Only requests that skip
+     * the cache are coalesced. Enabled by default for GET; enable it only for idempotent
+     * requests of other methods.
+     *
+     * @return This Request object to allow for chaining.
+     *
+     * 设置是否与正在执行的相同请求合并，只执行一次网络请求，结果分别解析后传递给每个请求。
+     */
+    public final Request<?> setShouldCoalesce(boolean shouldCoalesce) {
+        mShouldCoalesce = shouldCoalesce;
+        return this;
+    }
+
+    /**
+     * 返回true，表示该请求可以与相同的请求合并执行。
+     */
+    public final boolean shouldCoalesce() {
+        return mShouldCoalesce;
+    }
+
+    /**
+     * Returns true if this request transfers a large body, e.g. a file download or upload.
+     * A {@link NetworkEngine} may run such requests apart from interactive ones so that small
+     * requests never wait behind them.
+     *
+     * 返回true，表示该请求是文件下载、上传等大数据量的请求。
+     */
+    public boolean isBulkTransfer() {
+        return false;
+    }
+
+    /**
+     * Sets the executor this request's response, error and progress are delivered on, in place
+     * of the request queue's delivery (the main thread by default).
+     *
+     * 设置传递结果的线程，例如：
+     * 1. {@link ExecutorDelivery#DIRECT}：在缓存线程、网络线程中直接传递，适合后台同步等不需要更新界面的请求。
+     * 2. 调用者提供的线程池。
+     * 为null时，使用请求队列的ResponseDelivery，默认在主线程中传递。
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setDeliveryExecutor(Executor deliveryExecutor) {
+        mDeliveryExecutor = deliveryExecutor;
+        return this;
+    }
+
+    /**
+     * 返回传递结果的线程，为null时使用请求队列的ResponseDelivery
+     */
+    public final Executor getDeliveryExecutor() {
+        return mDeliveryExecutor;
+    }
+
+    /**
+     * Enables hedging for this GET or HEAD request: if no response has arrived after the given
+     * percentile of recent response times from the same host, an identical request is sent on
+     * another dispatcher. The first success is parsed, cached and delivered once; the other
+     * attempt is cancelled or its response discarded.
+     *
+     * 设置对冲请求，用于对尾部延迟敏感的GET请求。例如0.95：等待时间超过同一host最近请求耗时的95百分位数时，
+     * 再发出一个相同的请求。对冲请求计入请求队列的{@link RetryBudget}。
+     *
+     * @param percentile 0到1之间，0表示不对冲
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setHedgePercentile(float percentile) {
+        if (percentile < 0 || percentile >= 1) {
+            throw new IllegalArgumentException("percentile must be in [0, 1)");
+        }
+        mHedgePercentile = percentile;
+        return this;
+    }
+
+    /**
+     * 返回发出对冲请求的耗时百分位数，0表示不对冲
+     */
+    public final float getHedgePercentile() {
+        return mHedgePercentile;
+    }
+
+    /**
+     * Sets an end-to-end time limit for this request, covering the time spent in the queues,
+     * the cache lookup, every network attempt and retry. A request still queued when the limit
+     * passes is dropped before touching the network and fails with a
+     * {@link DeadlineExceededError}; the connect and read timeouts of each attempt are clamped
+     * to the remaining time.
+     *
+     * 设置整个请求的时间限制，从调用时开始计算。{@link #getTimeoutMs()}是每次网络请求的超时时间，
+     * 该限制包括排队、读取缓存、重试的全部时间，用于界面已经不需要结果的请求不再占用网络。
+     *
+     * @param timeoutMs 从现在开始的毫秒数，0表示不限制
+     * @return This Request object to allow for chaining.
+     */
+    public final Request<?> setDeadline(long timeoutMs) {
+        if (timeoutMs < 0) {
+            throw new IllegalArgumentException("timeoutMs must not be negative");
+        }
+        mDeadline = timeoutMs == 0 ? 0 : Platform.elapsedRealtime() + timeoutMs;
+        return this;
+    }
+
+    /**
+     * 返回距离截止时间的毫秒数，没有设置时返回Long.MAX_VALUE
+     */
+    public final long getRemainingTimeMs() {
+        if (mDeadline == 0) {
+            return Long.MAX_VALUE;
+        }
+        return mDeadline - Platform.elapsedRealtime();
+    }
+
+    /**
+     * 是否已经超过截止时间
+     */
+    public final boolean isDeadlineExceeded() {
+        return getRemainingTimeMs() <= 0;
+    }
+
+    void setHedgeCall(RequestHedger.Call hedgeCall) {
+        mHedgeCall = hedgeCall;
+    }
+
+    RequestHedger.Call getHedgeCall() {
+        return mHedgeCall;
+    }
+
+    void setCoalesceKey(String coalesceKey) {
+        mCoalesceKey = coalesceKey;
+    }
+
+    String getCoalesceKey() {
+        return mCoalesceKey;
+    }
+
     /**
      * Priority values.  Requests will be processed from higher priorities to
      * lower priorities, in FIFO order.
@@ -516,9 +762,17 @@ public abstract class Request<T> implements Comparable<Request<T>> {
      * Returns the socket timeout in milliseconds per retry attempt. (This value can be changed
      * per retry attempt if a backoff is specified via backoffTimeout()). If there are no retry
      * attempts remaining, this will cause delivery of a {@link TimeoutError} error.
+     * <p>
+     * 设置了{@link #setDeadline(long)}时，不超过剩余的时间。
      */
     public final int getTimeoutMs() {
-        return mRetryPolicy.getCurrentTimeout();
+        int timeoutMs = mRetryPolicy.getCurrentTimeout();
+        long remainingMs = getRemainingTimeMs();
+        if (remainingMs < timeoutMs) {
+            //0表示不超时，至少1毫秒
+            timeoutMs = (int) Math.max(1, remainingMs);
+        }
+        return timeoutMs;
     }
 
     /**
@@ -602,6 +856,27 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         }
     }
 
+    /**
+     * 设置接收请求结果的对象，在添加到请求队列之前调用
+     */
+    void setPromise(RequestPromise<T> promise) {
+        mPromise = promise;
+    }
+
+    /**
+     * 将传递的响应或者异常也传递给{@link RequestPromise}，由ResponseDelivery在回调监听之后调用
+     */
+    void completePromise(Response<T> response) {
+        if (mPromise == null) {
+            return;
+        }
+        if (response.isSuccess()) {
+            mPromise.complete(response.result);
+        } else {
+            mPromise.fail(response.error);
+        }
+    }
+
     /**
      * Our comparator sorts from high to low priority, and secondarily by
      * sequence number to provide FIFO ordering.
@@ -0,0 +1,167 @@
+package com.xingen.volleylib.volley;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Single-flight for requests that go straight to the network.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 按请求方法、url、header、请求体计算key，key相同的请求同时只执行一个（leader），
+ * 其余请求（follower）等待leader的网络响应，各自解析后传递。
+ * 2. 每个请求可以单独取消：被取消的follower不再传递结果；leader在执行前被取消时，由下一个follower接替执行。
+ * <p>
+ * 只处理{@link Request#shouldCoalesce()}返回true，且不需要缓存、不流式解析的请求。
+ * 需要缓存的请求由RequestQueue的等待队列去重。
+ */
+class RequestCoalescer {
+
+    /** key与正在执行的请求组 */
+    private final Map<String, Flight> mFlights = new HashMap<String, Flight>();
+
+    /**
+     * 若是存在相同的请求正在执行，加入等待；否则作为leader开始一个新的请求组。
+     *
+     * @return true，表示请求已加入等待，不需要再添加到网络队列中
+     */
+    boolean join(Request<?> request) {
+        if (!request.shouldCoalesce() || request.shouldCache() || request.shouldStreamResponse()) {
+            return false;
+        }
+        String key = createKey(request);
+        if (key == null) {
+            return false;
+        }
+        synchronized (mFlights) {
+            Flight flight = mFlights.get(key);
+            if (flight == null) {
+                request.setCoalesceKey(key);
+                mFlights.put(key, new Flight(request));
+                return false;
+            }
+            flight.followers.add(request);
+        }
+        request.addMarker("coalesced-with-in-flight");
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("Identical request for %s is in flight, waiting for its response.", request.getUrl());
+        }
+        return true;
+    }
+
+    /**
+     * leader已经得到响应或者异常，结束请求组。
+     *
+     * @return 等待该响应的follower
+     */
+    List<Request<?>> complete(Request<?> leader) {
+        String key = leader.getCoalesceKey();
+        if (key == null) {
+            return Collections.emptyList();
+        }
+        synchronized (mFlights) {
+            Flight flight = mFlights.get(key);
+            if (flight == null || flight.leader != leader) {
+                return Collections.emptyList();
+            }
+            mFlights.remove(key);
+            return flight.followers;
+        }
+    }
+
+    /**
+     * leader在执行前被取消，由第一个follower接替执行。
+     *
+     * @return 接替的请求，需要添加到网络队列中；没有follower时返回null
+     */
+    Request<?> promote(Request<?> leader) {
+        String key = leader.getCoalesceKey();
+        if (key == null) {
+            return null;
+        }
+        synchronized (mFlights) {
+            Flight flight = mFlights.get(key);
+            if (flight == null || flight.leader != leader) {
+                return null;
+            }
+            if (flight.followers.isEmpty()) {
+                mFlights.remove(key);
+                return null;
+            }
+            Request<?> next = flight.followers.remove(0);
+            next.setCoalesceKey(key);
+            flight.leader = next;
+            return next;
+        }
+    }
+
+    /**
+     * 计算请求的key，无法计算时返回null，不合并该请求。
+     */
+    private static String createKey(Request<?> request) {
+        try {
+            if (request.getStreamingBody() != null) {
+                return null;
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            update(digest, String.valueOf(request.getMethod()));
+            update(digest, request.getUrl());
+            //按名称排序，header的顺序不影响key
+            Map<String, String> headers = request.getHeaders();
+            if (headers != null) {
+                for (Map.Entry<String, String> header : new TreeMap<String, String>(headers).entrySet()) {
+                    update(digest, header.getKey());
+                    update(digest, header.getValue());
+                }
+            }
+            update(digest, request.getBodyContentType());
+            byte[] body = request.getBody();
+            if (body != null) {
+                digest.update(body);
+            }
+            return toHex(digest.digest());
+        } catch (AuthFailureError e) {
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) throws UnsupportedEncodingException {
+        if (value != null) {
+            digest.update(value.getBytes("UTF-8"));
+        }
+        //分隔符，避免相邻字段拼接后相同
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 一组相同的请求
+     */
+    private static class Flight {
+        Request<?> leader;
+        final List<Request<?>> followers = new ArrayList<Request<?>>();
+
+        Flight(Request<?> leader) {
+            this.leader = leader;
+        }
+    }
+}
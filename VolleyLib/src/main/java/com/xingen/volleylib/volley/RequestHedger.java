@@ -0,0 +1,261 @@
+package com.xingen.volleylib.volley;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends hedge requests for requests with {@link Request#setHedgePercentile(float)}.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 按host记录最近成功的网络请求耗时，计算请求指定的百分位数作为对冲的等待时间。
+ * 2. 请求开始执行时开始计时，到期仍未完成时，将一个{@link HedgeRequest}加入网络队列，由其他网络线程执行。
+ * 3. {@link Call}记录两次执行的结果，保证只有一个结果被传递。
+ */
+class RequestHedger {
+
+    /** 每个host记录的耗时个数 */
+    private static final int MAX_SAMPLES = 64;
+    /** 记录的耗时少于该个数时，使用默认的等待时间 */
+    private static final int MIN_SAMPLES = 10;
+    /** 没有足够记录时的等待时间 */
+    private static final long DEFAULT_DELAY_MS = 1000;
+    /** 最短的等待时间 */
+    private static final long MIN_DELAY_MS = 10;
+
+    private final BlockingQueue<Request<?>> mQueue;
+    /** host与最近的耗时，由this保护 */
+    private final Map<String, Samples> mSamples = new HashMap<String, Samples>();
+    private ScheduledThreadPoolExecutor mExecutor;
+
+    RequestHedger(BlockingQueue<Request<?>> queue) {
+        mQueue = queue;
+    }
+
+    /**
+     * 只对冲幂等、不流式读取的小请求
+     */
+    static boolean isHedgeable(Request<?> request) {
+        int method = request.getMethod();
+        return request.getHedgePercentile() > 0
+                && (method == Request.Method.GET || method == Request.Method.HEAD)
+                && !request.shouldStreamResponse() && !request.isBulkTransfer()
+                && !(request instanceof HedgeRequest);
+    }
+
+    /**
+     * 记录一次成功的网络请求耗时
+     */
+    void recordLatency(Request<?> request, long latencyMs) {
+        String host = getHost(request);
+        synchronized (this) {
+            Samples samples = mSamples.get(host);
+            if (samples == null) {
+                samples = new Samples();
+                mSamples.put(host, samples);
+            }
+            samples.add(latencyMs);
+        }
+    }
+
+    /**
+     * 返回请求的对冲等待时间
+     */
+    long getHedgeDelayMs(Request<?> request) {
+        long[] values;
+        synchronized (this) {
+            Samples samples = mSamples.get(getHost(request));
+            if (samples == null || samples.count < MIN_SAMPLES) {
+                return DEFAULT_DELAY_MS;
+            }
+            values = Arrays.copyOf(samples.values, samples.count);
+        }
+        Arrays.sort(values);
+        int index = Math.min(values.length - 1, (int) (request.getHedgePercentile() * values.length));
+        return Math.max(MIN_DELAY_MS, values[index]);
+    }
+
+    /**
+     * 请求开始执行，需要对冲时开始计时
+     *
+     * @param budget 对冲请求计入的重试限制，可以为null
+     * @return 不需要对冲时返回null
+     */
+    Call start(Request<?> request, final RetryBudget budget) {
+        if (!isHedgeable(request)) {
+            return null;
+        }
+        final Call call = new Call(request);
+        final long delayMs = getHedgeDelayMs(request);
+        ScheduledFuture<?> timer;
+        synchronized (this) {
+            if (mExecutor == null) {
+                mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "VolleyHedger");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            timer = mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    HedgeRequest hedge = call.fire(budget);
+                    if (hedge != null) {
+                        call.original.addMarker(String.format("hedge-fired [delay=%d]", delayMs));
+                        mQueue.add(hedge);
+                    }
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+        call.setTimer(timer);
+        return call;
+    }
+
+    /**
+     * 停止计时，未发出的对冲请求不再发出
+     */
+    synchronized void quit() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+
+    private static String getHost(Request<?> request) {
+        String host = Platform.getHost(request.getUrl());
+        return host == null ? "" : host;
+    }
+
+    /**
+     * 一个host最近的耗时，环形数组
+     */
+    private static class Samples {
+        final long[] values = new long[MAX_SAMPLES];
+        int next;
+        int count;
+
+        void add(long value) {
+            values[next] = value;
+            next = (next + 1) % values.length;
+            if (count < values.length) {
+                count++;
+            }
+        }
+    }
+
+    /**
+     * 一个对冲请求的两次执行：原请求（primary）和对冲请求，第一个成功的结果生效
+     */
+    static class Call {
+        final Request<?> original;
+        /** 原请求开始执行的时间 */
+        private final long mStartMs = Platform.elapsedRealtime();
+        private long mHedgeStartMs;
+        private HedgeRequest mHedge;
+        private ScheduledFuture<?> mTimer;
+        private boolean mPrimaryDone;
+        private boolean mHedgeDone;
+        /** 已经有结果被采用 */
+        private boolean mSettled;
+
+        Call(Request<?> original) {
+            this.original = original;
+        }
+
+        synchronized void setTimer(ScheduledFuture<?> timer) {
+            if (mSettled || mPrimaryDone) {
+                timer.cancel(false);
+            } else {
+                mTimer = timer;
+            }
+        }
+
+        /**
+         * 计时到期，返回需要加入网络队列的对冲请求，不需要时返回null
+         */
+        synchronized HedgeRequest fire(RetryBudget budget) {
+            if (mSettled || mPrimaryDone || original.isCanceled()) {
+                return null;
+            }
+            if (budget != null && !budget.tryRetry()) {
+                original.addMarker("hedge-budget-exhausted");
+                return null;
+            }
+            mHedge = new HedgeRequest(original, this);
+            return mHedge;
+        }
+
+        /**
+         * 对冲请求开始执行
+         */
+        synchronized void onHedgeStarted() {
+            mHedgeStartMs = Platform.elapsedRealtime();
+        }
+
+        /**
+         * 返回一次执行的耗时
+         */
+        synchronized long getElapsedMs(boolean primary) {
+            return Platform.elapsedRealtime() - (primary ? mStartMs : mHedgeStartMs);
+        }
+
+        /**
+         * 一次执行成功，返回false表示另一次已经被采用，丢弃该结果
+         */
+        synchronized boolean claim(boolean primary) {
+            markDone(primary);
+            if (mSettled) {
+                return false;
+            }
+            mSettled = true;
+            cancelOther();
+            return true;
+        }
+
+        /**
+         * 一次执行失败。另一次仍在执行时等待其结果，返回null；否则返回需要传递的异常。
+         */
+        synchronized VolleyError onError(boolean primary, VolleyError error) {
+            markDone(primary);
+            if (mSettled) {
+                return null;
+            }
+            boolean otherPending = primary ? mHedge != null && !mHedgeDone : !mPrimaryDone;
+            if (otherPending) {
+                return null;
+            }
+            mSettled = true;
+            cancelOther();
+            return error;
+        }
+
+        private void markDone(boolean primary) {
+            if (primary) {
+                mPrimaryDone = true;
+            } else {
+                mHedgeDone = true;
+            }
+        }
+
+        /**
+         * 取消计时和未完成的对冲请求，原请求不能取消，其结果被丢弃
+         */
+        private void cancelOther() {
+            if (mTimer != null) {
+                mTimer.cancel(false);
+            }
+            if (mHedge != null && !mHedgeDone) {
+                mHedge.cancel();
+            }
+        }
+    }
+}
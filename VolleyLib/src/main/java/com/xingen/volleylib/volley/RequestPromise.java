@@ -0,0 +1,297 @@
+package com.xingen.volleylib.volley;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The result of a request added with {@link RequestQueue#addAsync(Request, Executor)}.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 添加结果监听，请求完成后在指定的Executor中回调，不需要阻塞线程等待结果。
+ * 2. 取消该对象会取消对应的请求；请求被取消时，该对象也变为取消状态，不回调监听。
+ * 3. 通过{@link #allOf(List)}等待多个请求全部完成，例如同时执行多个GsonRequest后合并结果。
+ * 4. 仍然实现了{@link Future}，可以在后台线程中调用get()阻塞等待。
+ * <p>
+ * 请求的第一个结果（包括缓存需要刷新时先传递的缓存结果）作为最终结果，之后的结果只传递给请求自身的监听。
+ *
+ * @param <T> The type of parsed response
+ */
+public class RequestPromise<T> implements Future<T> {
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    /** 执行监听回调的Executor，为null时在传递结果的线程中回调 */
+    private final Executor mExecutor;
+    /** 对应的请求，allOf()创建的对象为null */
+    private final Request<?> mRequest;
+    /** 完成后需要执行的回调，完成后置为null */
+    private List<Runnable> mCallbacks = new ArrayList<Runnable>();
+    private int mState = PENDING;
+    private T mResult;
+    private VolleyError mError;
+
+    RequestPromise(Request<?> request, Executor executor) {
+        mRequest = request;
+        mExecutor = executor;
+    }
+
+    /**
+     * 添加结果监听。已经完成时，立即回调。取消后不回调。
+     *
+     * @param listener      成功时回调，可以为null
+     * @param errorListener 失败时回调，可以为null
+     * @return this，用于链式调用
+     */
+    public RequestPromise<T> addListener(final Response.Listener<T> listener,
+            final Response.ErrorListener errorListener) {
+        addCallback(new Runnable() {
+            @Override
+            public void run() {
+                final int state;
+                final T result;
+                final VolleyError error;
+                synchronized (RequestPromise.this) {
+                    state = mState;
+                    result = mResult;
+                    error = mError;
+                }
+                if (state == CANCELLED) {
+                    return;
+                }
+                Runnable runnable = new Runnable() {
+                    @Override
+                    public void run() {
+                        if (state == SUCCEEDED) {
+                            if (listener != null) {
+                                listener.onResponse(result);
+                            }
+                        } else if (errorListener != null) {
+                            errorListener.onErrorResponse(error);
+                        }
+                    }
+                };
+                if (mExecutor != null) {
+                    mExecutor.execute(runnable);
+                } else {
+                    runnable.run();
+                }
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 完成时（包括取消）执行回调，在完成的线程中执行
+     */
+    private void addCallback(Runnable callback) {
+        synchronized (this) {
+            if (mState == PENDING) {
+                mCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /**
+     * 请求成功，传递结果
+     *
+     * @return false，表示已经完成，结果被忽略
+     */
+    boolean complete(T result) {
+        synchronized (this) {
+            if (mState != PENDING) {
+                return false;
+            }
+            mState = SUCCEEDED;
+            mResult = result;
+        }
+        onDone();
+        return true;
+    }
+
+    /**
+     * 请求失败，传递异常
+     *
+     * @return false，表示已经完成，异常被忽略
+     */
+    boolean fail(VolleyError error) {
+        synchronized (this) {
+            if (mState != PENDING) {
+                return false;
+            }
+            mState = FAILED;
+            mError = error;
+        }
+        onDone();
+        return true;
+    }
+
+    /**
+     * 请求已经被取消，只改变状态，不再取消请求
+     */
+    boolean onRequestCanceled() {
+        synchronized (this) {
+            if (mState != PENDING) {
+                return false;
+            }
+            mState = CANCELLED;
+        }
+        onDone();
+        return true;
+    }
+
+    private void onDone() {
+        List<Runnable> callbacks;
+        synchronized (this) {
+            callbacks = mCallbacks;
+            mCallbacks = null;
+            notifyAll();
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    /**
+     * 取消该对象和对应的请求。已经完成时返回false。
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!onRequestCanceled()) {
+            return false;
+        }
+        if (mRequest != null) {
+            mRequest.cancel();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mState == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState != PENDING;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        try {
+            return doGet(0);
+        } catch (TimeoutException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long timeoutMs = TimeUnit.MILLISECONDS.convert(timeout, unit);
+        if (timeoutMs <= 0) {
+            synchronized (this) {
+                if (mState == PENDING) {
+                    throw new TimeoutException();
+                }
+            }
+        }
+        return doGet(timeoutMs);
+    }
+
+    /**
+     * @param timeoutMs 为0时一直等待
+     */
+    private synchronized T doGet(long timeoutMs)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (mState == PENDING) {
+            if (timeoutMs == 0) {
+                wait(0);
+                continue;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            wait(remaining);
+        }
+        if (mState == CANCELLED) {
+            throw new CancellationException();
+        }
+        if (mState == FAILED) {
+            throw new ExecutionException(mError);
+        }
+        return mResult;
+    }
+
+    /**
+     * Returns a promise that succeeds with the results of all the given promises, in order, once
+     * every one of them has succeeded.
+     * <p>
+     * 任意一个失败时，以第一个异常失败；任意一个被取消时，返回的对象也被取消。
+     * 取消返回的对象，会取消全部未完成的请求。监听在最后一个完成的线程中回调。
+     */
+    public static <T> RequestPromise<List<T>> allOf(final List<RequestPromise<T>> promises) {
+        final RequestPromise<List<T>> all = new RequestPromise<List<T>>(null, null) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                if (!super.cancel(mayInterruptIfRunning)) {
+                    return false;
+                }
+                for (RequestPromise<T> promise : promises) {
+                    promise.cancel(mayInterruptIfRunning);
+                }
+                return true;
+            }
+        };
+        final int count = promises.size();
+        if (count == 0) {
+            all.complete(Collections.<T>emptyList());
+            return all;
+        }
+        final List<T> results = new ArrayList<T>(Collections.<T>nCopies(count, null));
+        final AtomicInteger remaining = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final RequestPromise<T> promise = promises.get(i);
+            promise.addCallback(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (promise) {
+                        if (promise.mState == CANCELLED) {
+                            all.cancel(false);
+                            return;
+                        }
+                        if (promise.mState == FAILED) {
+                            all.fail(promise.mError);
+                            return;
+                        }
+                    }
+                    synchronized (results) {
+                        results.set(index, promise.mResult);
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        synchronized (results) {
+                            all.complete(results);
+                        }
+                    }
+                }
+            });
+        }
+        return all;
+    }
+}
@@ -25,6 +25,7 @@ import java.util.LinkedList;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -97,6 +98,21 @@ public class RequestQueue {
     /** 执行缓存请求的线程 */
     private CacheDispatcher mCacheDispatcher;
 
+    /** 执行网络请求的引擎，为null时使用固定个数的网络线程 */
+    private final NetworkEngine mEngine;
+
+    /** 合并不需要缓存的相同请求 */
+    private final RequestCoalescer mCoalescer = new RequestCoalescer();
+
+    /** 延迟重试的请求到期后重新加入网络队列 */
+    private final RetryScheduler mRetryScheduler = new RetryScheduler(mNetworkQueue);
+
+    /** 设置了对冲的请求超时未完成时，将对冲请求加入网络队列 */
+    private final RequestHedger mHedger = new RequestHedger(mNetworkQueue);
+
+    /** 限制延迟重试的次数，为null时不限制 */
+    private RetryBudget mRetryBudget = new RetryBudget();
+
     /**
      * 初始化，磁盘缓存的操作类。执行请求的操作类，4个网络线程的数组，主线程中传递异常和响应结果的类
      *
@@ -111,6 +127,37 @@ public class RequestQueue {
         mNetwork = network;
         mDispatchers = new NetworkDispatcher[threadPoolSize];
         mDelivery = delivery;
+        mEngine = null;
+    }
+
+    /**
+     * Creates the worker pool whose network requests are run by the given engine instead of a
+     * fixed number of {@link NetworkDispatcher} threads. Processing will not begin until
+     * {@link #start()} is called.
+     *
+     * @param cache A Cache to use for persisting responses to disk
+     * @param network A Network interface for performing HTTP requests
+     * @param engine A NetworkEngine that runs the network requests
+     * @param delivery A ResponseDelivery interface for posting responses and errors
+     */
+    public RequestQueue(Cache cache, Network network, NetworkEngine engine,
+            ResponseDelivery delivery) {
+        mCache = cache;
+        mNetwork = network;
+        mDispatchers = new NetworkDispatcher[0];
+        mDelivery = delivery;
+        mEngine = engine;
+    }
+
+    /**
+     * Creates the worker pool whose network requests are run by the given engine.
+     *
+     * @param cache A Cache to use for persisting responses to disk
+     * @param network A Network interface for performing HTTP requests
+     * @param engine A NetworkEngine that runs the network requests
+     */
+    public RequestQueue(Cache cache, Network network, NetworkEngine engine) {
+        this(cache, network, engine, new ExecutorDelivery(new Handler(Looper.getMainLooper())));
     }
 
     /**
@@ -147,9 +194,14 @@ public class RequestQueue {
         //创建一个缓存调度线程，且开启线程
         mCacheDispatcher = new CacheDispatcher(mCacheQueue, mNetworkQueue, mCache, mDelivery);
         mCacheDispatcher.start();
+        NetworkProcessor processor = new NetworkProcessor(mNetworkQueue, mNetwork, mCache, mDelivery,
+                mCoalescer, mRetryScheduler, mRetryBudget, mHedger);
+        if (mEngine != null) {
+            mEngine.start(mNetworkQueue, processor);
+        }
         //开启4个网络线程，执行网络操作
         for (int i = 0; i < mDispatchers.length; i++) {
-            NetworkDispatcher networkDispatcher = new NetworkDispatcher(mNetworkQueue, mNetwork, mCache, mDelivery);
+            NetworkDispatcher networkDispatcher = new NetworkDispatcher(mNetworkQueue, processor);
             mDispatchers[i] = networkDispatcher;
             networkDispatcher.start();
         }
@@ -162,6 +214,12 @@ public class RequestQueue {
             //缓存线程停止
             mCacheDispatcher.quit();
         }
+        if (mEngine != null) {
+            mEngine.stop();
+        }
+        //等待重试的请求放回网络队列
+        mRetryScheduler.quit();
+        mHedger.quit();
         // 停止网络线程
         for (int i = 0; i < mDispatchers.length; i++) {
             if (mDispatchers[i] != null) {
@@ -177,6 +235,20 @@ public class RequestQueue {
         return mSequenceGenerator.incrementAndGet();
     }
 
+    /**
+     * Sets the budget that limits the retries of requests using a {@link BackoffRetryPolicy},
+     * or null for no limit. Takes effect on the next {@link #start()}.
+     *
+     * 默认重试次数不超过请求数的10%
+     */
+    public void setRetryBudget(RetryBudget retryBudget) {
+        mRetryBudget = retryBudget;
+    }
+
+    public RetryBudget getRetryBudget() {
+        return mRetryBudget;
+    }
+
     /**
      * 获取到磁盘缓存的操作类对象。
      */
@@ -223,6 +295,34 @@ public class RequestQueue {
         });
     }
 
+    /**
+     * Adds a request and returns a promise of its result, with listeners called on the thread
+     * the response is delivered on.
+     *
+     * @see #addAsync(Request, Executor)
+     */
+    public <T> RequestPromise<T> addAsync(Request<T> request) {
+        return addAsync(request, null);
+    }
+
+    /**
+     * Adds a request and returns a promise of its result. Cancelling the promise cancels the
+     * request, and cancelling the request cancels the promise.
+     *
+     * @param request  The request to service
+     * @param executor Executor the promise's listeners are called on, or null for the thread
+     *                 the response is delivered on
+     *
+     * 添加一个请求到调度的队列中，返回接收结果的{@link RequestPromise}，不需要阻塞线程等待结果。
+     * 请求原有的监听仍然会被回调。
+     */
+    public <T> RequestPromise<T> addAsync(Request<T> request, Executor executor) {
+        RequestPromise<T> promise = new RequestPromise<T>(request, executor);
+        request.setPromise(promise);
+        add(request);
+        return promise;
+    }
+
     /**
      * @param request The request to service
      * @return The passed-in request
@@ -242,7 +342,10 @@ public class RequestQueue {
         request.addMarker("add-to-queue");
         //若是请求不需要被缓存，将会跳过缓存请求的队列，直接在网络线程中执行该请求。
         if (!request.shouldCache()) {
-            mNetworkQueue.add(request);
+            //相同的请求正在执行时，等待其响应，不再添加到网络队列中
+            if (!mCoalescer.join(request)) {
+                mNetworkQueue.add(request);
+            }
             return request;
         }
         /**
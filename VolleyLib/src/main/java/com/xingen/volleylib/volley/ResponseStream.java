@@ -0,0 +1,107 @@
+package com.xingen.volleylib.volley;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The response body of a request that parses directly from the connection, see
+ * {@link Request#shouldStreamResponse()}.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 包装连接的输入流，解析时边读取边解析，不需要先将整个响应转成byte[]。
+ * 2. 若是请求需要缓存，读取的同时将数据复制一份，解析完成后用于写入磁盘缓存。
+ */
+public class ResponseStream extends FilterInputStream {
+    /** 复制读取到的数据，不需要缓存时为null */
+    private final ByteArrayOutputStream mCopy;
+
+    private boolean mClosed = false;
+
+    /**
+     * @param in   连接的输入流
+     * @param copy 用于缓存的数据副本，不需要缓存时传null
+     */
+    public ResponseStream(InputStream in, ByteArrayOutputStream copy) {
+        super(in);
+        mCopy = copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int result = super.read();
+        if (result != -1 && mCopy != null) {
+            mCopy.write(result);
+        }
+        return result;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int result = super.read(buffer, offset, count);
+        if (result > 0 && mCopy != null) {
+            mCopy.write(buffer, offset, result);
+        }
+        return result;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        //需要复制数据时，跳过的内容也要读取出来
+        if (mCopy == null) {
+            return super.skip(n);
+        }
+        byte[] buffer = new byte[(int) Math.min(n, 4096)];
+        long skipped = 0;
+        int count;
+        while (skipped < n && (count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) != -1) {
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * 是否复制了数据用于缓存
+     */
+    public boolean hasCopy() {
+        return mCopy != null;
+    }
+
+    /**
+     * 读取剩余的数据，返回完整响应的副本，用于写入缓存。
+     *
+     * @throws IOException 没有复制数据，或者读取失败
+     */
+    public byte[] drainCopy() throws IOException {
+        if (mCopy == null) {
+            throw new IOException("Response stream is not copied");
+        }
+        byte[] buffer = new byte[4096];
+        while (read(buffer, 0, buffer.length) != -1) {
+            //读取剩余的数据到副本中
+        }
+        return mCopy.toByteArray();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            super.close();
+        } finally {
+            if (mCopy != null) {
+                mCopy.close();
+            }
+        }
+    }
+}
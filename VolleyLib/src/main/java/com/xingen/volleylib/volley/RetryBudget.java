@@ -0,0 +1,78 @@
+package com.xingen.volleylib.volley;
+
+/**
+ * Limits the retries of a {@link RequestQueue} to a ratio of the requests it sends.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 每个新请求（不包括重试）存入ratio个令牌，每次重试取出一个令牌，令牌不足时不再重试，
+ * 长期来看重试次数不超过请求数的ratio倍。
+ * 2. 令牌数有上限，空闲一段时间后，也不会在服务器异常时突然发出大量重试。
+ * 3. 只限制{@link BackoffRetryPolicy}的重试。
+ * <p>
+ * 线程安全。
+ */
+public class RetryBudget {
+
+    /** 默认重试不超过请求数的10% */
+    public static final float DEFAULT_RATIO = 0.1f;
+
+    /** 默认最多累积的令牌数 */
+    public static final int DEFAULT_MAX_TOKENS = 10;
+
+    private final float mRatio;
+    private final float mMaxTokens;
+
+    private float mTokens;
+    private long mRetriesAllowed;
+    private long mRetriesRejected;
+
+    public RetryBudget() {
+        this(DEFAULT_RATIO, DEFAULT_MAX_TOKENS);
+    }
+
+    /**
+     * @param ratio     每个请求允许的重试次数，例如0.1表示每10个请求允许重试1次
+     * @param maxTokens 最多累积的令牌数，开始时令牌数为该值
+     */
+    public RetryBudget(float ratio, int maxTokens) {
+        mRatio = ratio;
+        mMaxTokens = maxTokens;
+        mTokens = maxTokens;
+    }
+
+    /**
+     * 发出一个新请求
+     */
+    public synchronized void onRequest() {
+        mTokens = Math.min(mMaxTokens, mTokens + mRatio);
+    }
+
+    /**
+     * 请求需要重试，返回false表示超出限制，不能重试
+     */
+    public synchronized boolean tryRetry() {
+        if (mTokens < 1) {
+            mRetriesRejected++;
+            return false;
+        }
+        mTokens -= 1;
+        mRetriesAllowed++;
+        return true;
+    }
+
+    /**
+     * 返回当前还可以重试的次数
+     */
+    public synchronized int getAvailableRetries() {
+        return (int) mTokens;
+    }
+
+    public synchronized long getRetriesAllowed() {
+        return mRetriesAllowed;
+    }
+
+    public synchronized long getRetriesRejected() {
+        return mRetriesRejected;
+    }
+}
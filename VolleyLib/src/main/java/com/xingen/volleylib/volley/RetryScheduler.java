@@ -0,0 +1,80 @@
+package com.xingen.volleylib.volley;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts requests that wait for a retry back on the network queue once their delay has passed.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 等待重试的请求不在网络线程中等待，由一个定时线程在到期后重新加入网络队列。
+ * 2. 停止时，等待中的请求立即放回网络队列，重新开启后执行。
+ */
+class RetryScheduler {
+
+    private final BlockingQueue<Request<?>> mQueue;
+    /** 等待中的请求，由this保护 */
+    private final Set<Request<?>> mPending = new HashSet<Request<?>>();
+    private ScheduledThreadPoolExecutor mExecutor;
+
+    RetryScheduler(BlockingQueue<Request<?>> queue) {
+        mQueue = queue;
+    }
+
+    /**
+     * 等待delayMs后，将请求重新加入网络队列
+     */
+    synchronized void schedule(final Request<?> request, long delayMs) {
+        if (delayMs <= 0) {
+            mQueue.add(request);
+            return;
+        }
+        if (mExecutor == null) {
+            mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "VolleyRetryScheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        mPending.add(request);
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (RetryScheduler.this) {
+                    if (!mPending.remove(request)) {
+                        return;
+                    }
+                }
+                request.addMarker("retry-requeue");
+                mQueue.add(request);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止定时线程，等待中的请求立即放回网络队列
+     */
+    void quit() {
+        List<Request<?>> pending;
+        synchronized (this) {
+            if (mExecutor == null) {
+                return;
+            }
+            mExecutor.shutdownNow();
+            mExecutor = null;
+            pending = new ArrayList<Request<?>>(mPending);
+            mPending.clear();
+        }
+        mQueue.addAll(pending);
+    }
+}
@@ -0,0 +1,36 @@
+package com.xingen.volleylib.volley;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A request body that is written directly to the connection instead of being materialised
+ * as a byte array by {@link Request#getBody()}.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 请求体直接写入连接的输出流，不需要在内存中转成byte[]，适合文件上传等大数据量的请求。
+ * 2. 提前给出准确的内容长度，HttpStack据此开启固定长度的流模式；长度未知时使用分块传输。
+ * <p>
+ * 通过重写{@link Request#getStreamingBody()}来提供。
+ */
+public interface StreamingBody {
+
+    /**
+     * 返回请求体的字节数，未知时返回-1（使用分块传输）。
+     */
+    long getContentLength();
+
+    /**
+     * 返回请求体的Content-Type
+     */
+    String getContentType();
+
+    /**
+     * 将请求体写入输出流。该方法运行在网络线程中，实现类不需要关闭输出流。
+     *
+     * @param out 连接的输出流
+     * @throws IOException
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -16,7 +16,6 @@
 
 package com.xingen.volleylib.volley;
 
-import android.os.SystemClock;
 import android.util.Log;
 
 import java.util.ArrayList;
@@ -27,7 +26,7 @@ import java.util.Locale;
 public class VolleyLog {
     public static String TAG = "Volley";
 
-    public static boolean DEBUG = Log.isLoggable(TAG, Log.VERBOSE);
+    public static boolean DEBUG = Platform.isLoggable(TAG);
 
     /**
      * Customize the log tag for your application, so that other apps
@@ -42,33 +41,33 @@ public class VolleyLog {
         TAG = tag;
 
         // Reinitialize the DEBUG "constant"
-        DEBUG = Log.isLoggable(TAG, Log.VERBOSE);
+        DEBUG = Platform.isLoggable(TAG);
     }
 
     public static void v(String format, Object... args) {
         if (DEBUG) {
-            Log.v(TAG, buildMessage(format, args));
+            Platform.log(Log.VERBOSE, TAG, buildMessage(format, args), null);
         }
     }
 
     public static void d(String format, Object... args) {
-        Log.d(TAG, buildMessage(format, args));
+        Platform.log(Log.DEBUG, TAG, buildMessage(format, args), null);
     }
 
     public static void e(String format, Object... args) {
-        Log.e(TAG, buildMessage(format, args));
+        Platform.log(Log.ERROR, TAG, buildMessage(format, args), null);
     }
 
     public static void e(Throwable tr, String format, Object... args) {
-        Log.e(TAG, buildMessage(format, args), tr);
+        Platform.log(Log.ERROR, TAG, buildMessage(format, args), tr);
     }
 
     public static void wtf(String format, Object... args) {
-        Log.wtf(TAG, buildMessage(format, args));
+        Platform.wtf(TAG, buildMessage(format, args), null);
     }
 
     public static void wtf(Throwable tr, String format, Object... args) {
-        Log.wtf(TAG, buildMessage(format, args), tr);
+        Platform.wtf(TAG, buildMessage(format, args), tr);
     }
 
     /**
@@ -127,7 +126,7 @@ public class VolleyLog {
                 throw new IllegalStateException("Marker added to finished log");
             }
 
-            mMarkers.add(new Marker(name, threadId, SystemClock.elapsedRealtime()));
+            mMarkers.add(new Marker(name, threadId, Platform.elapsedRealtime()));
         }
 
         /**
@@ -16,17 +16,19 @@
 
 package com.xingen.volleylib.volley.toolbox;
 
-import android.os.SystemClock;
-import android.util.Log;
-
 import com.xingen.volleylib.request.DownloadRequest;
 import com.xingen.volleylib.volley.AuthFailureError;
+import com.xingen.volleylib.volley.BackoffRetryPolicy;
 import com.xingen.volleylib.volley.Cache;
+import com.xingen.volleylib.volley.ClientError;
+import com.xingen.volleylib.volley.DeadlineExceededError;
 import com.xingen.volleylib.volley.Network;
 import com.xingen.volleylib.volley.NetworkError;
 import com.xingen.volleylib.volley.NetworkResponse;
 import com.xingen.volleylib.volley.NoConnectionError;
+import com.xingen.volleylib.volley.Platform;
 import com.xingen.volleylib.volley.Request;
+import com.xingen.volleylib.volley.ResponseStream;
 import com.xingen.volleylib.volley.RetryPolicy;
 import com.xingen.volleylib.volley.ServerError;
 import com.xingen.volleylib.volley.TimeoutError;
@@ -41,8 +43,6 @@ import org.apache.http.StatusLine;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.impl.cookie.DateUtils;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
@@ -78,13 +78,19 @@ public class BasicNetwork implements Network {
 
     protected final ByteArrayPool mPool;
 
+    /**
+     * 处理DownloadRequest，断点续传和分段下载
+     */
+    private final FileDownloader mFileDownloader;
+
     /**
      * @param httpStack HTTP stack to be used
      */
     public BasicNetwork(HttpStack httpStack) {
 
         //若是不传入一个字节池，则构建一个小的默认池，这将带来很多好处，不会浪费太多的内存。
-        this(httpStack, new ByteArrayPool(DEFAULT_POOL_SIZE));
+        //默认使用无锁的字节池，多个网络线程不需要竞争同一个锁。
+        this(httpStack, new ConcurrentByteArrayPool(DEFAULT_POOL_SIZE));
     }
 
     /**
@@ -94,6 +100,7 @@ public class BasicNetwork implements Network {
     public BasicNetwork(HttpStack httpStack, ByteArrayPool pool) {
         mHttpStack = httpStack;
         mPool = pool;
+        mFileDownloader = new FileDownloader(httpStack);
     }
 
     /**
@@ -108,7 +115,7 @@ public class BasicNetwork implements Network {
     @Override
     public NetworkResponse performRequest(Request<?> request) throws VolleyError {
         //引导后的毫秒数（包含睡眠花费的时间）
-        long requestStart = SystemClock.elapsedRealtime();
+        long requestStart = Platform.elapsedRealtime();
         while (true) {
             HttpResponse httpResponse = null;
             byte[] responseContents = null;
@@ -118,6 +125,11 @@ public class BasicNetwork implements Network {
                 Map<String, String> headers = new HashMap<String, String>();
                 //因磁盘中缓存的数据，已经过期，需要重新执行网络数据，而添加磁盘中缓存数据的标头
                 addCacheHeaders(headers, request.getCacheEntry());
+                //下载请求，若是存在断点记录，则添加Range标头
+                FileDownloader.DownloadRecord downloadRecord = null;
+                if (request instanceof DownloadRequest) {
+                    downloadRecord = FileDownloader.prepareRange((DownloadRequest) request, headers);
+                }
                 //在HurlStack 中，执行HttpURLConnection，返回响应数据
                 httpResponse = mHttpStack.performRequest(request, headers);
                 StatusLine statusLine = httpResponse.getStatusLine();
@@ -125,13 +137,34 @@ public class BasicNetwork implements Network {
                 //获取到响应数据的标头
                 responseHeaders = convertHeaders(httpResponse.getAllHeaders());
                 //下载请求
-                if (statusCode == 200 && request instanceof DownloadRequest) {
-                    return writeFileStreamIfExist((DownloadRequest) request, responseHeaders, httpResponse);
+                if (request instanceof DownloadRequest) {
+                    if (statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_PARTIAL_CONTENT) {
+                        return mFileDownloader.download((DownloadRequest) request, downloadRecord, httpResponse, responseHeaders);
+                    }
+                    //断点位置已经无效，丢弃临时文件，重新下载
+                    if (statusCode == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && downloadRecord != null) {
+                        httpResponse.getEntity().consumeContent();
+                        FileDownloader.discard((DownloadRequest) request);
+                        continue;
+                    }
                 }
                 //处理缓存验证，若是服务器返回304，返回磁盘中读取到的数据
                 if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
-                    return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, request.getCacheEntry() == null ? null : request.getCacheEntry().data
-                            , responseHeaders, true);
+                    Cache.Entry entry = request.getCacheEntry();
+                    if (entry == null) {
+                        return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, null, responseHeaders, true);
+                    }
+                    return NetworkResponse.fromCacheEntry(HttpStatus.SC_NOT_MODIFIED, entry, responseHeaders, true, request);
+                }
+                //压缩的响应在读取时解压，header与解压后的数据保持一致，缓存中保存解压后的数据
+                if (httpResponse.getEntity() != null && ContentEncoding.isEncoded(getContentEncoding(httpResponse.getEntity()))) {
+                    ContentEncoding.removeEncodingHeaders(responseHeaders);
+                }
+                //流式解析的请求，不转成byte数组，直接将输入流交给请求解析
+                if (request.shouldStreamResponse() && statusCode >= 200 && statusCode <= 299
+                        && httpResponse.getEntity() != null) {
+                    return new NetworkResponse(statusCode, null, responseHeaders, false,
+                            entityToStream(request, httpResponse.getEntity()));
                 }
                 //在服务器返回204的情况下，需检查内容是否为空
                 if (httpResponse.getEntity() != null) {
@@ -144,7 +177,7 @@ public class BasicNetwork implements Network {
                     responseContents = new byte[0];
                 }
                 //若是请求缓慢，请记录
-                long requestLifetime = SystemClock.elapsedRealtime() - requestStart;
+                long requestLifetime = Platform.elapsedRealtime() - requestStart;
                 logSlowRequests(requestLifetime, request, responseContents, statusLine);
                 //若是服务器返回状态码在小于200或者待遇299时，抛出一个异常
                 if (statusCode < 200 || statusCode > 299) {
@@ -170,8 +203,10 @@ public class BasicNetwork implements Network {
                     networkResponse = new NetworkResponse(statusCode, responseContents, responseHeaders, false);
                     if (statusCode == HttpStatus.SC_UNAUTHORIZED || statusCode == HttpStatus.SC_FORBIDDEN) {
                         attemptRetryOnException("auth", request, new AuthFailureError(networkResponse));
+                    } else if (statusCode >= 400 && statusCode <= 499) {
+                        //4xx是请求本身的错误
+                        throw new ClientError(networkResponse);
                     } else {
-                        // TODO: Only throw ServerError for 5xx status codes.
                         throw new ServerError(networkResponse);
                     }
                 } else {
@@ -205,7 +240,16 @@ public class BasicNetwork implements Network {
      */
     private static void attemptRetryOnException(String logPrefix, Request<?> request, VolleyError exception) throws VolleyError {
         RetryPolicy retryPolicy = request.getRetryPolicy();
+        //延迟重试由NetworkProcessor重新加入网络队列，不在当前线程中立即重试
+        if (retryPolicy instanceof BackoffRetryPolicy) {
+            throw exception;
+        }
         int oldTimeout = request.getTimeoutMs();
+        //超过截止时间，不再重试
+        if (request.isDeadlineExceeded()) {
+            request.addMarker(String.format("%s-deadline-giveup [timeout=%s]", logPrefix, oldTimeout));
+            throw deadlineExceeded(exception);
+        }
         try {
             retryPolicy.retry(exception);
         } catch (VolleyError e) {
@@ -215,6 +259,15 @@ public class BasicNetwork implements Network {
         request.addMarker(String.format("%s-retry [timeout=%s]", logPrefix, oldTimeout));
     }
 
+    /**
+     * 超过截止时间时抛出的异常，保留最后一次请求的异常
+     */
+    static DeadlineExceededError deadlineExceeded(VolleyError lastError) {
+        DeadlineExceededError error = new DeadlineExceededError();
+        error.initCause(lastError);
+        return error;
+    }
+
     /**
      * 添加磁盘中缓存数据的一些标头，若是没有缓存，不需要任何操作。
      * <p>
@@ -224,7 +277,7 @@ public class BasicNetwork implements Network {
      * @param headers
      * @param entry
      */
-    private void addCacheHeaders(Map<String, String> headers, Cache.Entry entry) {
+    static void addCacheHeaders(Map<String, String> headers, Cache.Entry entry) {
         //
         if (entry == null) {
             return;
@@ -239,22 +292,24 @@ public class BasicNetwork implements Network {
     }
 
     protected void logError(String what, String url, long start) {
-        long now = SystemClock.elapsedRealtime();
+        long now = Platform.elapsedRealtime();
         VolleyLog.v("HTTP ERROR(%s) %d ms to fetch %s", what, (now - start), url);
     }
 
     /**
-     * 将HttpEntity中数据(stream)转成 一个byte[]中
+     * 将HttpEntity中数据(stream)转成 一个byte[]中，压缩的数据边读取边解压到字节池的缓冲区中
      */
     private byte[] entityToBytes(HttpEntity entity) throws IOException, ServerError {
         PoolingByteArrayOutputStream bytes =
                 new PoolingByteArrayOutputStream(mPool, (int) entity.getContentLength());
         byte[] buffer = null;
+        InputStream in = null;
         try {
-            InputStream in = entity.getContent();
+            in = entity.getContent();
             if (in == null) {
                 throw new ServerError();
             }
+            in = ContentEncoding.decode(getContentEncoding(entity), in);
             buffer = mPool.getBuf(1024);
             int count;
             while ((count = in.read(buffer)) != -1) {
@@ -262,6 +317,14 @@ public class BasicNetwork implements Network {
             }
             return bytes.toByteArray();
         } finally {
+            if (in != null) {
+                //释放解压使用的本地内存
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    VolleyLog.v("Error occured when closing content");
+                }
+            }
             try {
                 // 关闭流资源
                 entity.consumeContent();
@@ -275,6 +338,27 @@ public class BasicNetwork implements Network {
         }
     }
 
+    /**
+     * 将HttpEntity包装成ResponseStream，若是需要缓存，读取时复制一份解压后的数据到字节池的缓冲区中。
+     */
+    private ResponseStream entityToStream(Request<?> request, HttpEntity entity) throws IOException, ServerError {
+        InputStream in = entity.getContent();
+        if (in == null) {
+            throw new ServerError();
+        }
+        in = ContentEncoding.decode(getContentEncoding(entity), in);
+        PoolingByteArrayOutputStream copy = null;
+        if (request.shouldCache()) {
+            copy = new PoolingByteArrayOutputStream(mPool, (int) entity.getContentLength());
+        }
+        return new ResponseStream(in, copy);
+    }
+
+    private static String getContentEncoding(HttpEntity entity) {
+        Header header = entity.getContentEncoding();
+        return header != null ? header.getValue() : null;
+    }
+
     /**
      * 将响应数据的标头，存储到一个Map中
      */
@@ -285,36 +369,4 @@ public class BasicNetwork implements Network {
         }
         return result;
     }
-
-    private static NetworkResponse writeFileStreamIfExist(DownloadRequest request, Map<String, String> responseHeaders, HttpResponse httpResponse) throws IOException {
-        Log.i("DownloadRequest" ,"下载");
-        File file=new File(request.getFilePath());
-        if (file!=null&&file.exists()){
-            file.delete();
-        }
-        InputStream inputStream=httpResponse.getEntity().getContent();
-        FileOutputStream outputStream=new FileOutputStream(file);
-        long fileLength = httpResponse.getEntity().getContentLength();
-        byte[] buffer = new byte[4096];
-        int count;
-        long total = 0;
-        while ((count = inputStream.read(buffer)) != -1) {
-            if (request.isCanceled()){
-                outputStream.close();
-                inputStream.close();
-                file.deleteOnExit();
-                throw  new IOException("DownloadRequest cancel 被取消");
-            }
-            outputStream.write(buffer, 0, count);
-            total += count;
-            if (fileLength > 0) {
-                int progress = (int) ((float) total * 100 / fileLength);
-                request.deliverProgress(progress);
-            }
-        }
-        outputStream.flush();
-        inputStream.close();
-        outputStream.close();
-        return new NetworkResponse(httpResponse.getStatusLine().getStatusCode(), new byte[0], responseHeaders, false);
-    }
 }
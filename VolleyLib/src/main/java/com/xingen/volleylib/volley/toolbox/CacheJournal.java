@@ -0,0 +1,249 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.VolleyLog;
+import com.xingen.volleylib.volley.toolbox.DiskBasedCache.CacheHeader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An append-only index of the entries in a {@link DiskBasedCache}.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 每次写入、删除缓存时，在日志文件末尾追加一条记录（key、大小、etag、过期时间）。
+ * 2. 初始化时只需顺序读取日志文件重建索引，不需要打开每个缓存文件解析头部。
+ * 3. 无效记录过多时，用当前的索引重写日志文件（压缩）。
+ * <p>
+ * 日志文件缺失或者损坏时，{@link #replay()}返回null，由DiskBasedCache扫描全部文件后重写日志。
+ * <p>
+ * 写入记录的方法线程安全，调用方可以在持有某个key的锁时调用，但不能在持有日志的锁时获取key的锁。
+ */
+class CacheJournal {
+    /** 日志文件名，缓存文件名由数字组成，不会冲突 */
+    static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+
+    /** Magic number for current version of journal file format. */
+    private static final int JOURNAL_MAGIC = 0x20180309;
+
+    // Visible for testing.
+    static final int OP_PUT = 1;
+    static final int OP_REMOVE = 2;
+
+    /** 记录数少于该值时不压缩 */
+    private static final int COMPACT_MIN_RECORDS = 1000;
+
+    private final File mJournalFile;
+    private final File mJournalFileTmp;
+
+    /** 追加记录的输出流，日志未打开时为null */
+    private OutputStream mWriter;
+
+    /** 日志文件中的记录数 */
+    private int mRecordCount;
+
+    /** 上次读取时日志末尾不完整 */
+    private boolean mTruncated;
+
+    CacheJournal(File rootDirectory) {
+        mJournalFile = new File(rootDirectory, JOURNAL_FILE);
+        mJournalFileTmp = new File(rootDirectory, JOURNAL_FILE_TMP);
+    }
+
+    /**
+     * 是否是日志文件，扫描缓存目录时需跳过
+     */
+    static boolean isJournalFile(String name) {
+        return JOURNAL_FILE.equals(name) || JOURNAL_FILE_TMP.equals(name);
+    }
+
+    /**
+     * 读取日志文件，按顺序重放记录。
+     *
+     * @return key和头部（不包含响应头）的映射，按写入顺序排列；日志不存在或者无法识别时返回null
+     */
+    synchronized Map<String, CacheHeader> replay() {
+        closeWriter();
+        mRecordCount = 0;
+        mTruncated = false;
+        if (!mJournalFile.exists()) {
+            return null;
+        }
+        Map<String, CacheHeader> entries = new LinkedHashMap<String, CacheHeader>();
+        InputStream in = null;
+        try {
+            //按日志长度校验记录中的字符串长度，损坏的长度按无法识别处理
+            in = new DiskBasedCache.CountingInputStream(
+                    new BufferedInputStream(new FileInputStream(mJournalFile)), mJournalFile.length());
+            if (DiskBasedCache.readInt(in) != JOURNAL_MAGIC) {
+                return null;
+            }
+            int op;
+            while ((op = in.read()) != -1) {
+                if (op == OP_PUT) {
+                    CacheHeader header = CacheHeader.readIndexRecord(in);
+                    //重新插入，保持按最后写入的顺序排列
+                    entries.remove(header.key);
+                    entries.put(header.key, header);
+                } else if (op == OP_REMOVE) {
+                    entries.remove(DiskBasedCache.readString(in));
+                } else {
+                    throw new IOException("Unexpected journal op " + op);
+                }
+                mRecordCount++;
+            }
+        } catch (EOFException e) {
+            //最后一条记录没有写完整，保留之前的记录
+            mTruncated = true;
+        } catch (IOException e) {
+            VolleyLog.d("Could not read cache journal: %s", e.toString());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) { }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * 重放之后日志是否需要重写：末尾不完整，或者存在无效记录
+     */
+    synchronized boolean needsRewrite(int liveEntries) {
+        return mTruncated || mRecordCount != liveEntries;
+    }
+
+    /**
+     * 打开日志文件，后续记录追加到末尾
+     */
+    synchronized void openForAppend() {
+        closeWriter();
+        try {
+            mWriter = new BufferedOutputStream(new FileOutputStream(mJournalFile, true));
+        } catch (IOException e) {
+            VolleyLog.d("Could not open cache journal: %s", e.toString());
+            mWriter = null;
+        }
+    }
+
+    /**
+     * 用当前的全部缓存重写日志文件。先写临时文件，再替换旧文件。
+     */
+    synchronized void rewrite(Collection<CacheHeader> entries) {
+        closeWriter();
+        OutputStream out = null;
+        int count = 0;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(mJournalFileTmp));
+            DiskBasedCache.writeInt(out, JOURNAL_MAGIC);
+            for (CacheHeader header : entries) {
+                out.write(OP_PUT);
+                header.writeIndexRecord(out);
+                count++;
+            }
+            out.close();
+            out = null;
+            if (!mJournalFileTmp.renameTo(mJournalFile)) {
+                throw new IOException("Could not rename " + mJournalFileTmp.getAbsolutePath());
+            }
+            mRecordCount = count;
+            mTruncated = false;
+            openForAppend();
+        } catch (IOException e) {
+            VolleyLog.d("Could not write cache journal: %s", e.toString());
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) { }
+            }
+            mJournalFileTmp.delete();
+            //日志与缓存不一致，删除后下次初始化时扫描全部文件
+            mJournalFile.delete();
+        }
+    }
+
+    /**
+     * 追加一条写入记录
+     */
+    synchronized void appendPut(CacheHeader header) {
+        if (mWriter == null) {
+            return;
+        }
+        try {
+            mWriter.write(OP_PUT);
+            header.writeIndexRecord(mWriter);
+            mWriter.flush();
+            mRecordCount++;
+        } catch (IOException e) {
+            onWriteFailed(e);
+        }
+    }
+
+    /**
+     * 追加一条删除记录
+     */
+    synchronized void appendRemove(String key) {
+        if (mWriter == null) {
+            return;
+        }
+        try {
+            mWriter.write(OP_REMOVE);
+            DiskBasedCache.writeString(mWriter, key);
+            mWriter.flush();
+            mRecordCount++;
+        } catch (IOException e) {
+            onWriteFailed(e);
+        }
+    }
+
+    /**
+     * 无效记录过多时，用当前的全部缓存压缩日志
+     */
+    synchronized void compactIfNeeded(Collection<CacheHeader> entries, int liveEntries) {
+        if (mWriter == null) {
+            return;
+        }
+        if (mRecordCount >= COMPACT_MIN_RECORDS && mRecordCount > liveEntries * 2) {
+            rewrite(entries);
+        }
+    }
+
+    /**
+     * 删除日志文件，停止记录
+     */
+    synchronized void delete() {
+        closeWriter();
+        mJournalFile.delete();
+        mJournalFileTmp.delete();
+        mRecordCount = 0;
+    }
+
+    private void onWriteFailed(IOException e) {
+        VolleyLog.d("Could not append to cache journal: %s", e.toString());
+        closeWriter();
+        //记录不完整，删除后下次初始化时扫描全部文件
+        mJournalFile.delete();
+    }
+
+    private void closeWriter() {
+        if (mWriter != null) {
+            try {
+                mWriter.close();
+            } catch (IOException ignored) { }
+            mWriter = null;
+        }
+    }
+}
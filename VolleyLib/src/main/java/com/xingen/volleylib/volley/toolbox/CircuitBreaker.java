@@ -0,0 +1,211 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.Platform;
+
+/**
+ * The circuit breaker of one host of a {@link CircuitBreakerNetwork}.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. CLOSED：记录最近windowSize个请求的结果和耗时，失败率达到阈值时变为OPEN。
+ * 2. OPEN：请求立即失败，经过openDurationMs后变为HALF_OPEN。
+ * 3. HALF_OPEN：只允许一个试探请求，成功时变为CLOSED，失败时重新变为OPEN。
+ * <p>
+ * 超过慢请求阈值的请求也计为失败。线程安全。
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Notified when a breaker changes state, e.g. for monitoring.
+     */
+    public interface Listener {
+        /**
+         * 在执行请求的线程中回调
+         */
+        void onStateChanged(String host, State from, State to);
+    }
+
+    private final String mHost;
+    private final int mMinimumCalls;
+    private final float mFailureRateThreshold;
+    private final long mSlowCallThresholdMs;
+    private final long mOpenDurationMs;
+    private final Listener mListener;
+
+    /** 最近请求的结果，环形数组 */
+    private final boolean[] mFailures;
+    private final long[] mLatencies;
+    private int mNext;
+    private int mCount;
+    private int mFailureCount;
+    private long mLatencySum;
+
+    private State mState = State.CLOSED;
+    private long mOpenedAt;
+    private boolean mProbeInFlight;
+
+    CircuitBreaker(String host, int windowSize, int minimumCalls, float failureRateThreshold,
+            long slowCallThresholdMs, long openDurationMs, Listener listener) {
+        mHost = host;
+        mMinimumCalls = minimumCalls;
+        mFailureRateThreshold = failureRateThreshold;
+        mSlowCallThresholdMs = slowCallThresholdMs;
+        mOpenDurationMs = openDurationMs;
+        mListener = listener;
+        mFailures = new boolean[windowSize];
+        mLatencies = new long[windowSize];
+    }
+
+    /**
+     * 请求开始前调用，返回-1表示允许执行，否则返回距离允许试探请求的毫秒数（正在试探时为0）
+     */
+    long tryAcquire() {
+        State from;
+        synchronized (this) {
+            if (mState == State.CLOSED) {
+                return -1;
+            }
+            if (mState == State.HALF_OPEN) {
+                if (mProbeInFlight) {
+                    return 0;
+                }
+                mProbeInFlight = true;
+                return -1;
+            }
+            long remaining = mOpenedAt + mOpenDurationMs - Platform.elapsedRealtime();
+            if (remaining > 0) {
+                return remaining;
+            }
+            from = mState;
+            mState = State.HALF_OPEN;
+            mProbeInFlight = true;
+        }
+        notifyListener(from, State.HALF_OPEN);
+        return -1;
+    }
+
+    /**
+     * 请求结束后调用
+     *
+     * @param failure   是否失败
+     * @param latencyMs 耗时
+     * @param timed     是否计算慢请求，下载、上传不计算
+     */
+    void onResult(boolean failure, long latencyMs, boolean timed) {
+        if (timed && mSlowCallThresholdMs > 0 && latencyMs >= mSlowCallThresholdMs) {
+            failure = true;
+        }
+        State from;
+        State to;
+        synchronized (this) {
+            from = mState;
+            if (mState == State.HALF_OPEN) {
+                mProbeInFlight = false;
+                if (failure) {
+                    open();
+                } else {
+                    mState = State.CLOSED;
+                    reset();
+                }
+            } else if (mState == State.CLOSED) {
+                record(failure, latencyMs);
+                if (mCount >= mMinimumCalls && getFailureRateLocked() >= mFailureRateThreshold) {
+                    open();
+                }
+            }
+            //OPEN时结束的请求是打开之前发出的，忽略
+            to = mState;
+        }
+        if (from != to) {
+            notifyListener(from, to);
+        }
+    }
+
+    /**
+     * 请求被取消等未得到结果时调用，释放试探请求的名额
+     */
+    synchronized void onAbandoned() {
+        if (mState == State.HALF_OPEN) {
+            mProbeInFlight = false;
+        }
+    }
+
+    /**
+     * 断开时保留记录，用于监控；恢复时清空
+     */
+    private void open() {
+        mState = State.OPEN;
+        mOpenedAt = Platform.elapsedRealtime();
+    }
+
+    private void record(boolean failure, long latencyMs) {
+        if (mCount == mFailures.length) {
+            if (mFailures[mNext]) {
+                mFailureCount--;
+            }
+            mLatencySum -= mLatencies[mNext];
+        } else {
+            mCount++;
+        }
+        mFailures[mNext] = failure;
+        mLatencies[mNext] = latencyMs;
+        if (failure) {
+            mFailureCount++;
+        }
+        mLatencySum += latencyMs;
+        mNext = (mNext + 1) % mFailures.length;
+    }
+
+    private void reset() {
+        mNext = 0;
+        mCount = 0;
+        mFailureCount = 0;
+        mLatencySum = 0;
+    }
+
+    private float getFailureRateLocked() {
+        return mCount == 0 ? 0 : (float) mFailureCount / mCount;
+    }
+
+    private void notifyListener(State from, State to) {
+        if (mListener != null) {
+            mListener.onStateChanged(mHost, from, to);
+        }
+    }
+
+    public String getHost() {
+        return mHost;
+    }
+
+    /**
+     * 返回当前状态。OPEN状态超过openDurationMs后，在下一个请求到来时变为HALF_OPEN。
+     */
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * 返回最近请求的失败率，0到1
+     */
+    public synchronized float getFailureRate() {
+        return getFailureRateLocked();
+    }
+
+    /**
+     * 返回最近请求的平均耗时
+     */
+    public synchronized long getAverageLatencyMs() {
+        return mCount == 0 ? 0 : mLatencySum / mCount;
+    }
+
+    /**
+     * 返回记录的请求数
+     */
+    public synchronized int getCallCount() {
+        return mCount;
+    }
+}
@@ -0,0 +1,209 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.AsyncNetwork;
+import com.xingen.volleylib.volley.CircuitOpenError;
+import com.xingen.volleylib.volley.DeadlineExceededError;
+import com.xingen.volleylib.volley.Network;
+import com.xingen.volleylib.volley.NetworkError;
+import com.xingen.volleylib.volley.NetworkResponse;
+import com.xingen.volleylib.volley.NoConnectionError;
+import com.xingen.volleylib.volley.Platform;
+import com.xingen.volleylib.volley.Request;
+import com.xingen.volleylib.volley.ServerError;
+import com.xingen.volleylib.volley.TimeoutError;
+import com.xingen.volleylib.volley.VolleyError;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link Network} that wraps another one with a {@link CircuitBreaker} per host.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 一个host最近的请求大量失败（超时、连接失败、5xx，或者超过慢请求阈值）时，断开该host，
+ * 之后的请求不再发出，立即以{@link CircuitOpenError}失败，不占用网络线程等待超时。
+ * 2. 断开一段时间后，允许一个试探请求，成功时恢复。
+ * 3. 通过{@link #getStates()}、{@link #setListener(CircuitBreaker.Listener)}监控各个host的状态。
+ * <p>
+ * 默认不启用，需要时包装Network后传给{@link Volley#newRequestQueue(android.content.Context, Network)}：
+ * <pre>
+ * Volley.newRequestQueue(context, new CircuitBreakerNetwork(new BasicNetwork(new HurlStack())));
+ * </pre>
+ * 被包装的Network是{@link AsyncNetwork}时，该类也可以用于{@link NioNetworkEngine}。
+ * 重试在被包装的Network中进行时，一次performRequest()的全部重试计为一个结果。
+ */
+public class CircuitBreakerNetwork implements Network, AsyncNetwork {
+
+    /** 默认记录的最近请求数 */
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    /** 默认的失败率阈值 */
+    public static final float DEFAULT_FAILURE_RATE_THRESHOLD = 0.5f;
+    /** 默认的慢请求阈值，下载、上传不计算 */
+    public static final long DEFAULT_SLOW_CALL_THRESHOLD_MS = 10 * 1000;
+    /** 默认的断开时间 */
+    public static final long DEFAULT_OPEN_DURATION_MS = 30 * 1000;
+
+    private final Network mNetwork;
+    private final int mWindowSize;
+    private final int mMinimumCalls;
+    private final float mFailureRateThreshold;
+    private final long mSlowCallThresholdMs;
+    private final long mOpenDurationMs;
+
+    /** host与断路器，由this保护 */
+    private final Map<String, CircuitBreaker> mBreakers = new HashMap<String, CircuitBreaker>();
+    private volatile CircuitBreaker.Listener mListener;
+
+    private final CircuitBreaker.Listener mDispatchListener = new CircuitBreaker.Listener() {
+        @Override
+        public void onStateChanged(String host, CircuitBreaker.State from, CircuitBreaker.State to) {
+            CircuitBreaker.Listener listener = mListener;
+            if (listener != null) {
+                listener.onStateChanged(host, from, to);
+            }
+        }
+    };
+
+    public CircuitBreakerNetwork(Network network) {
+        this(network, DEFAULT_WINDOW_SIZE, DEFAULT_FAILURE_RATE_THRESHOLD, DEFAULT_SLOW_CALL_THRESHOLD_MS,
+                DEFAULT_OPEN_DURATION_MS);
+    }
+
+    /**
+     * @param network              执行请求的Network
+     * @param windowSize           每个host记录的最近请求数，记录数达到一半后才计算失败率
+     * @param failureRateThreshold 断开的失败率阈值，0到1
+     * @param slowCallThresholdMs  超过该耗时的请求计为失败，0表示不计算
+     * @param openDurationMs       断开后，允许试探请求前的等待时间
+     */
+    public CircuitBreakerNetwork(Network network, int windowSize, float failureRateThreshold,
+            long slowCallThresholdMs, long openDurationMs) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
+        mNetwork = network;
+        mWindowSize = windowSize;
+        mMinimumCalls = Math.max(1, windowSize / 2);
+        mFailureRateThreshold = failureRateThreshold;
+        mSlowCallThresholdMs = slowCallThresholdMs;
+        mOpenDurationMs = openDurationMs;
+    }
+
+    /**
+     * 设置状态变化的监听，用于监控
+     */
+    public void setListener(CircuitBreaker.Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 返回一个host的断路器，该host还没有请求时返回null
+     */
+    public synchronized CircuitBreaker getBreaker(String host) {
+        return mBreakers.get(host);
+    }
+
+    /**
+     * 返回各个host的断路器状态
+     */
+    public synchronized Map<String, CircuitBreaker.State> getStates() {
+        Map<String, CircuitBreaker.State> states = new HashMap<String, CircuitBreaker.State>();
+        for (Map.Entry<String, CircuitBreaker> entry : mBreakers.entrySet()) {
+            states.put(entry.getKey(), entry.getValue().getState());
+        }
+        return states;
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        CircuitBreaker breaker = acquire(request);
+        long start = Platform.elapsedRealtime();
+        try {
+            NetworkResponse response = mNetwork.performRequest(request);
+            breaker.onResult(false, Platform.elapsedRealtime() - start, !request.isBulkTransfer());
+            return response;
+        } catch (VolleyError e) {
+            breaker.onResult(isFailure(e), Platform.elapsedRealtime() - start, !request.isBulkTransfer());
+            throw e;
+        } catch (RuntimeException e) {
+            breaker.onAbandoned();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean canPerformAsync(Request<?> request) {
+        return mNetwork instanceof AsyncNetwork && ((AsyncNetwork) mNetwork).canPerformAsync(request);
+    }
+
+    @Override
+    public void performRequest(final Request<?> request, final Callback callback) {
+        final CircuitBreaker breaker;
+        try {
+            breaker = acquire(request);
+        } catch (CircuitOpenError e) {
+            callback.onError(e);
+            return;
+        }
+        final long start = Platform.elapsedRealtime();
+        ((AsyncNetwork) mNetwork).performRequest(request, new Callback() {
+            @Override
+            public void onResponse(NetworkResponse networkResponse) {
+                breaker.onResult(false, Platform.elapsedRealtime() - start, !request.isBulkTransfer());
+                callback.onResponse(networkResponse);
+            }
+
+            @Override
+            public void onError(VolleyError volleyError) {
+                breaker.onResult(isFailure(volleyError), Platform.elapsedRealtime() - start,
+                        !request.isBulkTransfer());
+                callback.onError(volleyError);
+            }
+        });
+    }
+
+    /**
+     * 返回请求host的断路器，断开时抛出CircuitOpenError
+     */
+    private CircuitBreaker acquire(Request<?> request) throws CircuitOpenError {
+        String host = getHost(request);
+        CircuitBreaker breaker;
+        synchronized (this) {
+            breaker = mBreakers.get(host);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(host, mWindowSize, mMinimumCalls, mFailureRateThreshold,
+                        mSlowCallThresholdMs, mOpenDurationMs, mDispatchListener);
+                mBreakers.put(host, breaker);
+            }
+        }
+        long retryAfterMs = breaker.tryAcquire();
+        if (retryAfterMs >= 0) {
+            request.addMarker("circuit-open");
+            throw new CircuitOpenError(host, retryAfterMs);
+        }
+        return breaker;
+    }
+
+    /**
+     * 超时、连接失败、5xx计为失败；4xx等说明服务器正常，不计为失败。
+     * 没有网络（NoConnectionError）、请求自身的截止时间到期（DeadlineExceededError）是客户端的原因，不计为失败。
+     */
+    private static boolean isFailure(VolleyError error) {
+        if (error instanceof NoConnectionError || error instanceof DeadlineExceededError) {
+            return false;
+        }
+        if (error instanceof TimeoutError || error instanceof NetworkError) {
+            return true;
+        }
+        if (error instanceof ServerError) {
+            return error.networkResponse == null || error.networkResponse.statusCode >= 500;
+        }
+        return false;
+    }
+
+    private static String getHost(Request<?> request) {
+        String host = Platform.getHost(request.getUrl());
+        return host == null ? "" : host;
+    }
+}
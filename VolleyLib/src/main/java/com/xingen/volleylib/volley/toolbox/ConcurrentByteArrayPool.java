@@ -0,0 +1,161 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free {@link ByteArrayPool} that keeps buffers in power-of-two size classes.
+ * <p>
+ * Each size class holds a small fixed array of slots that are claimed and released with
+ * compare-and-set, so {@link #getBuf(int)} and {@link #returnBuf(byte[])} never take a monitor
+ * and run in time bounded by the slot count instead of the number of pooled buffers.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 与ByteArrayPool相同的API，可以直接传给BasicNetwork和PoolingByteArrayOutputStream。
+ * 2. 按2的幂次划分大小等级，第k级中的缓冲区长度不小于2^k。获取长度为len的缓冲区时，从ceil(log2(len))级中取出。
+ * 3. 多个网络线程同时获取、归还缓冲区，不需要竞争同一个锁。
+ * 4. 提供命中、未命中、淘汰的计数，用于调整池的大小。
+ */
+public class ConcurrentByteArrayPool extends ByteArrayPool {
+
+    /** 每个大小等级最多保存的缓冲区个数 */
+    private static final int MAX_SLOTS_PER_CLASS = 16;
+
+    /** 每个大小等级的缓冲区槽位，下标为等级 */
+    private final List<AtomicReferenceArray<byte[]>> mSlots;
+
+    /** 池中缓冲区的总字节数 */
+    private final AtomicInteger mCurrentSize = new AtomicInteger();
+
+    /** 池的最大字节数 */
+    private final int mSizeLimit;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    /**
+     * @param sizeLimit the maximum size of the pool, in bytes
+     */
+    public ConcurrentByteArrayPool(int sizeLimit) {
+        super(sizeLimit);
+        mSizeLimit = sizeLimit;
+        int classes = sizeLimit > 0 ? floorLog2(sizeLimit) + 1 : 0;
+        mSlots = new ArrayList<AtomicReferenceArray<byte[]>>(classes);
+        for (int i = 0; i < classes; i++) {
+            int slots = Math.max(1, Math.min(MAX_SLOTS_PER_CLASS, sizeLimit >> i));
+            mSlots.add(new AtomicReferenceArray<byte[]>(slots));
+        }
+    }
+
+    /**
+     * Returns a buffer from the pool if one is available in the requested size class, or
+     * allocates a new one rounded up to the size class if a pooled one is not available.
+     *
+     * @param len the minimum size, in bytes, of the requested buffer. The returned buffer may be
+     *        larger.
+     * @return a byte[] buffer is always returned.
+     */
+    @Override
+    public byte[] getBuf(int len) {
+        int sizeClass = ceilLog2(Math.max(len, 1));
+        if (sizeClass >= mSlots.size()) {
+            mMisses.incrementAndGet();
+            return new byte[len];
+        }
+        AtomicReferenceArray<byte[]> slots = mSlots.get(sizeClass);
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) {
+                byte[] buf = slots.getAndSet(i, null);
+                if (buf != null) {
+                    mCurrentSize.addAndGet(-buf.length);
+                    mHits.incrementAndGet();
+                    return buf;
+                }
+            }
+        }
+        mMisses.incrementAndGet();
+        int rounded = 1 << sizeClass;
+        //向上取整到等级大小，归还后可以满足该等级的全部请求，但不超过池的最大字节数
+        return new byte[rounded <= mSizeLimit ? rounded : len];
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer is dropped and counted as an eviction if its size
+     * class is full or the pool would exceed its allotted size.
+     *
+     * @param buf the buffer to return to the pool.
+     */
+    @Override
+    public void returnBuf(byte[] buf) {
+        if (buf == null || buf.length == 0 || buf.length > mSizeLimit) {
+            return;
+        }
+        int sizeClass = floorLog2(buf.length);
+        if (!reserve(buf.length)) {
+            mEvictions.incrementAndGet();
+            return;
+        }
+        AtomicReferenceArray<byte[]> slots = mSlots.get(sizeClass);
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) == null && slots.compareAndSet(i, null, buf)) {
+                return;
+            }
+        }
+        mCurrentSize.addAndGet(-buf.length);
+        mEvictions.incrementAndGet();
+    }
+
+    /**
+     * 在不超过最大字节数的前提下，占用len字节的额度
+     */
+    private boolean reserve(int len) {
+        while (true) {
+            int current = mCurrentSize.get();
+            if (current + len > mSizeLimit) {
+                return false;
+            }
+            if (mCurrentSize.compareAndSet(current, current + len)) {
+                return true;
+            }
+        }
+    }
+
+    /** 从池中获取到缓冲区的次数 */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /** 池中没有合适的缓冲区，重新分配的次数 */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /** 归还时因池已满而丢弃的次数 */
+    public long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    /** 池中缓冲区的总字节数 */
+    public int getCurrentSize() {
+        return mCurrentSize.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConcurrentByteArrayPool[size=%d/%d, hits=%d, misses=%d, evictions=%d]",
+                getCurrentSize(), mSizeLimit, getHitCount(), getMissCount(), getEvictionCount());
+    }
+
+    private static int floorLog2(int n) {
+        return 31 - Integer.numberOfLeadingZeros(n);
+    }
+
+    private static int ceilLog2(int n) {
+        return n == 1 ? 0 : 32 - Integer.numberOfLeadingZeros(n - 1);
+    }
+}
@@ -0,0 +1,218 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.Platform;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the HTTP/1.1 connections of a {@link PooledHttpStack}, grouped by route
+ * (scheme, host and port).
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 响应体读取完成的连接放回连接池，相同route的下一个请求直接复用，不需要重新建立TCP连接和TLS握手。
+ * 2. 每个route同时打开的连接数（使用中和空闲的合计）有上限，达到上限时等待其他请求归还连接。
+ * 3. 空闲超过指定时间的连接被关闭。
+ * 4. 记录新建和复用的连接数。
+ */
+class ConnectionPool {
+
+    private final int mMaxConnectionsPerRoute;
+    private final long mIdleTimeoutMs;
+
+    /** route与该route的连接，由this保护 */
+    private final Map<String, Route> mRoutes = new HashMap<String, Route>();
+
+    private long mCreatedCount;
+    private long mReusedCount;
+
+    ConnectionPool(int maxConnectionsPerRoute, long idleTimeoutMs) {
+        mMaxConnectionsPerRoute = maxConnectionsPerRoute;
+        mIdleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * 取出route上最近使用的空闲连接。没有空闲连接时，占用一个名额并返回null，由调用者建立新连接，
+     * 建立失败时调用{@link #releaseSlot(String)}归还名额。
+     *
+     * @param timeoutMs 达到连接数上限时，等待的最长时间
+     * @throws SocketTimeoutException 等待超时
+     */
+    Connection acquire(String route, long timeoutMs) throws IOException {
+        List<Connection> expired = new ArrayList<Connection>();
+        try {
+            synchronized (this) {
+                long deadline = Platform.elapsedRealtime() + timeoutMs;
+                while (true) {
+                    long now = Platform.elapsedRealtime();
+                    evictIdle(now, expired);
+                    Route r = mRoutes.get(route);
+                    if (r == null) {
+                        r = new Route();
+                        mRoutes.put(route, r);
+                    }
+                    Connection connection = r.idle.pollLast();
+                    if (connection != null) {
+                        mReusedCount++;
+                        return connection;
+                    }
+                    if (r.open < mMaxConnectionsPerRoute) {
+                        r.open++;
+                        mCreatedCount++;
+                        return null;
+                    }
+                    long remaining = deadline - now;
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException("No connection available for " + route);
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+        } finally {
+            closeAll(expired);
+        }
+    }
+
+    /**
+     * 请求结束，归还连接。
+     *
+     * @param reusable 响应体已经完整读取，且服务器没有要求关闭连接
+     */
+    void release(Connection connection, boolean reusable) {
+        List<Connection> expired = new ArrayList<Connection>();
+        synchronized (this) {
+            Route r = mRoutes.get(connection.route);
+            if (reusable && mIdleTimeoutMs > 0 && !connection.socket.isClosed()) {
+                connection.idleSince = Platform.elapsedRealtime();
+                r.idle.addLast(connection);
+            } else {
+                r.open--;
+                expired.add(connection);
+            }
+            evictIdle(Platform.elapsedRealtime(), expired);
+            notifyAll();
+        }
+        closeAll(expired);
+    }
+
+    /**
+     * 建立新连接失败，归还{@link #acquire(String, long)}占用的名额
+     */
+    synchronized void releaseSlot(String route) {
+        Route r = mRoutes.get(route);
+        r.open--;
+        notifyAll();
+    }
+
+    /**
+     * 关闭全部空闲的连接
+     */
+    void evictAll() {
+        List<Connection> expired = new ArrayList<Connection>();
+        synchronized (this) {
+            for (Route r : mRoutes.values()) {
+                r.open -= r.idle.size();
+                expired.addAll(r.idle);
+                r.idle.clear();
+            }
+            notifyAll();
+        }
+        closeAll(expired);
+    }
+
+    synchronized long getCreatedCount() {
+        return mCreatedCount;
+    }
+
+    synchronized long getReusedCount() {
+        return mReusedCount;
+    }
+
+    synchronized int getIdleCount() {
+        int count = 0;
+        for (Route r : mRoutes.values()) {
+            count += r.idle.size();
+        }
+        return count;
+    }
+
+    /**
+     * 移除空闲超时的连接，需要在持有锁时调用，连接在释放锁后关闭
+     */
+    private void evictIdle(long now, List<Connection> expired) {
+        Iterator<Route> routes = mRoutes.values().iterator();
+        while (routes.hasNext()) {
+            Route r = routes.next();
+            //空闲的连接按放回的先后排列
+            Connection oldest;
+            while ((oldest = r.idle.peekFirst()) != null && now - oldest.idleSince >= mIdleTimeoutMs) {
+                r.idle.pollFirst();
+                r.open--;
+                expired.add(oldest);
+            }
+            if (r.open == 0) {
+                routes.remove();
+            }
+        }
+    }
+
+    private static void closeAll(List<Connection> connections) {
+        for (Connection connection : connections) {
+            connection.closeQuietly();
+        }
+    }
+
+    /**
+     * 一个route的连接
+     */
+    private static class Route {
+        /** 空闲的连接，最近放回的在队尾 */
+        final ArrayDeque<Connection> idle = new ArrayDeque<Connection>();
+        /** 打开的连接数，包括使用中和空闲的 */
+        int open;
+    }
+
+    /**
+     * 一个HTTP/1.1连接，同一时间只执行一个请求
+     */
+    static class Connection {
+        final String route;
+        final Socket socket;
+        final BufferedInputStream in;
+        final BufferedOutputStream out;
+        /** 放回连接池的时间 */
+        long idleSince;
+        /** 已经在该连接上执行的请求数 */
+        int requestCount;
+
+        Connection(String route, Socket socket) throws IOException {
+            this.route = route;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void closeQuietly() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //忽略
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.Request;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content negotiation for compressed responses: the Accept-Encoding sent with requests and the
+ * decoders for the Content-Encoding of responses.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. HttpStack发送请求时添加Accept-Encoding，默认支持gzip和deflate。
+ * 2. 读取响应时边读取边解压，解压后的数据写入缓存，缓存的header中不再包含Content-Encoding。
+ * 3. 可以通过{@link #register(String, Decoder)}添加其他编码，例如使用brotli库注册"br"。
+ * <p>
+ * 下载、上传请求（{@link Request#isBulkTransfer()}）不添加Accept-Encoding，断点续传的Range按原始字节计算。
+ */
+public final class ContentEncoding {
+
+    public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    /**
+     * Wraps a response body stream with one that decodes a content encoding.
+     */
+    public interface Decoder {
+        /**
+         * @param in 编码后的响应数据
+         * @return 解码后的数据，关闭时需要关闭in
+         */
+        InputStream decode(InputStream in) throws IOException;
+    }
+
+    /** 支持的编码，按Accept-Encoding中的顺序，由类锁保护 */
+    private static final Map<String, Decoder> sDecoders = new LinkedHashMap<String, Decoder>();
+    private static volatile String sAcceptEncoding;
+
+    static {
+        sDecoders.put("gzip", new Decoder() {
+            @Override
+            public InputStream decode(InputStream in) throws IOException {
+                return new GZIPInputStream(in, 4096);
+            }
+        });
+        sDecoders.put("deflate", new Decoder() {
+            @Override
+            public InputStream decode(InputStream in) throws IOException {
+                return decodeDeflate(in);
+            }
+        });
+        sAcceptEncoding = buildAcceptEncoding();
+    }
+
+    private ContentEncoding() {
+    }
+
+    /**
+     * Adds a content encoding to the Accept-Encoding of all following requests, replacing the
+     * decoder of an encoding with the same name.
+     *
+     * @param encoding 编码名称，例如"br"
+     */
+    public static synchronized void register(String encoding, Decoder decoder) {
+        sDecoders.put(encoding.toLowerCase(Locale.US), decoder);
+        sAcceptEncoding = buildAcceptEncoding();
+    }
+
+    /**
+     * 返回发送的Accept-Encoding，例如"gzip, deflate"
+     */
+    public static String getAcceptEncoding() {
+        return sAcceptEncoding;
+    }
+
+    private static String buildAcceptEncoding() {
+        StringBuilder builder = new StringBuilder();
+        for (String encoding : sDecoders.keySet()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(encoding);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 请求没有设置Accept-Encoding时，添加支持的编码。下载、上传请求不添加。
+     */
+    static void addAcceptEncoding(Request<?> request, Map<String, String> headers) {
+        if (request.isBulkTransfer()) {
+            return;
+        }
+        for (String name : headers.keySet()) {
+            if (name.equalsIgnoreCase(HEADER_ACCEPT_ENCODING)) {
+                return;
+            }
+        }
+        headers.put(HEADER_ACCEPT_ENCODING, sAcceptEncoding);
+    }
+
+    /**
+     * Returns a stream that decodes the given Content-Encoding of {@code in}.
+     *
+     * @param contentEncoding 响应的Content-Encoding，为null或者identity时直接返回in
+     * @return 解码后的数据，响应体为空时不解码，直接返回空的流
+     * @throws IOException 不支持的编码
+     */
+    public static InputStream decode(String contentEncoding, InputStream in) throws IOException {
+        if (!isEncoded(contentEncoding)) {
+            return in;
+        }
+        //HEAD、204或者Content-Length为0的响应没有数据，GZIPInputStream读取头部时会抛出EOFException
+        PushbackInputStream pushback = new PushbackInputStream(in, 1);
+        int first = pushback.read();
+        if (first == -1) {
+            return pushback;
+        }
+        pushback.unread(first);
+        in = pushback;
+        //多个编码按使用的顺序排列，解码时倒序
+        String[] encodings = contentEncoding.split(",");
+        for (int i = encodings.length - 1; i >= 0; i--) {
+            String encoding = encodings[i].trim().toLowerCase(Locale.US);
+            if (encoding.length() == 0 || encoding.equals("identity")) {
+                continue;
+            }
+            Decoder decoder;
+            synchronized (ContentEncoding.class) {
+                //x-gzip为旧的写法
+                decoder = sDecoders.get(encoding.equals("x-gzip") ? "gzip" : encoding);
+            }
+            if (decoder == null) {
+                throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+            }
+            in = decoder.decode(in);
+        }
+        return in;
+    }
+
+    /**
+     * 是否需要解码
+     */
+    public static boolean isEncoded(String contentEncoding) {
+        return contentEncoding != null && contentEncoding.trim().length() > 0
+                && !contentEncoding.trim().equalsIgnoreCase("identity");
+    }
+
+    /**
+     * 解码后的数据与Content-Encoding、Content-Length不再对应，从header中移除
+     */
+    static void removeEncodingHeaders(Map<String, String> headers) {
+        Iterator<String> names = headers.keySet().iterator();
+        while (names.hasNext()) {
+            String name = names.next();
+            if (name.equalsIgnoreCase(HEADER_CONTENT_ENCODING) || name.equalsIgnoreCase("Content-Length")) {
+                names.remove();
+            }
+        }
+    }
+
+    /**
+     * deflate应为zlib格式，部分服务器发送不带zlib头的原始deflate数据，根据前两个字节区分
+     */
+    private static InputStream decodeDeflate(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] header = new byte[2];
+        int count = 0;
+        while (count < 2) {
+            int read = pushback.read(header, count, 2 - count);
+            if (read == -1) {
+                break;
+            }
+            count += read;
+        }
+        pushback.unread(header, 0, count);
+        boolean zlib = count == 2 && (header[0] & 0x0f) == 8
+                && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+        return new InflaterInputStream(pushback, new Inflater(!zlib), 4096) {
+            private boolean mClosed = false;
+
+            @Override
+            public void close() throws IOException {
+                //使用自定义的Inflater时，InflaterInputStream不会释放它
+                if (!mClosed) {
+                    mClosed = true;
+                    inf.end();
+                }
+                super.close();
+            }
+        };
+    }
+}
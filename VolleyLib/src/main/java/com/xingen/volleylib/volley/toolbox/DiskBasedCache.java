@@ -16,11 +16,12 @@
 
 package com.xingen.volleylib.volley.toolbox;
 
-import android.os.SystemClock;
-
 import com.xingen.volleylib.volley.Cache;
+import com.xingen.volleylib.volley.Platform;
 import com.xingen.volleylib.volley.VolleyLog;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -29,24 +30,74 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Cache implementation that caches files directly onto the hard disk in the specified
  * directory. The default disk usage size is 5MB, but is configurable.
+ * <p>
+ * The cache is safe for concurrent use without a global lock: the index is a
+ * {@link ConcurrentHashMap}, and file I/O for a key is guarded by one of a fixed set of
+ * striped read/write locks, so reads and writes for different keys proceed in parallel.
+ * <p>
+ * 并发说明：
+ * <p>
+ * 1. 索引使用ConcurrentHashMap，总大小使用AtomicLong计数，不需要全局锁。
+ * 2. 按文件名分段加读写锁，同一个key的读取可以并行，写入、删除互斥；不同key的读写互不阻塞。
+ * 3. 每次访问记录一个递增的访问序号，超出容量时只有一个线程按序号淘汰最久未使用的缓存。
+ * <p>
+ * 索引日志：
+ * <p>
+ * 写入、删除缓存时追加记录到{@link CacheJournal}，初始化时重放日志即可重建索引，不需要打开每个缓存文件。
+ * 索引中不保存响应头，在{@link #get(String)}时从缓存文件中读取。
+ * <p>
+ * 读取：
+ * <p>
+ * 不小于{@link #MMAP_THRESHOLD_BYTES}的缓存通过内存映射读取，从映射的缓冲区中解析头部，
+ * 数据以只读缓冲区{@link Entry#buffer}返回，不复制到堆中。写入时先写临时文件再重命名，
+ * 不会截断仍在被映射的旧文件。
  */
 public class DiskBasedCache implements Cache {
 
     /** Map of the Key, CacheHeader pairs */
-    private final Map<String, CacheHeader> mEntries =
-            new LinkedHashMap<String, CacheHeader>(16, .75f, true);
+    private final ConcurrentHashMap<String, CacheHeader> mEntries =
+            new ConcurrentHashMap<String, CacheHeader>(16, .75f, 4);
 
     /** Total amount of space currently used by the cache in bytes. */
-    private long mTotalSize = 0;
+    private final AtomicLong mTotalSize = new AtomicLong();
+
+    /** 访问序号，用于计算最近最少使用的缓存 */
+    private final AtomicLong mAccessClock = new AtomicLong();
+
+    /** 是否有线程正在淘汰缓存 */
+    private final AtomicBoolean mPruning = new AtomicBoolean();
+
+    /** 按文件名分段的读写锁 */
+    private final ReentrantReadWriteLock[] mLocks;
+
+    /** 索引日志 */
+    private final CacheJournal mJournal;
 
     /** The root directory to use for the cache. */
     private final File mRootDirectory;
@@ -63,6 +114,15 @@ public class DiskBasedCache implements Cache {
     /** Magic number for current version of cache file format. */
     private static final int CACHE_MAGIC = 0x20120504;
 
+    /** Entries at least this large are read by memory mapping the file. */
+    private static final int MMAP_THRESHOLD_BYTES = 64 * 1024;
+
+    /** 写入缓存时使用的临时文件后缀 */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /** Number of lock stripes, must be a power of two. */
+    private static final int LOCK_STRIPES = 32;
+
     /**
      * Constructs an instance of the DiskBasedCache at the specified directory.
      * @param rootDirectory The root directory of the cache.
@@ -71,6 +131,11 @@ public class DiskBasedCache implements Cache {
     public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes) {
         mRootDirectory = rootDirectory;
         mMaxCacheSizeInBytes = maxCacheSizeInBytes;
+        mLocks = new ReentrantReadWriteLock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            mLocks[i] = new ReentrantReadWriteLock();
+        }
+        mJournal = new CacheJournal(rootDirectory);
     }
 
     /**
@@ -86,15 +151,22 @@ public class DiskBasedCache implements Cache {
      * Clears the cache. Deletes all cached files from disk.
      */
     @Override
-    public synchronized void clear() {
-        File[] files = mRootDirectory.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                file.delete();
+    public void clear() {
+        lockAll();
+        try {
+            mJournal.delete();
+            File[] files = mRootDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
             }
+            mEntries.clear();
+            mTotalSize.set(0);
+            mJournal.rewrite(mEntries.values());
+        } finally {
+            unlockAll();
         }
-        mEntries.clear();
-        mTotalSize = 0;
         VolleyLog.d("Cache cleared.");
     }
 
@@ -102,33 +174,28 @@ public class DiskBasedCache implements Cache {
      * Returns the cache entry with the specified key if it exists, null otherwise.
      */
     @Override
-    public synchronized Entry get(String key) {
-        CacheHeader entry = mEntries.get(key);
-        // if the entry does not exist, return.
-        if (entry == null) {
-            return null;
-        }
-
-        File file = getFileForKey(key);
-        CountingInputStream cis = null;
+    public Entry get(String key) {
+        CacheHeader entry;
+        Lock lock = lockFor(getFilenameForKey(key)).readLock();
+        lock.lock();
         try {
-            cis = new CountingInputStream(new FileInputStream(file));
-            CacheHeader.readHeader(cis); // eat header
-            byte[] data = streamToBytes(cis, (int) (file.length() - cis.bytesRead));
-            return entry.toCacheEntry(data);
-        } catch (IOException e) {
-            VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
-            remove(key);
-            return null;
-        } finally {
-            if (cis != null) {
-                try {
-                    cis.close();
-                } catch (IOException ioe) {
-                    return null;
-                }
+            entry = mEntries.get(key);
+            // if the entry does not exist, return.
+            if (entry == null) {
+                return null;
+            }
+            entry.lastAccess = mAccessClock.incrementAndGet();
+            try {
+                return readEntry(key, entry);
+            } catch (IOException e) {
+                VolleyLog.d("%s: %s", getFileForKey(key).getAbsolutePath(), e.toString());
             }
+        } finally {
+            lock.unlock();
         }
+        //读锁不能升级为写锁，释放后再删除损坏的缓存
+        removeIfSame(key, entry);
+        return null;
     }
 
     /**
@@ -140,29 +207,104 @@ public class DiskBasedCache implements Cache {
      * 若是需要，将创建这个目录
      */
     @Override
-    public synchronized void initialize() {
-        if (!mRootDirectory.exists()) {
-            if (!mRootDirectory.mkdirs()) {
-                VolleyLog.e("Unable to create cache dir %s", mRootDirectory.getAbsolutePath());
+    public void initialize() {
+        //初始化期间阻止其他线程读写，日志重放很快，不会长时间阻塞
+        lockAll();
+        try {
+            if (!mRootDirectory.exists()) {
+                if (!mRootDirectory.mkdirs()) {
+                    VolleyLog.e("Unable to create cache dir %s", mRootDirectory.getAbsolutePath());
+                    return;
+                }
+                mJournal.rewrite(mEntries.values());
+                return;
             }
-            return;
+
+            String[] names = mRootDirectory.list();
+            if (names == null) {
+                return;
+            }
+            Map<String, CacheHeader> replayed = mJournal.replay();
+            boolean rewrite;
+            if (replayed != null) {
+                rewrite = restoreFromJournal(replayed, names);
+            } else {
+                VolleyLog.d("Cache journal missing, scanning %d files", names.length);
+                scanFiles(names);
+                rewrite = true;
+            }
+            if (rewrite || mJournal.needsRewrite(mEntries.size())) {
+                mJournal.rewrite(mEntries.values());
+            } else {
+                mJournal.openForAppend();
+            }
+        } finally {
+            unlockAll();
         }
+    }
 
-        File[] files = mRootDirectory.listFiles();
-        if (files == null) {
-            return;
+    /**
+     * 根据日志重建索引，删除日志中没有记录的缓存文件。
+     *
+     * @return 日志与缓存文件不一致时返回true，需要重写日志
+     */
+    private boolean restoreFromJournal(Map<String, CacheHeader> replayed, String[] names) {
+        Set<String> existing = new HashSet<String>(Arrays.asList(names));
+        boolean inconsistent = false;
+        for (CacheHeader entry : replayed.values()) {
+            if (!existing.contains(getFilenameForKey(entry.key))) {
+                //缓存文件已被删除
+                inconsistent = true;
+                continue;
+            }
+            //初始化之前已经写入的缓存更新，不需要覆盖
+            if (mEntries.putIfAbsent(entry.key, entry) == null) {
+                entry.lastAccess = mAccessClock.incrementAndGet();
+                mTotalSize.addAndGet(entry.size);
+            } else {
+                inconsistent = true;
+            }
         }
-        for (File file : files) {
-            FileInputStream fis = null;
+        Set<String> referenced = new HashSet<String>();
+        for (String key : mEntries.keySet()) {
+            referenced.add(getFilenameForKey(key));
+        }
+        for (String name : names) {
+            if (!CacheJournal.isJournalFile(name) && !referenced.contains(name)) {
+                //写入缓存文件后未来得及记录日志
+                new File(mRootDirectory, name).delete();
+                inconsistent = true;
+            }
+        }
+        return inconsistent;
+    }
+
+    /**
+     * 没有可用的日志时，打开全部缓存文件读取头部来重建索引。
+     */
+    private void scanFiles(String[] names) {
+        for (String name : names) {
+            if (CacheJournal.isJournalFile(name)) {
+                continue;
+            }
+            File file = new File(mRootDirectory, name);
+            if (name.endsWith(TMP_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            InputStream fis = null;
             try {
-                fis = new FileInputStream(file);
+                fis = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)), file.length());
                 CacheHeader entry = CacheHeader.readHeader(fis);
                 entry.size = file.length();
-                putEntry(entry.key, entry);
-            } catch (IOException e) {
-                if (file != null) {
-                   file.delete();
+                //索引中不保存响应头
+                entry.responseHeaders = null;
+                if (mEntries.putIfAbsent(entry.key, entry) == null) {
+                    entry.lastAccess = mAccessClock.incrementAndGet();
+                    mTotalSize.addAndGet(entry.size);
                 }
+            } catch (IOException e) {
+                file.delete();
             } finally {
                 try {
                     if (fis != null) {
@@ -179,54 +321,210 @@ public class DiskBasedCache implements Cache {
      * @param fullExpire True to fully expire the entry, false to soft expire
      */
     @Override
-    public synchronized void invalidate(String key, boolean fullExpire) {
-        Entry entry = get(key);
-        if (entry != null) {
+    public void invalidate(String key, boolean fullExpire) {
+        Lock lock = lockFor(getFilenameForKey(key)).writeLock();
+        lock.lock();
+        try {
+            CacheHeader header = mEntries.get(key);
+            if (header == null) {
+                return;
+            }
+            Entry entry;
+            try {
+                entry = readEntry(key, header);
+            } catch (IOException e) {
+                VolleyLog.d("%s: %s", getFileForKey(key).getAbsolutePath(), e.toString());
+                deleteEntry(key);
+                return;
+            }
             entry.softTtl = 0;
             if (fullExpire) {
                 entry.ttl = 0;
             }
-            put(key, entry);
+            writeEntry(key, entry);
+        } finally {
+            lock.unlock();
         }
-
     }
 
     /**
      * Puts the entry with the specified key into the cache.
      */
     @Override
-    public synchronized void put(String key, Entry entry) {
-        pruneIfNeeded(entry.data.length);
+    public void put(String key, Entry entry) {
+        //淘汰过程中会获取其他key的锁，需在持有当前key的锁之前执行
+        pruneIfNeeded(entry.getDataLength());
+        Lock lock = lockFor(getFilenameForKey(key)).writeLock();
+        lock.lock();
+        try {
+            writeEntry(key, entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the specified key from the cache if it exists.
+     */
+    @Override
+    public void remove(String key) {
+        Lock lock = lockFor(getFilenameForKey(key)).writeLock();
+        lock.lock();
+        try {
+            deleteEntry(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the entry only if it is still the one that was read, so that a concurrent
+     * {@link #put(String, Entry)} is not thrown away.
+     */
+    private void removeIfSame(String key, CacheHeader expected) {
+        Lock lock = lockFor(getFilenameForKey(key)).writeLock();
+        lock.lock();
+        try {
+            if (mEntries.get(key) == expected) {
+                deleteEntry(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the entry from disk. The caller must hold the lock for the key.
+     * The response headers are not kept in the index and are read from the file here.
+     */
+    private Entry readEntry(String key, CacheHeader entry) throws IOException {
         File file = getFileForKey(key);
+        if (file.length() >= MMAP_THRESHOLD_BYTES) {
+            return readMappedEntry(key, file);
+        }
+        CountingInputStream cis = null;
         try {
-            FileOutputStream fos = new FileOutputStream(file);
+            cis = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)), file.length());
+            CacheHeader header = CacheHeader.readHeader(cis);
+            if (!key.equals(header.key)) {
+                //文件名相同的另一个key
+                throw new IOException("Cache file belongs to key " + header.key);
+            }
+            byte[] data = streamToBytes(cis, (int) (file.length() - cis.bytesRead));
+            return header.toCacheEntry(data);
+        } finally {
+            if (cis != null) {
+                try {
+                    cis.close();
+                } catch (IOException ignored) { }
+            }
+        }
+    }
+
+    /**
+     * Maps the file and parses the header from the mapped buffer. The body is returned as a
+     * read-only slice of the mapping, which stays valid after the file is closed or deleted.
+     */
+    private Entry readMappedEntry(String key, File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            CacheHeader header = CacheHeader.readHeader(mapped);
+            if (!key.equals(header.key)) {
+                //文件名相同的另一个key
+                throw new IOException("Cache file belongs to key " + header.key);
+            }
+            Entry e = header.toCacheEntry(null);
+            e.buffer = mapped.slice().asReadOnlyBuffer();
+            return e;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes the entry to disk. The caller must hold the write lock for the key.
+     * 先写入临时文件再重命名，读取中的映射仍然指向旧文件。
+     */
+    private void writeEntry(String key, Entry entry) {
+        File file = getFileForKey(key);
+        File tmp = new File(mRootDirectory, file.getName() + TMP_SUFFIX);
+        try {
+            OutputStream fos = new BufferedOutputStream(new FileOutputStream(tmp));
             CacheHeader e = new CacheHeader(key, entry);
-            e.writeHeader(fos);
-            fos.write(entry.data);
-            fos.close();
+            try {
+                e.writeHeader(fos);
+                if (entry.data != null) {
+                    fos.write(entry.data);
+                } else {
+                    WritableByteChannel channel = Channels.newChannel(fos);
+                    ByteBuffer buffer = entry.buffer.duplicate();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+            } finally {
+                fos.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Could not rename " + tmp.getAbsolutePath());
+            }
+            //索引中不保存响应头
+            e.responseHeaders = null;
             putEntry(key, e);
+            mJournal.appendPut(e);
+            mJournal.compactIfNeeded(mEntries.values(), mEntries.size());
             return;
         } catch (IOException e) {
         }
+        tmp.delete();
         boolean deleted = file.delete();
+        if (removeEntry(key)) {
+            mJournal.appendRemove(key);
+        }
         if (!deleted) {
             VolleyLog.d("Could not clean up file %s", file.getAbsolutePath());
         }
     }
 
     /**
-     * Removes the specified key from the cache if it exists.
+     * Deletes the file and the index entry. The caller must hold the write lock for the key.
      */
-    @Override
-    public synchronized void remove(String key) {
+    private void deleteEntry(String key) {
         boolean deleted = getFileForKey(key).delete();
-        removeEntry(key);
+        if (removeEntry(key)) {
+            mJournal.appendRemove(key);
+        }
         if (!deleted) {
             VolleyLog.d("Could not delete cache entry for key=%s, filename=%s",
                     key, getFilenameForKey(key));
         }
     }
 
+    /**
+     * 按顺序获取全部的写锁，避免与其他线程的读写交叉
+     */
+    private void lockAll() {
+        for (ReentrantReadWriteLock lock : mLocks) {
+            lock.writeLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = mLocks.length - 1; i >= 0; i--) {
+            mLocks[i].writeLock().unlock();
+        }
+    }
+
+    /**
+     * 根据文件名获取分段锁，key不同但文件名相同时使用同一个锁。
+     */
+    private ReentrantReadWriteLock lockFor(String filename) {
+        int h = filename.hashCode();
+        h ^= (h >>> 16);
+        return mLocks[h & (LOCK_STRIPES - 1)];
+    }
+
     /**
      * Creates a pseudo-unique filename for the specified cache key.
      * @param key The key to generate a file name for.
@@ -248,69 +546,90 @@ public class DiskBasedCache implements Cache {
 
     /**
      * Prunes the cache to fit the amount of bytes specified.
+     * <p>
+     * 只允许一个线程执行淘汰，其他线程直接返回，容量可能短暂超出上限。
+     * 淘汰时按访问序号从旧到新，逐个获取对应key的写锁后删除。
+     *
      * @param neededSpace The amount of bytes we are trying to fit into the cache.
      */
     private void pruneIfNeeded(int neededSpace) {
-        if ((mTotalSize + neededSpace) < mMaxCacheSizeInBytes) {
+        if ((mTotalSize.get() + neededSpace) < mMaxCacheSizeInBytes) {
             return;
         }
-        if (VolleyLog.DEBUG) {
-            VolleyLog.v("Pruning old cache entries.");
+        if (!mPruning.compareAndSet(false, true)) {
+            return;
         }
+        try {
+            if (VolleyLog.DEBUG) {
+                VolleyLog.v("Pruning old cache entries.");
+            }
 
-        long before = mTotalSize;
-        int prunedFiles = 0;
-        long startTime = SystemClock.elapsedRealtime();
+            long before = mTotalSize.get();
+            int prunedFiles = 0;
+            long startTime = Platform.elapsedRealtime();
 
-        Iterator<Map.Entry<String, CacheHeader>> iterator = mEntries.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, CacheHeader> entry = iterator.next();
-            CacheHeader e = entry.getValue();
-            boolean deleted = getFileForKey(e.key).delete();
-            if (deleted) {
-                mTotalSize -= e.size;
-            } else {
-               VolleyLog.d("Could not delete cache entry for key=%s, filename=%s",
-                       e.key, getFilenameForKey(e.key));
+            List<CacheHeader> candidates = new ArrayList<CacheHeader>(mEntries.values());
+            Collections.sort(candidates, LEAST_RECENTLY_USED);
+            for (CacheHeader e : candidates) {
+                Lock lock = lockFor(getFilenameForKey(e.key)).writeLock();
+                lock.lock();
+                try {
+                    //已被其他线程更新或删除
+                    if (mEntries.get(e.key) != e) {
+                        continue;
+                    }
+                    deleteEntry(e.key);
+                } finally {
+                    lock.unlock();
+                }
+                prunedFiles++;
+
+                if ((mTotalSize.get() + neededSpace) < mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
+                    break;
+                }
             }
-            iterator.remove();
-            prunedFiles++;
 
-            if ((mTotalSize + neededSpace) < mMaxCacheSizeInBytes * HYSTERESIS_FACTOR) {
-                break;
+            if (VolleyLog.DEBUG) {
+                VolleyLog.v("pruned %d files, %d bytes, %d ms",
+                        prunedFiles, (mTotalSize.get() - before), Platform.elapsedRealtime() - startTime);
             }
+        } finally {
+            mPruning.set(false);
         }
+    }
 
-        if (VolleyLog.DEBUG) {
-            VolleyLog.v("pruned %d files, %d bytes, %d ms",
-                    prunedFiles, (mTotalSize - before), SystemClock.elapsedRealtime() - startTime);
+    /** 按访问序号排序，最久未使用的在前 */
+    private static final Comparator<CacheHeader> LEAST_RECENTLY_USED = new Comparator<CacheHeader>() {
+        @Override
+        public int compare(CacheHeader lhs, CacheHeader rhs) {
+            return lhs.lastAccess < rhs.lastAccess ? -1 : (lhs.lastAccess == rhs.lastAccess ? 0 : 1);
         }
-    }
+    };
 
     /**
      * Puts the entry with the specified key into the cache.
+     * The caller must hold the write lock for the key.
      * @param key The key to identify the entry by.
      * @param entry The entry to cache.
      */
     private void putEntry(String key, CacheHeader entry) {
-        if (!mEntries.containsKey(key)) {
-            mTotalSize += entry.size;
-        } else {
-            CacheHeader oldEntry = mEntries.get(key);
-            mTotalSize += (entry.size - oldEntry.size);
-        }
-        mEntries.put(key, entry);
+        entry.lastAccess = mAccessClock.incrementAndGet();
+        CacheHeader oldEntry = mEntries.put(key, entry);
+        mTotalSize.addAndGet(oldEntry == null ? entry.size : entry.size - oldEntry.size);
     }
 
     /**
      * Removes the entry identified by 'key' from the cache.
+     * The caller must hold the write lock for the key.
+     * @return true if the entry was in the index.
      */
-    private void removeEntry(String key) {
-        CacheHeader entry = mEntries.get(key);
+    private boolean removeEntry(String key) {
+        CacheHeader entry = mEntries.remove(key);
         if (entry != null) {
-            mTotalSize -= entry.size;
-            mEntries.remove(key);
+            mTotalSize.addAndGet(-entry.size);
+            return true;
         }
+        return false;
     }
 
     /**
@@ -353,9 +672,13 @@ public class DiskBasedCache implements Cache {
         /** Soft TTL for this record. */
         public long softTtl;
 
-        /** Headers from the response resulting in this cache entry. */
+        /** Headers from the response resulting in this cache entry.
+         * Null for the headers kept in the index, they are read lazily from the file. */
         public Map<String, String> responseHeaders;
 
+        /** 最近一次访问的序号，用于淘汰（不写入磁盘） */
+        volatile long lastAccess;
+
         private CacheHeader() { }
 
         /**
@@ -365,7 +688,7 @@ public class DiskBasedCache implements Cache {
          */
         public CacheHeader(String key, Entry entry) {
             this.key = key;
-            this.size = entry.data.length;
+            this.size = entry.getDataLength();
             this.etag = entry.etag;
             this.serverDate = entry.serverDate;
             this.ttl = entry.ttl;
@@ -397,6 +720,66 @@ public class DiskBasedCache implements Cache {
             return entry;
         }
 
+        /**
+         * Reads the header off of a ByteBuffer, leaving the buffer positioned at the start of
+         * the data.
+         * @param buffer The buffer to read from, e.g. a memory mapped cache file.
+         * @throws IOException
+         */
+        public static CacheHeader readHeader(ByteBuffer buffer) throws IOException {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                CacheHeader entry = new CacheHeader();
+                int magic = buffer.getInt();
+                if (magic != CACHE_MAGIC) {
+                    // don't bother deleting, it'll get pruned eventually
+                    throw new IOException();
+                }
+                entry.key = readString(buffer);
+                entry.etag = readString(buffer);
+                if (entry.etag.equals("")) {
+                    entry.etag = null;
+                }
+                entry.serverDate = buffer.getLong();
+                entry.ttl = buffer.getLong();
+                entry.softTtl = buffer.getLong();
+                entry.responseHeaders = readStringStringMap(buffer);
+                return entry;
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+        }
+
+        /**
+         * Reads a journal record written by {@link #writeIndexRecord(OutputStream)}. The
+         * returned header has no response headers.
+         */
+        static CacheHeader readIndexRecord(InputStream is) throws IOException {
+            CacheHeader entry = new CacheHeader();
+            entry.key = readString(is);
+            entry.size = readLong(is);
+            entry.etag = readString(is);
+            if (entry.etag.equals("")) {
+                entry.etag = null;
+            }
+            entry.serverDate = readLong(is);
+            entry.ttl = readLong(is);
+            entry.softTtl = readLong(is);
+            return entry;
+        }
+
+        /**
+         * Writes the fields kept in the index, without the response headers, as a journal record.
+         */
+        void writeIndexRecord(OutputStream os) throws IOException {
+            writeString(os, key);
+            writeLong(os, size);
+            writeString(os, etag == null ? "" : etag);
+            writeLong(os, serverDate);
+            writeLong(os, ttl);
+            writeLong(os, softTtl);
+        }
+
         /**
          * Creates a cache entry for the specified data.
          */
@@ -434,11 +817,23 @@ public class DiskBasedCache implements Cache {
 
     }
 
-    private static class CountingInputStream extends FilterInputStream {
+    /**
+     * 记录已读取的字节数，读取字符串时用剩余字节数校验长度
+     */
+    static class CountingInputStream extends FilterInputStream {
+        private final long length;
         private int bytesRead = 0;
 
-        private CountingInputStream(InputStream in) {
+        /**
+         * @param length 流的总字节数，例如文件长度
+         */
+        CountingInputStream(InputStream in, long length) {
             super(in);
+            this.length = length;
+        }
+
+        long bytesRemaining() {
+            return length - bytesRead;
         }
 
         @Override
@@ -526,8 +921,24 @@ public class DiskBasedCache implements Cache {
     }
 
     static String readString(InputStream is) throws IOException {
-        int n = (int) readLong(is);
-        byte[] b = streamToBytes(is, n);
+        long n = readLong(is);
+        //长度损坏时避免分配负数或者超大的数组
+        long remaining = (is instanceof CountingInputStream)
+                ? ((CountingInputStream) is).bytesRemaining() : Integer.MAX_VALUE;
+        if (n < 0 || n > remaining) {
+            throw new IOException("Invalid string length " + n);
+        }
+        byte[] b = streamToBytes(is, (int) n);
+        return new String(b, "UTF-8");
+    }
+
+    static String readString(ByteBuffer buffer) throws IOException {
+        long n = buffer.getLong();
+        if (n < 0 || n > buffer.remaining()) {
+            throw new IOException("Invalid string length " + n);
+        }
+        byte[] b = new byte[(int) n];
+        buffer.get(b);
         return new String(b, "UTF-8");
     }
 
@@ -545,6 +956,9 @@ public class DiskBasedCache implements Cache {
 
     static Map<String, String> readStringStringMap(InputStream is) throws IOException {
         int size = readInt(is);
+        if (size < 0) {
+            throw new IOException("Invalid header count " + size);
+        }
         Map<String, String> result = (size == 0)
                 ? Collections.<String, String>emptyMap()
                 : new HashMap<String, String>(size);
@@ -556,5 +970,19 @@ public class DiskBasedCache implements Cache {
         return result;
     }
 
-
+    static Map<String, String> readStringStringMap(ByteBuffer buffer) throws IOException {
+        int size = buffer.getInt();
+        if (size < 0) {
+            throw new IOException("Invalid header count " + size);
+        }
+        Map<String, String> result = (size == 0)
+                ? Collections.<String, String>emptyMap()
+                : new HashMap<String, String>(size);
+        for (int i = 0; i < size; i++) {
+            String key = readString(buffer).intern();
+            String value = readString(buffer).intern();
+            result.put(key, value);
+        }
+        return result;
+    }
 }
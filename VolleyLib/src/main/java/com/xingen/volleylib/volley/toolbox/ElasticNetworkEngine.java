@@ -0,0 +1,448 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.NetworkEngine;
+import com.xingen.volleylib.volley.NetworkProcessor;
+import com.xingen.volleylib.volley.Platform;
+import com.xingen.volleylib.volley.Request;
+import com.xingen.volleylib.volley.VolleyLog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link NetworkEngine} with separate lanes for bulk and interactive requests, each backed by
+ * an elastic thread pool, and a per-host limit on requests in flight.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. {@link Request#isBulkTransfer()}返回true的请求（下载、上传）在bulk通道中执行，其余在interactive通道中执行，
+ * 小请求不会排在大文件传输之后。
+ * 2. 每个通道有最大并发数，超出的请求在通道中排队。
+ * 3. 每个host同时执行的请求数有上限（两个通道合计），可以为单个host单独设置。
+ * 4. 排队的请求先按优先级选择，相同优先级的请求在不同host之间轮流选择，一个host的大量请求不会占满全部线程。
+ * 5. 线程随排队的请求创建，空闲一段时间后销毁，不常驻固定个数的线程。
+ * <p>
+ * 一个路由线程从网络队列中取出请求，分发到对应的通道，不执行网络操作。
+ */
+public class ElasticNetworkEngine implements NetworkEngine {
+
+    /** interactive通道默认的最大并发数 */
+    public static final int DEFAULT_INTERACTIVE_CONCURRENCY = 4;
+
+    /** bulk通道默认的最大并发数 */
+    public static final int DEFAULT_BULK_CONCURRENCY = 2;
+
+    /** 每个host默认的最大并发数 */
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+
+    /** 空闲线程的存活时间 */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final int mInteractiveConcurrency;
+    private final int mBulkConcurrency;
+    private final int mMaxRequestsPerHost;
+
+    /** 单独设置了最大并发数的host */
+    private final Map<String, Integer> mHostLimits = new HashMap<String, Integer>();
+
+    /** 每个host正在执行的请求数 */
+    private final Map<String, Integer> mHostsInFlight = new HashMap<String, Integer>();
+
+    private BlockingQueue<Request<?>> mQueue;
+    private Lane mInteractiveLane;
+    private Lane mBulkLane;
+    private Router mRouter;
+
+    public ElasticNetworkEngine() {
+        this(DEFAULT_INTERACTIVE_CONCURRENCY, DEFAULT_BULK_CONCURRENCY, DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * @param interactiveConcurrency the maximum number of interactive requests running at once
+     * @param bulkConcurrency        the maximum number of bulk requests running at once
+     */
+    public ElasticNetworkEngine(int interactiveConcurrency, int bulkConcurrency) {
+        this(interactiveConcurrency, bulkConcurrency, DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * @param interactiveConcurrency the maximum number of interactive requests running at once
+     * @param bulkConcurrency        the maximum number of bulk requests running at once
+     * @param maxRequestsPerHost     the maximum number of requests to one host running at once
+     */
+    public ElasticNetworkEngine(int interactiveConcurrency, int bulkConcurrency, int maxRequestsPerHost) {
+        if (interactiveConcurrency < 1 || bulkConcurrency < 1 || maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        mInteractiveConcurrency = interactiveConcurrency;
+        mBulkConcurrency = bulkConcurrency;
+        mMaxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * 单独设置一个host的最大并发数，例如较慢的上传服务器设置为1。
+     */
+    public synchronized ElasticNetworkEngine setMaxRequestsPerHost(String host, int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+        mHostLimits.put(host, maxRequests);
+        //上限变大时，排队的请求可以开始执行
+        if (mRouter != null) {
+            schedule(mInteractiveLane);
+            schedule(mBulkLane);
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized void start(BlockingQueue<Request<?>> networkQueue, NetworkProcessor processor) {
+        stop();
+        mQueue = networkQueue;
+        mInteractiveLane = new Lane("interactive", mInteractiveConcurrency, processor);
+        mBulkLane = new Lane("bulk", mBulkConcurrency, processor);
+        mRouter = new Router(networkQueue);
+        mRouter.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (mRouter == null) {
+            return;
+        }
+        mRouter.quit();
+        mRouter = null;
+        //未开始执行的请求放回网络队列中
+        mQueue.addAll(mInteractiveLane.shutdown());
+        mQueue.addAll(mBulkLane.shutdown());
+    }
+
+    /**
+     * 返回interactive通道中排队等待的请求个数
+     */
+    public synchronized int getInteractiveQueueDepth() {
+        return mInteractiveLane == null ? 0 : mInteractiveLane.mPendingCount;
+    }
+
+    /**
+     * 返回bulk通道中排队等待的请求个数
+     */
+    public synchronized int getBulkQueueDepth() {
+        return mBulkLane == null ? 0 : mBulkLane.mPendingCount;
+    }
+
+    /**
+     * 返回每个host排队等待的请求个数（两个通道合计），没有排队请求的host不包含在内。
+     */
+    public synchronized Map<String, Integer> getQueueDepthByHost() {
+        Map<String, Integer> depths = new HashMap<String, Integer>();
+        if (mRouter != null) {
+            mInteractiveLane.addQueueDepths(depths);
+            mBulkLane.addQueueDepths(depths);
+        }
+        return depths;
+    }
+
+    /**
+     * 返回一个host正在执行的请求个数
+     */
+    public synchronized int getInFlightCount(String host) {
+        Integer count = mHostsInFlight.get(host);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 将请求加入对应通道的排队中，并开始执行可以执行的请求。
+     *
+     * @return false，表示引擎已经停止
+     */
+    private synchronized boolean enqueue(Request<?> request) {
+        if (mRouter == null) {
+            return false;
+        }
+        Lane lane = request.isBulkTransfer() ? mBulkLane : mInteractiveLane;
+        lane.add(request, getHost(request));
+        schedule(lane);
+        return true;
+    }
+
+    /**
+     * 在通道未满时，为可以执行的请求启动工作线程。调用方需持有锁。
+     */
+    private void schedule(Lane lane) {
+        while (lane.mRunning < lane.mMaxConcurrency) {
+            Pending pending = lane.poll();
+            if (pending == null) {
+                return;
+            }
+            onStart(lane, pending);
+            lane.execute(pending);
+        }
+    }
+
+    /**
+     * 一个请求执行完成，返回该通道中下一个可以执行的请求，没有时工作线程结束。
+     * 释放的host并发数可能让另一个通道中的请求可以执行。
+     *
+     * @param takeNext false，表示工作线程即将结束，不需要下一个请求
+     */
+    private synchronized Pending onFinished(Lane lane, Pending finished, boolean takeNext) {
+        lane.mRunning--;
+        Integer count = mHostsInFlight.get(finished.host);
+        if (count != null && count > 1) {
+            mHostsInFlight.put(finished.host, count - 1);
+        } else {
+            mHostsInFlight.remove(finished.host);
+        }
+        Pending next = takeNext ? lane.poll() : null;
+        if (next != null) {
+            onStart(lane, next);
+        }
+        if (mRouter != null) {
+            schedule(mInteractiveLane);
+            schedule(mBulkLane);
+        }
+        return next;
+    }
+
+    private void onStart(Lane lane, Pending pending) {
+        lane.mRunning++;
+        Integer count = mHostsInFlight.get(pending.host);
+        mHostsInFlight.put(pending.host, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * host是否还可以执行更多的请求。调用方需持有锁。
+     */
+    private boolean hasCapacity(String host) {
+        Integer count = mHostsInFlight.get(host);
+        Integer limit = mHostLimits.get(host);
+        return (count == null ? 0 : count) < (limit == null ? mMaxRequestsPerHost : limit);
+    }
+
+    private static String getHost(Request<?> request) {
+        String host = Platform.getHost(request.getUrl());
+        return host == null ? "" : host;
+    }
+
+    /**
+     * 一个排队中的请求，以及它的host
+     */
+    private static class Pending {
+        final Request<?> request;
+        final String host;
+
+        Pending(Request<?> request, String host) {
+            this.request = request;
+            this.host = host;
+        }
+    }
+
+    /**
+     * 同一优先级的排队请求，按host分组，host之间轮流选择
+     */
+    private static class Level {
+        /** 每个host的请求，按加入的顺序排列 */
+        final Map<String, ArrayDeque<Pending>> queues = new LinkedHashMap<String, ArrayDeque<Pending>>();
+        /** host的轮流顺序，选择过的host移到末尾 */
+        final ArrayDeque<String> rotation = new ArrayDeque<String>();
+    }
+
+    /**
+     * 从网络队列中取出请求，分发到对应的通道
+     */
+    private class Router extends Thread {
+        private final BlockingQueue<Request<?>> mNetworkQueue;
+        private volatile boolean mQuit = false;
+
+        Router(BlockingQueue<Request<?>> networkQueue) {
+            super("VolleyNetworkRouter");
+            mNetworkQueue = networkQueue;
+        }
+
+        void quit() {
+            mQuit = true;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            Platform.setBackgroundThreadPriority();
+            while (true) {
+                Request<?> request;
+                try {
+                    request = mNetworkQueue.take();
+                } catch (InterruptedException e) {
+                    if (mQuit) {
+                        return;
+                    }
+                    continue;
+                }
+                request.addMarker("network-route");
+                if (!enqueue(request)) {
+                    //引擎已经停止，放回队列中
+                    mNetworkQueue.add(request);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个通道：最多同时执行maxConcurrency个请求，超出的请求排队。
+     * 每个工作线程执行完一个请求后，继续执行下一个可以执行的请求，没有时结束。
+     * 通道的状态由引擎的锁保护。
+     */
+    private class Lane {
+        private final String mName;
+        private final int mMaxConcurrency;
+        private final NetworkProcessor mProcessor;
+        private final ThreadPoolExecutor mExecutor;
+        /** 按优先级排队的请求，下标为{@link Request.Priority#ordinal()} */
+        private final Level[] mLevels;
+        private int mPendingCount;
+        private int mRunning;
+        private boolean mShutdown;
+
+        Lane(final String name, int maxConcurrency, NetworkProcessor processor) {
+            mName = name;
+            mMaxConcurrency = maxConcurrency;
+            mProcessor = processor;
+            mLevels = new Level[Request.Priority.values().length];
+            for (int i = 0; i < mLevels.length; i++) {
+                mLevels[i] = new Level();
+            }
+            //并发数由mRunning控制，线程池只负责按需创建、回收线程
+            mExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Platform.setBackgroundThreadPriority();
+                            runnable.run();
+                        }
+                    }, "Volley-" + name + "-" + mCount.incrementAndGet());
+                }
+            });
+        }
+
+        void add(Request<?> request, String host) {
+            Level level = mLevels[request.getPriority().ordinal()];
+            ArrayDeque<Pending> queue = level.queues.get(host);
+            if (queue == null) {
+                queue = new ArrayDeque<Pending>();
+                level.queues.put(host, queue);
+                level.rotation.add(host);
+            }
+            queue.add(new Pending(request, host));
+            mPendingCount++;
+            if (VolleyLog.DEBUG && mRunning >= mMaxConcurrency) {
+                VolleyLog.v("%s lane is full, %d requests waiting", mName, mPendingCount);
+            }
+        }
+
+        /**
+         * 按优先级从高到低，在同一优先级的host之间轮流，取出一个host未达到上限的请求。
+         */
+        Pending poll() {
+            if (mShutdown) {
+                return null;
+            }
+            for (int i = mLevels.length - 1; i >= 0; i--) {
+                Level level = mLevels[i];
+                for (int n = level.rotation.size(); n > 0; n--) {
+                    String host = level.rotation.poll();
+                    if (!hasCapacity(host)) {
+                        level.rotation.add(host);
+                        continue;
+                    }
+                    ArrayDeque<Pending> queue = level.queues.get(host);
+                    Pending pending = queue.poll();
+                    if (queue.isEmpty()) {
+                        level.queues.remove(host);
+                    } else {
+                        level.rotation.add(host);
+                    }
+                    mPendingCount--;
+                    return pending;
+                }
+            }
+            return null;
+        }
+
+        void addQueueDepths(Map<String, Integer> depths) {
+            for (Level level : mLevels) {
+                for (Map.Entry<String, ArrayDeque<Pending>> entry : level.queues.entrySet()) {
+                    Integer depth = depths.get(entry.getKey());
+                    depths.put(entry.getKey(), (depth == null ? 0 : depth) + entry.getValue().size());
+                }
+            }
+        }
+
+        void execute(Pending pending) {
+            mExecutor.execute(new Worker(this, pending));
+        }
+
+        /**
+         * 关闭通道，返回未开始执行的请求。正在执行的请求会继续执行完。
+         */
+        List<Request<?>> shutdown() {
+            mShutdown = true;
+            List<Request<?>> requests = new ArrayList<Request<?>>(mPendingCount);
+            for (Level level : mLevels) {
+                for (ArrayDeque<Pending> queue : level.queues.values()) {
+                    for (Pending pending : queue) {
+                        requests.add(pending.request);
+                    }
+                }
+                level.queues.clear();
+                level.rotation.clear();
+            }
+            mPendingCount = 0;
+            mExecutor.shutdown();
+            return requests;
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final Lane mLane;
+        private final Pending mFirst;
+
+        Worker(Lane lane, Pending first) {
+            mLane = lane;
+            mFirst = first;
+        }
+
+        @Override
+        public void run() {
+            Pending pending = mFirst;
+            while (pending != null) {
+                boolean completed = false;
+                try {
+                    mLane.mProcessor.process(pending.request);
+                    completed = true;
+                } finally {
+                    if (!completed) {
+                        //抛出了Error，释放占用的并发数后结束
+                        onFinished(mLane, pending, false);
+                    }
+                }
+                pending = onFinished(mLane, pending, true);
+            }
+        }
+    }
+}
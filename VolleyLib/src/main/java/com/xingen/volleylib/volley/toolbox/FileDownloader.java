@@ -0,0 +1,666 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.request.DownloadRequest;
+import com.xingen.volleylib.volley.AuthFailureError;
+import com.xingen.volleylib.volley.NetworkResponse;
+import com.xingen.volleylib.volley.Platform;
+import com.xingen.volleylib.volley.VolleyLog;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Downloads the body of a {@link DownloadRequest} into a file, with HTTP Range resumption and
+ * optional multi-segment parallel transfer.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 下载内容先写入临时文件，同时在记录文件中保存ETag/Last-Modified、文件总长度和每个分段的进度。
+ * 2. 再次下载时，通过Range和If-Range标头从断点处继续。若是服务器上文件已经变化，服务器会返回200，旧的临时文件被丢弃。
+ * 3. 开启分段下载且响应有ETag或Last-Modified时，按字节范围拆分成多段：当前网络线程下载一段，
+ * 其余分段在所有下载共用的线程池中并发下载，按位置写入同一个临时文件。
+ * 4. 全部分段完成后，临时文件重命名为目标文件。
+ */
+class FileDownloader {
+
+    /** 读取响应流的缓冲区大小 */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** 每个分段最少的字节数，文件太小时不值得拆分 */
+    private static final long MIN_SEGMENT_SIZE = 512 * 1024;
+
+    /** 每下载多少字节，保存一次记录文件 */
+    private static final long SAVE_INTERVAL = 1024 * 1024;
+
+    /** 所有下载共用的分段线程数，超出的分段排队 */
+    private static final int SEGMENT_THREADS = 4;
+
+    /** 分段线程空闲多久后回收 */
+    private static final long SEGMENT_KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor SEGMENT_EXECUTOR = newSegmentExecutor();
+
+    private final HttpStack mHttpStack;
+
+    FileDownloader(HttpStack httpStack) {
+        mHttpStack = httpStack;
+    }
+
+    private static ThreadPoolExecutor newSegmentExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(SEGMENT_THREADS, SEGMENT_THREADS,
+                SEGMENT_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Platform.setBackgroundThreadPriority();
+                                runnable.run();
+                            }
+                        }, "Volley-Segment-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        //没有下载时不保留线程
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 读取断点记录，若是可以续传，则添加Range和If-Range标头。
+     *
+     * @return 可续传的断点记录，没有时返回null
+     */
+    static DownloadRecord prepareRange(DownloadRequest request, Map<String, String> headers) {
+        DownloadRecord record = request.isResumable() ? DownloadRecord.load(request) : null;
+        if (record == null) {
+            discard(request);
+            return null;
+        }
+        int index = record.firstUnfinished();
+        headers.put("Range", record.rangeOf(index));
+        headers.put("If-Range", record.validator());
+        request.addMarker("download-resume [from=" + record.position(index) + "]");
+        return record;
+    }
+
+    /**
+     * 删除临时文件和记录文件。
+     */
+    static void discard(DownloadRequest request) {
+        new File(request.getTempFilePath()).delete();
+        new File(request.getRecordFilePath()).delete();
+    }
+
+    /**
+     * 将服务器的响应写入文件。
+     *
+     * @param record          {@link #prepareRange}返回的断点记录，可以为null
+     * @param httpResponse    状态码为200或者206的响应
+     * @param responseHeaders 响应的标头
+     */
+    NetworkResponse download(DownloadRequest request, DownloadRecord record, HttpResponse httpResponse,
+                             Map<String, String> responseHeaders) throws IOException {
+        int statusCode = httpResponse.getStatusLine().getStatusCode();
+        HttpEntity entity = httpResponse.getEntity();
+        if (record != null && (statusCode != HttpStatus.SC_PARTIAL_CONTENT || !record.matches(responseHeaders))) {
+            //服务器上的文件已经变化，或者不支持Range，不能继续使用旧的临时文件
+            request.addMarker("download-partial-discarded");
+            discard(request);
+            record = null;
+        }
+        int index;
+        if (record == null) {
+            if (statusCode != HttpStatus.SC_OK) {
+                consume(entity);
+                throw new IOException("Unexpected partial content for " + request.getUrl());
+            }
+            record = DownloadRecord.create(request, responseHeaders, entity.getContentLength());
+            index = 0;
+        } else {
+            index = record.firstUnfinished();
+            if (parseRangeStart(header(responseHeaders, "Content-Range")) != record.position(index)) {
+                consume(entity);
+                discard(request);
+                throw new IOException("Content-Range does not match the saved download record");
+            }
+        }
+
+        RandomAccessFile file = new RandomAccessFile(request.getTempFilePath(), "rw");
+        FileChannel channel = file.getChannel();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            record.save();
+            int segments = record.segmentCount();
+            if (segments > 1) {
+                for (int i = 0; i < segments; i++) {
+                    if (i != index && record.remaining(i) > 0) {
+                        futures.add(SEGMENT_EXECUTOR.submit(new SegmentTask(request, record, i, channel)));
+                    }
+                }
+            }
+            //当前网络线程，负责下载第一个未完成的分段
+            try {
+                transfer(request, record, index, entity.getContent(), channel);
+            } finally {
+                consume(entity);
+            }
+            awaitSegments(futures);
+            record.complete();
+            channel.force(false);
+        } catch (IOException e) {
+            record.abort();
+            awaitQuietly(futures);
+            if (request.isResumable()) {
+                record.save();
+            } else {
+                discard(request);
+            }
+            throw e;
+        } finally {
+            file.close();
+        }
+
+        File target = new File(request.getFilePath());
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Could not replace " + target.getAbsolutePath());
+        }
+        if (!new File(request.getTempFilePath()).renameTo(target)) {
+            throw new IOException("Could not rename to " + target.getAbsolutePath());
+        }
+        new File(request.getRecordFilePath()).delete();
+        return new NetworkResponse(HttpStatus.SC_OK, new byte[0], responseHeaders, false);
+    }
+
+    /**
+     * 将一个分段的数据流，按位置写入临时文件。
+     */
+    private static void transfer(DownloadRequest request, DownloadRecord record, int index,
+                                 InputStream in, FileChannel channel) throws IOException {
+        if (in == null) {
+            throw new IOException("Empty response body for " + request.getUrl());
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long unsaved = 0;
+        long remaining;
+        while ((remaining = record.remaining(index)) > 0) {
+            if (request.isCanceled()) {
+                throw new IOException("DownloadRequest cancel 被取消");
+            }
+            if (record.isAborted()) {
+                throw new IOException("Another segment failed");
+            }
+            int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (count == -1) {
+                if (record.isOpenEnded(index)) {
+                    break;
+                }
+                throw new EOFException("Segment " + index + " ended early");
+            }
+            byteBuffer.clear();
+            byteBuffer.limit(count);
+            long position = record.position(index);
+            while (byteBuffer.hasRemaining()) {
+                position += channel.write(byteBuffer, position);
+            }
+            //先写入文件，再更新进度，保证记录的进度不会超过实际写入的数据
+            record.advance(index, count);
+            unsaved += count;
+            if (unsaved >= SAVE_INTERVAL) {
+                record.save();
+                unsaved = 0;
+            }
+            int progress = record.progress();
+            if (progress >= 0 && record.updateProgress(progress)) {
+                request.deliverProgress(progress);
+            }
+        }
+    }
+
+    private static void awaitSegments(List<Future<?>> futures) throws IOException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting for segments");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * 等待其余分段停止，避免它们在本次下载结束后继续写入记录文件。
+     */
+    private static void awaitQuietly(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    private static void consume(HttpEntity entity) {
+        try {
+            entity.consumeContent();
+        } catch (IOException e) {
+            VolleyLog.v("Error occured when calling consumingContent");
+        }
+    }
+
+    /**
+     * 获取标头，忽略大小写。
+     */
+    static String header(Map<String, String> headers, String name) {
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 解析Content-Range（例如 bytes 100-199/1000）中的起始位置，解析失败返回-1。
+     */
+    private static long parseRangeStart(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        try {
+            int begin = contentRange.indexOf(' ') + 1;
+            return Long.parseLong(contentRange.substring(begin, contentRange.indexOf('-', begin)).trim());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 解析Content-Range中的文件总长度，未知时返回-1。
+     */
+    private static long parseRangeTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1).trim());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 在线程池中下载一个分段。
+     */
+    private class SegmentTask implements Callable<Void> {
+        private final DownloadRequest mRequest;
+        private final DownloadRecord mRecord;
+        private final int mIndex;
+        private final FileChannel mChannel;
+
+        SegmentTask(DownloadRequest request, DownloadRecord record, int index, FileChannel channel) {
+            mRequest = request;
+            mRecord = record;
+            mIndex = index;
+            mChannel = channel;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            if (mRecord.isAborted()) {
+                //排队期间其他分段已经失败
+                return null;
+            }
+            try {
+                download();
+            } catch (IOException e) {
+                mRecord.abort();
+                throw e;
+            }
+            return null;
+        }
+
+        private void download() throws IOException {
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put("Range", mRecord.rangeOf(mIndex));
+            String validator = mRecord.validator();
+            if (validator != null) {
+                headers.put("If-Range", validator);
+            }
+            HttpResponse response;
+            try {
+                response = mHttpStack.performRequest(mRequest, headers);
+            } catch (AuthFailureError e) {
+                throw new IOException(e);
+            }
+            HttpEntity entity = response.getEntity();
+            try {
+                if (response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+                    throw new IOException("Range not honoured for segment " + mIndex);
+                }
+                Map<String, String> responseHeaders = new HashMap<String, String>();
+                for (Header header : response.getAllHeaders()) {
+                    responseHeaders.put(header.getName(), header.getValue());
+                }
+                if (!mRecord.matches(responseHeaders)
+                        || parseRangeStart(header(responseHeaders, "Content-Range")) != mRecord.position(mIndex)) {
+                    throw new IOException("Segment " + mIndex + " does not match the download record");
+                }
+                transfer(mRequest, mRecord, mIndex, entity.getContent(), mChannel);
+            } finally {
+                if (entity != null) {
+                    consume(entity);
+                }
+            }
+        }
+    }
+
+    /**
+     * 下载的断点记录：校验信息，文件总长度，以及每个分段的起止位置和已下载的字节数。
+     */
+    static class DownloadRecord {
+        /** Magic number for current version of the record file format. */
+        private static final int RECORD_MAGIC = 0x20180307;
+
+        private final String mRecordPath;
+        private final String mUrl;
+        private final String mEtag;
+        private final String mLastModified;
+        private long mTotalLength;
+        /** 每个分段的起始位置 */
+        private final long[] mStarts;
+        /** 每个分段的结束位置（包含），-1表示直到响应结束 */
+        private final long[] mEnds;
+        /** 每个分段已经下载的字节数 */
+        private final AtomicLongArray mDownloaded;
+        /** 是否写入记录文件，没有ETag或者Last-Modified时无法校验，不保存 */
+        private final boolean mPersistable;
+        private final AtomicInteger mLastProgress = new AtomicInteger(-1);
+        private volatile boolean mAborted;
+
+        private DownloadRecord(String recordPath, String url, String etag, String lastModified,
+                               long totalLength, long[] starts, long[] ends, boolean persistable) {
+            mRecordPath = recordPath;
+            mUrl = url;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mTotalLength = totalLength;
+            mStarts = starts;
+            mEnds = ends;
+            mDownloaded = new AtomicLongArray(starts.length);
+            mPersistable = persistable;
+        }
+
+        /**
+         * 根据首次下载的响应，创建记录，需要时拆分成多段。
+         */
+        static DownloadRecord create(DownloadRequest request, Map<String, String> headers, long contentLength) {
+            String etag = header(headers, "ETag");
+            String lastModified = header(headers, "Last-Modified");
+            if (contentLength < 0) {
+                try {
+                    contentLength = Long.parseLong(header(headers, "Content-Length"));
+                } catch (Exception e) {
+                    contentLength = -1;
+                }
+            }
+            boolean strongEtag = etag != null && !etag.startsWith("W/");
+            //没有校验信息时不能用If-Range保证各分段来自同一个文件，不拆分
+            boolean validated = strongEtag || lastModified != null;
+            boolean acceptRanges = "bytes".equalsIgnoreCase(header(headers, "Accept-Ranges"));
+            int segments = 1;
+            if (acceptRanges && validated && contentLength >= 2 * MIN_SEGMENT_SIZE) {
+                segments = (int) Math.max(1, Math.min(request.getSegmentCount(), contentLength / MIN_SEGMENT_SIZE));
+            }
+            long[] starts = new long[segments];
+            long[] ends = new long[segments];
+            if (contentLength < 0) {
+                ends[0] = -1;
+            } else {
+                long size = contentLength / segments;
+                for (int i = 0; i < segments; i++) {
+                    starts[i] = i * size;
+                    ends[i] = (i == segments - 1) ? contentLength - 1 : (i + 1) * size - 1;
+                }
+            }
+            boolean persistable = request.isResumable() && validated;
+            return new DownloadRecord(request.getRecordFilePath(), request.getUrl(), strongEtag ? etag : null,
+                    lastModified, contentLength, starts, ends, persistable);
+        }
+
+        /**
+         * 读取记录文件，文件不存在、损坏或者与请求不符时返回null。
+         */
+        static DownloadRecord load(DownloadRequest request) {
+            File recordFile = new File(request.getRecordFilePath());
+            File tempFile = new File(request.getTempFilePath());
+            if (!recordFile.exists() || !tempFile.exists()) {
+                return null;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new FileInputStream(recordFile));
+                if (in.readInt() != RECORD_MAGIC) {
+                    return null;
+                }
+                String url = in.readUTF();
+                String etag = in.readUTF();
+                String lastModified = in.readUTF();
+                long totalLength = in.readLong();
+                int segments = in.readInt();
+                if (!url.equals(request.getUrl()) || segments <= 0) {
+                    return null;
+                }
+                long[] starts = new long[segments];
+                long[] ends = new long[segments];
+                long[] downloaded = new long[segments];
+                for (int i = 0; i < segments; i++) {
+                    starts[i] = in.readLong();
+                    ends[i] = in.readLong();
+                    downloaded[i] = in.readLong();
+                }
+                DownloadRecord record = new DownloadRecord(recordFile.getPath(), url,
+                        etag.length() == 0 ? null : etag, lastModified.length() == 0 ? null : lastModified,
+                        totalLength, starts, ends, true);
+                for (int i = 0; i < segments; i++) {
+                    record.mDownloaded.set(i, downloaded[i]);
+                }
+                if (record.validator() == null) {
+                    return null;
+                }
+                if (record.firstUnfinished() < 0) {
+                    //全部分段已完成但没有重命名，重新获取最后一个字节来校验文件
+                    record.mDownloaded.decrementAndGet(segments - 1);
+                }
+                return record;
+            } catch (IOException e) {
+                VolleyLog.d("%s: %s", recordFile.getAbsolutePath(), e.toString());
+                return null;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        /**
+         * 写入记录文件。
+         */
+        synchronized void save() {
+            if (!mPersistable) {
+                return;
+            }
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(new FileOutputStream(mRecordPath));
+                out.writeInt(RECORD_MAGIC);
+                out.writeUTF(mUrl);
+                out.writeUTF(mEtag == null ? "" : mEtag);
+                out.writeUTF(mLastModified == null ? "" : mLastModified);
+                out.writeLong(mTotalLength);
+                out.writeInt(mStarts.length);
+                for (int i = 0; i < mStarts.length; i++) {
+                    out.writeLong(mStarts[i]);
+                    out.writeLong(mEnds[i]);
+                    out.writeLong(mDownloaded.get(i));
+                }
+            } catch (IOException e) {
+                VolleyLog.d("Could not save download record %s: %s", mRecordPath, e.toString());
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+
+        /**
+         * 校验响应与记录是否是同一个文件：ETag，Last-Modified，以及Content-Range中的总长度。
+         */
+        boolean matches(Map<String, String> headers) {
+            String etag = header(headers, "ETag");
+            if (mEtag != null && etag != null && !mEtag.equals(etag)) {
+                return false;
+            }
+            String lastModified = header(headers, "Last-Modified");
+            if (mLastModified != null && lastModified != null && !mLastModified.equals(lastModified)) {
+                return false;
+            }
+            long total = parseRangeTotal(header(headers, "Content-Range"));
+            return mTotalLength < 0 || total < 0 || total == mTotalLength;
+        }
+
+        /**
+         * If-Range使用的校验值，优先使用强ETag。
+         */
+        String validator() {
+            return mEtag != null ? mEtag : mLastModified;
+        }
+
+        int segmentCount() {
+            return mStarts.length;
+        }
+
+        /**
+         * 第一个未完成的分段，全部完成时返回-1。
+         */
+        int firstUnfinished() {
+            for (int i = 0; i < mStarts.length; i++) {
+                if (remaining(i) > 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        String rangeOf(int index) {
+            return "bytes=" + position(index) + "-" + (mEnds[index] < 0 ? "" : String.valueOf(mEnds[index]));
+        }
+
+        long position(int index) {
+            return mStarts[index] + mDownloaded.get(index);
+        }
+
+        boolean isOpenEnded(int index) {
+            return mEnds[index] < 0;
+        }
+
+        long remaining(int index) {
+            if (isOpenEnded(index)) {
+                return Long.MAX_VALUE;
+            }
+            return mEnds[index] + 1 - position(index);
+        }
+
+        void advance(int index, int count) {
+            mDownloaded.addAndGet(index, count);
+        }
+
+        /**
+         * 全部分段下载结束，总长度未知时以实际下载的长度为准。
+         */
+        void complete() throws IOException {
+            long downloaded = 0;
+            for (int i = 0; i < mStarts.length; i++) {
+                downloaded += mDownloaded.get(i);
+            }
+            if (mTotalLength < 0) {
+                mTotalLength = downloaded;
+            } else if (downloaded != mTotalLength) {
+                throw new IOException("Expected " + mTotalLength + " bytes, downloaded " + downloaded + " bytes");
+            }
+        }
+
+        /**
+         * 下载进度的百分比，总长度未知时返回-1。
+         */
+        int progress() {
+            if (mTotalLength <= 0) {
+                return -1;
+            }
+            long downloaded = 0;
+            for (int i = 0; i < mStarts.length; i++) {
+                downloaded += mDownloaded.get(i);
+            }
+            return (int) (downloaded * 100 / mTotalLength);
+        }
+
+        /**
+         * 进度发生变化时返回true，避免重复传递相同的进度。
+         */
+        boolean updateProgress(int progress) {
+            int last = mLastProgress.get();
+            return progress > last && mLastProgress.compareAndSet(last, progress);
+        }
+
+        void abort() {
+            mAborted = true;
+        }
+
+        boolean isAborted() {
+            return mAborted;
+        }
+    }
+}
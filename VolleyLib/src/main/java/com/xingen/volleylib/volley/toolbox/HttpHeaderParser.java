@@ -24,6 +24,11 @@ import org.apache.http.impl.cookie.DateParseException;
 import org.apache.http.impl.cookie.DateUtils;
 import org.apache.http.protocol.HTTP;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.Map;
 
 /**
@@ -52,8 +57,12 @@ public class HttpHeaderParser {
         long serverDate = 0;
         long serverExpires = 0;
         long softExpire = 0;
+        long finalExpire = 0;
         long maxAge = 0;
+        long staleWhileRevalidate = 0;
         boolean hasCacheControl = false;
+        boolean mustRevalidate = false;
+        boolean noCache = false;
 
         String serverEtag = null;
         String headerValue;
@@ -72,6 +81,8 @@ public class HttpHeaderParser {
           *  no-store：响应不缓存,不写进磁盘中，基于某些安全考虑。
           *  must-revalidate :响应在特定条件下会被重用，以满足接下来的请求，但是它必须到服务器端去验证它是不是仍然是最新的。
           *  proxy-revalidate ：类似于 must-revalidate,但不适用于代理缓存.
+          *  stale-while-revalidate（RFC 5861）：过了max-age后的该时间内，先使用缓存数据，同时在后台刷新。
+          *  stale-if-error（RFC 5861）：刷新失败时仍可使用缓存数据的时间，见{@link Cache.Entry#isUsableOnError()}。
          */
         headerValue = headers.get("Cache-Control");
         if (headerValue != null) {
@@ -79,17 +90,23 @@ public class HttpHeaderParser {
             String[] tokens = headerValue.split(",");
             for (int i = 0; i < tokens.length; i++) {
                 String token = tokens[i].trim();
-                if (token.equals("no-cache") || token.equals("no-store")) {
+                if (token.equals("no-store")) {
                     return null;
+                } else if (token.equals("no-cache")) {
+                    noCache = true;
                 } else if (token.startsWith("max-age=")) {
-                    try {
-                        maxAge = Long.parseLong(token.substring(8));
-                    } catch (Exception e) {
-                    }
+                    maxAge = parseSeconds(token.substring(8), maxAge);
+                } else if (token.startsWith("stale-while-revalidate=")) {
+                    staleWhileRevalidate = parseSeconds(token.substring(23), staleWhileRevalidate);
                 } else if (token.equals("must-revalidate") || token.equals("proxy-revalidate")) {
-                    maxAge = 0;
+                    mustRevalidate = true;
                 }
             }
+            //可以缓存，但每次使用前都需要向服务器验证
+            if (noCache) {
+                maxAge = 0;
+                mustRevalidate = true;
+            }
         }
         //服务器返回的数据过期
         headerValue = headers.get("Expires");
@@ -120,24 +137,39 @@ public class HttpHeaderParser {
         if (hasCacheControl) {  //Cache-Control标头存在的情况
             //过期时间=（当前时间+缓存的有效时间*1000）
             softExpire = now + maxAge * 1000;
+            //must-revalidate时过期后不能使用，否则在stale-while-revalidate时间内先使用缓存再刷新
+            finalExpire = mustRevalidate ? softExpire : softExpire + staleWhileRevalidate * 1000;
         } else if (serverDate > 0 && serverExpires >= serverDate) { //Cache-Control标头不存在的情况
             // Default semantic for Expire header in HTTP specification is softExpire.
             //在Http规范中Expire标头的语义是softExpire.
             //过期时间=现在时间+（服务器返回数据的过期时间-服务器响应时间）
             softExpire = now + (serverExpires - serverDate);
+            finalExpire = softExpire;
         }
 
         Cache.Entry entry = new Cache.Entry();
         entry.data = response.data;
+        entry.buffer = response.buffer;
         entry.etag = serverEtag;
         entry.softTtl = softExpire;
-        entry.ttl = entry.softTtl;
+        entry.ttl = finalExpire;
         entry.serverDate = serverDate;
         entry.responseHeaders = headers;
 
         return entry;
     }
 
+    /**
+     * 解析Cache-Control中的秒数，格式错误时返回defaultValue
+     */
+    private static long parseSeconds(String value, long defaultValue) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     /**
      * Parse date in RFC1123 format, and return its value as epoch
      *
@@ -175,4 +207,34 @@ public class HttpHeaderParser {
 
         return HTTP.DEFAULT_CONTENT_CHARSET;
     }
+
+    /**
+     * 按响应的字符编码把响应体转成String。响应体在只读缓冲区中时直接解码，不复制成byte[]；
+     * 流式响应时读取连接的输入流。
+     *
+     * @throws UnsupportedEncodingException 不支持响应的字符编码
+     * @throws IOException                  读取流式响应失败
+     */
+    public static String parseString(NetworkResponse response) throws IOException {
+        String charset = parseCharset(response.headers);
+        if (response.data == null && response.stream != null) {
+            Reader reader = new InputStreamReader(response.stream, charset);
+            StringBuilder builder = new StringBuilder();
+            char[] chunk = new char[2048];
+            int count;
+            while ((count = reader.read(chunk)) != -1) {
+                builder.append(chunk, 0, count);
+            }
+            return builder.toString();
+        }
+        if (response.data == null && response.buffer != null) {
+            try {
+                return Charset.forName(charset).decode(response.buffer.duplicate()).toString();
+            } catch (IllegalArgumentException e) {
+                //IllegalCharsetNameException、UnsupportedCharsetException
+                throw new UnsupportedEncodingException(charset);
+            }
+        }
+        return new String(response.data, charset);
+    }
 }
@@ -16,10 +16,13 @@
 
 package com.xingen.volleylib.volley.toolbox;
 
+import android.annotation.TargetApi;
+import android.os.Build;
 
-import com.xingen.volleylib.request.SingleFileRequest;
 import com.xingen.volleylib.volley.AuthFailureError;
+import com.xingen.volleylib.volley.Platform;
 import com.xingen.volleylib.volley.Request;
+import com.xingen.volleylib.volley.StreamingBody;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
@@ -32,10 +35,9 @@ import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.message.BasicStatusLine;
 
 import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
@@ -54,11 +56,17 @@ import javax.net.ssl.SSLSocketFactory;
  * <p>
  * 1. 发送请求中的header和body
  * 2. 获取响应的数据，包含header。
+ * 3. 添加Accept-Encoding，压缩的响应由BasicNetwork解压，见{@link ContentEncoding}。
  */
 public class HurlStack implements HttpStack {
 
     private static final String HEADER_CONTENT_TYPE = "Content-Type";
 
+    /**
+     * 分块传输时，每块的大小
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
     /**
      * An interface for transforming URLs before use.
      * 在被使用前，用于转换URL
@@ -118,6 +126,8 @@ public class HurlStack implements HttpStack {
         map.putAll(request.getHeaders());
         //若是数据超过缓存时间，但没有过期，则将上次的缓存header添加上。
         map.putAll(additionalHeaders);
+        //声明支持的压缩格式，响应在BasicNetwork中解压
+        ContentEncoding.addAcceptEncoding(request, map);
         //对Url进行转换
         if (mUrlRewriter != null) {//默认情况,UrlRewriter 为空，
             String rewritten = mUrlRewriter.rewriteUrl(url);
@@ -298,68 +308,53 @@ public class HurlStack implements HttpStack {
      */
     private static void addBodyIfExists(HttpURLConnection connection, Request<?> request)
             throws IOException, AuthFailureError {
-        //全部body转成byte数组，若是文件或者超大的byte数组会导致内存占用巨大。
-        if (request instanceof SingleFileRequest) {
-            addFileBody(connection, (SingleFileRequest) request);
-        } else {
-            byte[] body = request.getBody();
-            if (body != null) {
-                //设置post请求方法，允许写入客户端传递的参数
-                connection.setDoOutput(true);
-                //设置标头的Content-Type属性
-                connection.addRequestProperty(HEADER_CONTENT_TYPE, request.getBodyContentType());
-                //数据操作流
-                DataOutputStream out = new DataOutputStream(connection.getOutputStream());
-                //写入post传递的参数
-                out.write(body);
-                out.close();
-            }
+        //流式的请求体（例如文件），直接写入连接，不转成byte数组
+        StreamingBody streamingBody = request.getStreamingBody();
+        if (streamingBody != null) {
+            addStreamingBody(connection, streamingBody);
+            return;
+        }
+        byte[] body = request.getBody();
+        if (body != null) {
+            //设置post请求方法，允许写入客户端传递的参数
+            connection.setDoOutput(true);
+            //设置标头的Content-Type属性
+            connection.addRequestProperty(HEADER_CONTENT_TYPE, request.getBodyContentType());
+            //长度已知，直接发送，不需要HttpURLConnection再缓存一份
+            connection.setFixedLengthStreamingMode(body.length);
+            OutputStream out = connection.getOutputStream();
+            //写入post传递的参数
+            out.write(body);
+            out.close();
         }
     }
 
     /**
-     *
-     * 添加文件，避免内存巨大
+     * 写入流式的请求体：长度已知时使用固定长度的流模式，否则使用分块传输，
+     * 这样HttpURLConnection不会将整个请求体缓存在内存中。
      *
      * @param connection
-     * @param request
+     * @param body
      * @throws IOException
-     * @throws AuthFailureError
      */
-    private static void addFileBody(HttpURLConnection connection, SingleFileRequest request) throws IOException, AuthFailureError {
-        String filePath = request.getFilePath();
-        if (filePath == null) {
-            throw new IOException("File文件路径为空");
-        }
-        File file = new File(filePath);
-        if (file == null || !file.exists()) {
-            throw new IOException("File 文件不存在");
-        }
-        //设置post请求方法，允许写入客户端传递的参数
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void addStreamingBody(HttpURLConnection connection, StreamingBody body) throws IOException {
         connection.setDoOutput(true);
-        //设置标头的Content-Type属性
-        connection.addRequestProperty(HEADER_CONTENT_TYPE, request.getBodyContentType());
-        DataOutputStream outputStream = new DataOutputStream(connection.getOutputStream());
-        FileInputStream fileInputStream = new FileInputStream(file);
-        long total = 0;
-        int read ;
-        outputStream.writeUTF(request.getContentHeader());
-        byte[] buffer = new byte[SingleFileRequest.READ_SIZE];
-        while ((read = fileInputStream.read(buffer)) != -1) {
-            if (request.isCanceled()){
-                fileInputStream.close();
-                outputStream.close();
-                throw  new IOException("SingleRequest 被取消");
-            }
-            outputStream.write(buffer, 0, read);
-            outputStream.flush();
-            total += read;
-            int progress = (int) (total * 100 / file.length());
-            request.deliverProgress(progress);
+        connection.addRequestProperty(HEADER_CONTENT_TYPE, body.getContentType());
+        long contentLength = body.getContentLength();
+        if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+            connection.setFixedLengthStreamingMode((int) contentLength);
+        } else if (contentLength > Integer.MAX_VALUE
+                && (!Platform.IS_ANDROID || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)) {
+            connection.setFixedLengthStreamingMode(contentLength);
+        } else {
+            connection.setChunkedStreamingMode(CHUNK_SIZE);
+        }
+        OutputStream out = connection.getOutputStream();
+        try {
+            body.writeTo(out);
+        } finally {
+            out.close();
         }
-        outputStream.writeUTF(request.getContentFoot());
-        outputStream.flush();
-        fileInputStream.close();
-        outputStream.close();
     }
 }
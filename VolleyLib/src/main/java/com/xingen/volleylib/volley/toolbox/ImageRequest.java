@@ -21,12 +21,15 @@ import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
 
 import com.xingen.volleylib.volley.DefaultRetryPolicy;
+import com.xingen.volleylib.volley.NetworkError;
 import com.xingen.volleylib.volley.NetworkResponse;
 import com.xingen.volleylib.volley.ParseError;
 import com.xingen.volleylib.volley.Request;
 import com.xingen.volleylib.volley.Response;
 import com.xingen.volleylib.volley.VolleyLog;
 
+import java.io.IOException;
+
 
 /**
  *
@@ -121,12 +124,19 @@ public class ImageRequest extends Request<Bitmap> {
 
     @Override
     protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
+        //流式响应时先读取全部数据，不占用解析的同步锁
+        byte[] data;
+        try {
+            data = response.getData();
+        } catch (IOException e) {
+            return Response.error(new NetworkError(e));
+        }
         // 多线程的同步锁： 某一个时刻，只有一个Bitmap在解析，避免内存溢出。
         synchronized (sDecodeLock) {
             try {
-                return doParse(response);
+                return doParse(response, data);
             } catch (OutOfMemoryError e) {
-                VolleyLog.e("Caught OOM for %d byte image, url=%s", response.data.length, getUrl());
+                VolleyLog.e("Caught OOM for %d byte image, url=%s", data.length, getUrl());
                 return Response.error(new ParseError(e));
             }
         }
@@ -135,10 +145,10 @@ public class ImageRequest extends Request<Bitmap> {
     /**
      * 解析Byte数组生成Bitmap
      * @param response
+     * @param data 响应数据
      * @return
      */
-    private Response<Bitmap> doParse(NetworkResponse response) {
-        byte[] data = response.data;
+    private Response<Bitmap> doParse(NetworkResponse response, byte[] data) {
         BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
         Bitmap bitmap = null;
         /**
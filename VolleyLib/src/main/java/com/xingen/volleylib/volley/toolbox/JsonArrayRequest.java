@@ -17,6 +17,7 @@
 package com.xingen.volleylib.volley.toolbox;
 
 
+import com.xingen.volleylib.volley.NetworkError;
 import com.xingen.volleylib.volley.NetworkResponse;
 import com.xingen.volleylib.volley.ParseError;
 import com.xingen.volleylib.volley.Response;
@@ -24,6 +25,7 @@ import com.xingen.volleylib.volley.Response;
 import org.json.JSONArray;
 import org.json.JSONException;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
 /**
@@ -39,17 +41,21 @@ public class JsonArrayRequest extends JsonRequest<JSONArray> {
      */
     public JsonArrayRequest(String url, Response.Listener<JSONArray> listener, Response.ErrorListener errorListener) {
         super(Method.GET, url, null, listener, errorListener);
+        //较大的缓存直接从只读缓冲区解码；子类重写解析时可能读取data，需要自行开启
+        setShouldParseBuffer(getClass() == JsonArrayRequest.class);
     }
 
     @Override
     protected Response<JSONArray> parseNetworkResponse(NetworkResponse response) {
         try {
-            String jsonString =
-                new String(response.data, HttpHeaderParser.parseCharset(response.headers));
+            String jsonString = HttpHeaderParser.parseString(response);
             return Response.success(new JSONArray(jsonString),
                     HttpHeaderParser.parseCacheHeaders(response));
         } catch (UnsupportedEncodingException e) {
             return Response.error(new ParseError(e));
+        } catch (IOException e) {
+            //流式响应读取失败
+            return Response.error(new NetworkError(e));
         } catch (JSONException je) {
             return Response.error(new ParseError(je));
         }
@@ -17,6 +17,7 @@
 package com.xingen.volleylib.volley.toolbox;
 
 
+import com.xingen.volleylib.volley.NetworkError;
 import com.xingen.volleylib.volley.NetworkResponse;
 import com.xingen.volleylib.volley.ParseError;
 import com.xingen.volleylib.volley.Response;
@@ -24,6 +25,7 @@ import com.xingen.volleylib.volley.Response;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
 /**
@@ -45,6 +47,8 @@ public class JsonObjectRequest extends JsonRequest<JSONObject> {
                              Response.Listener<JSONObject> listener, Response.ErrorListener errorListener) {
         super(method, url, (jsonRequest == null) ? null : jsonRequest.toString(), listener,
                     errorListener);
+        //较大的缓存直接从只读缓冲区解码；子类重写解析时可能读取data，需要自行开启
+        setShouldParseBuffer(getClass() == JsonObjectRequest.class);
     }
 
     /**
@@ -62,12 +66,14 @@ public class JsonObjectRequest extends JsonRequest<JSONObject> {
     @Override
     protected Response<JSONObject> parseNetworkResponse(NetworkResponse response) {
         try {
-            String jsonString =
-                new String(response.data, HttpHeaderParser.parseCharset(response.headers));
+            String jsonString = HttpHeaderParser.parseString(response);
             return Response.success(new JSONObject(jsonString),
                     HttpHeaderParser.parseCacheHeaders(response));
         } catch (UnsupportedEncodingException e) {
             return Response.error(new ParseError(e));
+        } catch (IOException e) {
+            //流式响应读取失败
+            return Response.error(new NetworkError(e));
         } catch (JSONException je) {
             return Response.error(new ParseError(je));
         }
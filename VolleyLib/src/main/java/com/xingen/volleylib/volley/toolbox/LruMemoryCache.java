@@ -0,0 +1,191 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.Cache;
+import com.xingen.volleylib.volley.ParsedResponseCache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory LRU tier, bounded by bytes, in front of another {@link Cache}.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 最近使用的缓存实体保存在内存中，命中时不需要读取磁盘。
+ * 2. 可以保存请求解析后的对象，见{@link ParsedResponseCache}，命中时不需要再解析JSON、图片。
+ * 3. 写入、删除时同时更新内存和下一级缓存。
+ * <p>
+ * 只保存数据在byte数组中的较小实体，按数据的字节数计算容量，解析后的对象不计入容量。
+ */
+public class LruMemoryCache implements ParsedResponseCache {
+
+    /** 单个实体不能超过容量的比例 */
+    private static final int MAX_ENTRY_FRACTION = 8;
+
+    /** 下一级缓存 */
+    private final Cache mDelegate;
+
+    /** The maximum size of the memory tier in bytes. */
+    private final int mMaxSizeInBytes;
+
+    /** Map of the Key, MemoryEntry pairs, in access order. */
+    private final LinkedHashMap<String, MemoryEntry> mEntries =
+            new LinkedHashMap<String, MemoryEntry>(16, .75f, true);
+
+    /** Total amount of data currently held in memory in bytes. */
+    private int mSize;
+
+    /**
+     * 写入、删除的次数。读取下一级缓存期间若有写入，读到的实体可能已经过期，不放入内存。
+     */
+    private long mModCount;
+
+    /**
+     * @param delegate       the cache behind the memory tier, e.g. a {@link DiskBasedCache}
+     * @param maxSizeInBytes the maximum size of the memory tier in bytes
+     */
+    public LruMemoryCache(Cache delegate, int maxSizeInBytes) {
+        mDelegate = delegate;
+        mMaxSizeInBytes = maxSizeInBytes;
+    }
+
+    @Override
+    public Entry get(String key) {
+        long modCount;
+        synchronized (this) {
+            MemoryEntry memoryEntry = mEntries.get(key);
+            if (memoryEntry != null) {
+                return memoryEntry.entry;
+            }
+            modCount = mModCount;
+        }
+        Entry entry = mDelegate.get(key);
+        if (entry != null) {
+            synchronized (this) {
+                if (modCount == mModCount && !mEntries.containsKey(key)) {
+                    putInMemory(key, entry);
+                }
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        removeFromMemory(key);
+        mDelegate.put(key, entry);
+        synchronized (this) {
+            mModCount++;
+            removeInMemory(key);
+            putInMemory(key, entry);
+        }
+    }
+
+    @Override
+    public void initialize() {
+        mDelegate.initialize();
+    }
+
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        removeFromMemory(key);
+        mDelegate.invalidate(key, fullExpire);
+        removeFromMemory(key);
+    }
+
+    @Override
+    public void remove(String key) {
+        removeFromMemory(key);
+        mDelegate.remove(key);
+        removeFromMemory(key);
+    }
+
+    @Override
+    public void clear() {
+        clearMemory();
+        mDelegate.clear();
+        clearMemory();
+    }
+
+    @Override
+    public synchronized Object getParsedResponse(String key, Entry entry, Class<?> requestType) {
+        MemoryEntry memoryEntry = mEntries.get(key);
+        if (memoryEntry == null || memoryEntry.entry != entry || memoryEntry.parsed == null) {
+            return null;
+        }
+        return memoryEntry.parsed.get(requestType);
+    }
+
+    @Override
+    public synchronized void putParsedResponse(String key, Entry entry, Class<?> requestType, Object parsed) {
+        MemoryEntry memoryEntry = mEntries.get(key);
+        //实体已经被替换，或者没有放入内存
+        if (memoryEntry == null || memoryEntry.entry != entry || parsed == null) {
+            return;
+        }
+        if (memoryEntry.parsed == null) {
+            memoryEntry.parsed = new HashMap<Class<?>, Object>(2);
+        }
+        memoryEntry.parsed.put(requestType, parsed);
+    }
+
+    /**
+     * Returns the amount of data currently held in memory in bytes.
+     */
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    private synchronized void removeFromMemory(String key) {
+        mModCount++;
+        removeInMemory(key);
+    }
+
+    private synchronized void clearMemory() {
+        mModCount++;
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * 放入内存，超出容量时淘汰最久未使用的实体。调用方需持有锁。
+     */
+    private void putInMemory(String key, Entry entry) {
+        //内存映射的实体不占用堆内存，不放入内存
+        if (entry.data == null || entry.data.length > mMaxSizeInBytes / MAX_ENTRY_FRACTION) {
+            return;
+        }
+        mEntries.put(key, new MemoryEntry(entry));
+        mSize += entry.data.length;
+        Iterator<Map.Entry<String, MemoryEntry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSizeInBytes && iterator.hasNext()) {
+            MemoryEntry eldest = iterator.next().getValue();
+            mSize -= eldest.entry.data.length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 从内存中移除。调用方需持有锁。
+     */
+    private void removeInMemory(String key) {
+        MemoryEntry memoryEntry = mEntries.remove(key);
+        if (memoryEntry != null) {
+            mSize -= memoryEntry.entry.data.length;
+        }
+    }
+
+    /**
+     * 内存中的缓存实体，以及按请求类型保存的解析后的对象
+     */
+    private static class MemoryEntry {
+        final Entry entry;
+        Map<Class<?>, Object> parsed;
+
+        MemoryEntry(Entry entry) {
+            this.entry = entry;
+        }
+    }
+}
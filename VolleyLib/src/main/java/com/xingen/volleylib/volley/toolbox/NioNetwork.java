@@ -0,0 +1,1030 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.AsyncNetwork;
+import com.xingen.volleylib.volley.AuthFailureError;
+import com.xingen.volleylib.volley.BackoffRetryPolicy;
+import com.xingen.volleylib.volley.Cache;
+import com.xingen.volleylib.volley.ClientError;
+import com.xingen.volleylib.volley.Network;
+import com.xingen.volleylib.volley.NetworkError;
+import com.xingen.volleylib.volley.NetworkResponse;
+import com.xingen.volleylib.volley.NoConnectionError;
+import com.xingen.volleylib.volley.Platform;
+import com.xingen.volleylib.volley.Request;
+import com.xingen.volleylib.volley.ServerError;
+import com.xingen.volleylib.volley.TimeoutError;
+import com.xingen.volleylib.volley.VolleyError;
+import com.xingen.volleylib.volley.VolleyLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * A {@link Network} that multiplexes requests over non-blocking {@link SocketChannel}s on a
+ * single I/O thread, using an {@link SSLEngine} for HTTPS.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 一个I/O线程通过Selector同时执行大量请求，等待服务器响应时不占用线程。
+ * 2. 作为{@link AsyncNetwork}，与{@link NioNetworkEngine}配合使用，响应在解析线程池中解析。
+ * 3. 作为{@link Network}，调用的线程阻塞等待结果，可以替换BasicNetwork。
+ * 4. 超时和401、403时按照请求的RetryPolicy重试，与BasicNetwork一致。
+ * <p>
+ * 下载、上传、流式解析等请求（{@link #canPerformAsync(Request)}返回false）交给阻塞的fallback执行。
+ * 每个请求使用一个新的连接（Connection: close），不跟随重定向，不支持代理。域名解析在单独的线程中执行。
+ * 压缩的响应在读取完成后解压，见{@link ContentEncoding}。
+ */
+public class NioNetwork implements Network, AsyncNetwork {
+
+    /** 每次读取的缓冲区大小 */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** 响应行、header的最大长度 */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /** 不能以非阻塞方式执行的请求 */
+    private final Network mFallback;
+    private final SSLContext mSslContext;
+    /** 域名解析是阻塞的，不在I/O线程中执行 */
+    private final ExecutorService mResolver;
+    /** 等待在I/O线程中开始的请求 */
+    private final ConcurrentLinkedQueue<Exchange> mPending = new ConcurrentLinkedQueue<Exchange>();
+    /** I/O线程读取数据的缓冲区 */
+    private final ByteBuffer mReadBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private Selector mSelector;
+    private Thread mIoThread;
+    private volatile boolean mQuit;
+
+    public NioNetwork() {
+        this(null, new BasicNetwork(new HurlStack()));
+    }
+
+    /**
+     * @param sslContext SSL context for HTTPS connections, null for the default
+     * @param fallback   阻塞执行下载、上传、流式解析等请求的Network
+     */
+    public NioNetwork(SSLContext sslContext, Network fallback) {
+        mSslContext = sslContext;
+        mFallback = fallback;
+        mResolver = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "VolleyNioResolver-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 下载、上传、流式解析的请求需要逐步读写连接，返回false
+     */
+    @Override
+    public boolean canPerformAsync(Request<?> request) {
+        if (request.isBulkTransfer() || request.shouldStreamResponse()) {
+            return false;
+        }
+        try {
+            return request.getStreamingBody() == null;
+        } catch (AuthFailureError e) {
+            return false;
+        }
+    }
+
+    /**
+     * 在I/O线程中执行请求，当前线程阻塞等待结果
+     */
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        if (!canPerformAsync(request)) {
+            return mFallback.performRequest(request);
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        final NetworkResponse[] response = new NetworkResponse[1];
+        final VolleyError[] error = new VolleyError[1];
+        performRequest(request, new Callback() {
+            @Override
+            public void onResponse(NetworkResponse networkResponse) {
+                response[0] = networkResponse;
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(VolleyError volleyError) {
+                error[0] = volleyError;
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VolleyError(e);
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+        return response[0];
+    }
+
+    @Override
+    public void performRequest(Request<?> request, Callback callback) {
+        final Exchange exchange;
+        try {
+            exchange = new Exchange(request, callback);
+        } catch (AuthFailureError e) {
+            callback.onError(e);
+            return;
+        } catch (MalformedURLException e) {
+            callback.onError(new VolleyError("Bad URL " + request.getUrl(), e));
+            return;
+        }
+        mResolver.execute(new Runnable() {
+            @Override
+            public void run() {
+                InetSocketAddress address = new InetSocketAddress(exchange.mHost, exchange.mPort);
+                if (address.isUnresolved()) {
+                    exchange.fail(new NoConnectionError(new UnknownHostException(exchange.mHost)));
+                    return;
+                }
+                exchange.mAddress = address;
+                try {
+                    enqueue(exchange);
+                } catch (IOException e) {
+                    exchange.fail(new NoConnectionError(e));
+                }
+            }
+        });
+    }
+
+    /**
+     * 停止I/O线程，未完成的请求以NoConnectionError结束
+     */
+    public synchronized void shutdown() {
+        mQuit = true;
+        if (mSelector != null) {
+            mSelector.wakeup();
+        }
+        mResolver.shutdown();
+    }
+
+    private synchronized void enqueue(Exchange exchange) throws IOException {
+        if (mQuit) {
+            throw new IOException("NioNetwork was shut down");
+        }
+        if (mIoThread == null) {
+            mSelector = Selector.open();
+            mIoThread = new Thread("VolleyNioSelector") {
+                @Override
+                public void run() {
+                    runLoop();
+                }
+            };
+            mIoThread.setDaemon(true);
+            mIoThread.start();
+        }
+        mPending.add(exchange);
+        mSelector.wakeup();
+    }
+
+    private void runLoop() {
+        Set<Exchange> active = new HashSet<Exchange>();
+        while (!mQuit) {
+            long now = Platform.elapsedRealtime();
+            long timeout = 0;
+            for (Exchange exchange : active) {
+                long remaining = Math.max(1, exchange.mDeadline - now);
+                timeout = timeout == 0 ? remaining : Math.min(timeout, remaining);
+            }
+            try {
+                mSelector.select(timeout);
+            } catch (IOException e) {
+                VolleyLog.e(e, "Selector failed");
+                break;
+            }
+            Exchange pending;
+            while ((pending = mPending.poll()) != null) {
+                if (pending.open()) {
+                    active.add(pending);
+                }
+            }
+            Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Exchange exchange = (Exchange) key.attachment();
+                if (key.isValid()) {
+                    exchange.onReady();
+                }
+                if (exchange.mChannel == null) {
+                    active.remove(exchange);
+                }
+            }
+            now = Platform.elapsedRealtime();
+            Iterator<Exchange> iterator = active.iterator();
+            while (iterator.hasNext()) {
+                Exchange exchange = iterator.next();
+                if (exchange.mChannel == null) {
+                    iterator.remove();
+                } else if (now >= exchange.mDeadline) {
+                    iterator.remove();
+                    exchange.onTimeout();
+                }
+            }
+        }
+        //停止后结束全部请求
+        List<Exchange> remaining = new ArrayList<Exchange>(active);
+        Exchange pending;
+        while ((pending = mPending.poll()) != null) {
+            remaining.add(pending);
+        }
+        for (Exchange exchange : remaining) {
+            exchange.close();
+            exchange.fail(new NoConnectionError(new IOException("NioNetwork was shut down")));
+        }
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            //忽略
+        }
+    }
+
+    private SSLContext getSslContext() throws IOException {
+        if (mSslContext != null) {
+            return mSslContext;
+        }
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new SSLException(e);
+        }
+    }
+
+    /**
+     * 一个请求，每次尝试使用一个新的连接。除了创建和域名解析，只在I/O线程中访问。
+     */
+    private class Exchange {
+        private final Request<?> mRequest;
+        private final Callback mCallback;
+        private final String mHost;
+        private final int mPort;
+        private final boolean mHttps;
+        private final boolean mHead;
+        /** 请求行、header和请求体 */
+        private final byte[] mRequestBytes;
+
+        private InetSocketAddress mAddress;
+        private SocketChannel mChannel;
+        private SelectionKey mKey;
+        private Transport mTransport;
+        private ResponseParser mParser;
+        private ByteBuffer mOut;
+        private boolean mConnected;
+        private long mDeadline;
+
+        @SuppressWarnings("deprecation")
+        Exchange(Request<?> request, Callback callback) throws AuthFailureError, MalformedURLException {
+            mRequest = request;
+            mCallback = callback;
+            URL url = new URL(request.getUrl());
+            mHost = url.getHost();
+            mPort = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+            mHttps = "https".equals(url.getProtocol());
+            if (!mHttps && !"http".equals(url.getProtocol())) {
+                throw new MalformedURLException("Unsupported protocol " + url.getProtocol());
+            }
+            byte[] body = null;
+            String contentType = null;
+            if (request.getMethod() == Request.Method.DEPRECATED_GET_OR_POST) {
+                body = request.getPostBody();
+                contentType = request.getPostBodyContentType();
+            }
+            String method = PooledHttpStack.getMethodName(request.getMethod(), body != null);
+            if (("POST".equals(method) && body == null) || "PUT".equals(method) || "PATCH".equals(method)) {
+                body = request.getBody();
+                contentType = request.getBodyContentType();
+            }
+            mHead = "HEAD".equals(method);
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.putAll(request.getHeaders());
+            BasicNetwork.addCacheHeaders(headers, request.getCacheEntry());
+            ContentEncoding.addAcceptEncoding(request, headers);
+            mRequestBytes = buildRequest(url, method, headers, body, contentType);
+        }
+
+        /**
+         * 在I/O线程中建立连接，失败时结束请求并返回false
+         */
+        boolean open() {
+            mConnected = false;
+            mDeadline = Platform.elapsedRealtime() + mRequest.getTimeoutMs();
+            mOut = ByteBuffer.wrap(mRequestBytes);
+            mParser = new ResponseParser(mHead);
+            try {
+                mChannel = SocketChannel.open();
+                mChannel.configureBlocking(false);
+                mChannel.socket().setTcpNoDelay(true);
+                mTransport = mHttps ? new TlsTransport(mChannel, mHost, mPort) : new PlainTransport(mChannel);
+                if (mChannel.connect(mAddress)) {
+                    mConnected = true;
+                    mKey = mChannel.register(mSelector, SelectionKey.OP_WRITE, this);
+                } else {
+                    mKey = mChannel.register(mSelector, SelectionKey.OP_CONNECT, this);
+                }
+                return true;
+            } catch (IOException e) {
+                onFailure(e);
+                return false;
+            }
+        }
+
+        void onReady() {
+            try {
+                if (!mConnected) {
+                    if (!mChannel.finishConnect()) {
+                        return;
+                    }
+                    mConnected = true;
+                }
+                drive();
+            } catch (IOException e) {
+                onFailure(e);
+            }
+        }
+
+        /**
+         * 握手、发送请求、读取响应，需要等待I/O时注册对应的事件后返回
+         */
+        private void drive() throws IOException {
+            if (!mTransport.handshake()) {
+                mKey.interestOps(mTransport.handshakeInterest());
+                return;
+            }
+            if (mOut.hasRemaining() || mTransport.hasPendingWrites()) {
+                mTransport.write(mOut);
+                if (mOut.hasRemaining() || mTransport.hasPendingWrites()) {
+                    mKey.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            while (true) {
+                mReadBuffer.clear();
+                int count = mTransport.read(mReadBuffer);
+                if (count == 0) {
+                    mKey.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                if (count == -1) {
+                    mParser.onEof();
+                } else {
+                    mReadBuffer.flip();
+                    mParser.feed(mReadBuffer);
+                }
+                if (mParser.isDone()) {
+                    onComplete();
+                    return;
+                }
+            }
+        }
+
+        private void onComplete() {
+            close();
+            int statusCode = mParser.mStatusCode;
+            Map<String, String> headers = mParser.mHeaders;
+            if (statusCode == 304) {
+                Cache.Entry entry = mRequest.getCacheEntry();
+                if (entry == null) {
+                    succeed(new NetworkResponse(304, null, headers, true));
+                } else {
+                    succeed(NetworkResponse.fromCacheEntry(304, entry, headers, true, mRequest));
+                }
+                return;
+            }
+            byte[] data;
+            try {
+                data = decodeBody(headers, mParser.getBody());
+            } catch (IOException e) {
+                fail(new NetworkError(e));
+                return;
+            }
+            NetworkResponse response = new NetworkResponse(statusCode, data, headers, false);
+            if (statusCode >= 200 && statusCode <= 299) {
+                succeed(response);
+            } else if (statusCode == 401 || statusCode == 403) {
+                VolleyLog.e("Unexpected response code %d for %s", statusCode, mRequest.getUrl());
+                retryOrFail("auth", new AuthFailureError(response));
+            } else if (statusCode >= 400 && statusCode <= 499) {
+                VolleyLog.e("Unexpected response code %d for %s", statusCode, mRequest.getUrl());
+                fail(new ClientError(response));
+            } else {
+                VolleyLog.e("Unexpected response code %d for %s", statusCode, mRequest.getUrl());
+                fail(new ServerError(response));
+            }
+        }
+
+        private void onFailure(IOException e) {
+            close();
+            //与BasicNetwork一致：没有收到响应时为NoConnectionError
+            if (mParser == null || mParser.mStatusCode == 0) {
+                fail(new NoConnectionError(e));
+            } else {
+                fail(new NetworkError(e));
+            }
+        }
+
+        void onTimeout() {
+            close();
+            retryOrFail(mConnected ? "socket" : "connection", new TimeoutError());
+        }
+
+        private void retryOrFail(String logPrefix, VolleyError error) {
+            //延迟重试由NetworkProcessor处理
+            if (mRequest.getRetryPolicy() instanceof BackoffRetryPolicy) {
+                fail(error);
+                return;
+            }
+            int oldTimeout = mRequest.getTimeoutMs();
+            if (mRequest.isDeadlineExceeded()) {
+                mRequest.addMarker(String.format("%s-deadline-giveup [timeout=%s]", logPrefix, oldTimeout));
+                fail(BasicNetwork.deadlineExceeded(error));
+                return;
+            }
+            try {
+                mRequest.getRetryPolicy().retry(error);
+            } catch (VolleyError e) {
+                mRequest.addMarker(String.format("%s-timeout-giveup [timeout=%s]", logPrefix, oldTimeout));
+                fail(e);
+                return;
+            }
+            mRequest.addMarker(String.format("%s-retry [timeout=%s]", logPrefix, oldTimeout));
+            mPending.add(this);
+            mSelector.wakeup();
+        }
+
+        private void succeed(NetworkResponse response) {
+            try {
+                mCallback.onResponse(response);
+            } catch (RuntimeException e) {
+                VolleyLog.e(e, "Unhandled exception in callback");
+            }
+        }
+
+        void fail(VolleyError error) {
+            try {
+                mCallback.onError(error);
+            } catch (RuntimeException e) {
+                VolleyLog.e(e, "Unhandled exception in callback");
+            }
+        }
+
+        void close() {
+            if (mChannel == null) {
+                return;
+            }
+            if (mKey != null) {
+                mKey.cancel();
+            }
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                //忽略
+            }
+            mChannel = null;
+            mKey = null;
+        }
+    }
+
+    /**
+     * 解压压缩的响应，并移除header中的Content-Encoding、Content-Length
+     */
+    private static byte[] decodeBody(Map<String, String> headers, byte[] body) throws IOException {
+        String contentEncoding = null;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(ContentEncoding.HEADER_CONTENT_ENCODING)) {
+                contentEncoding = header.getValue();
+            }
+        }
+        if (!ContentEncoding.isEncoded(contentEncoding)) {
+            return body;
+        }
+        InputStream in = ContentEncoding.decode(contentEncoding, new ByteArrayInputStream(body));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            ContentEncoding.removeEncodingHeaders(headers);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] buildRequest(URL url, String method, Map<String, String> headers, byte[] body,
+            String contentType) {
+        String path = url.getFile();
+        StringBuilder builder = new StringBuilder(256);
+        builder.append(method).append(' ').append(path.length() == 0 ? "/" : path).append(" HTTP/1.1\r\n");
+        builder.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            builder.append(':').append(url.getPort());
+        }
+        builder.append("\r\n");
+        builder.append("Connection: close\r\n");
+        String agent = System.getProperty("http.agent");
+        if (agent != null && !headers.containsKey("User-Agent")) {
+            builder.append("User-Agent: ").append(agent).append("\r\n");
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (body != null) {
+            if (contentType != null && !headers.containsKey("Content-Type")) {
+                builder.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            builder.append("Content-Length: ").append(body.length).append("\r\n");
+        } else if ("POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method)) {
+            builder.append("Content-Length: 0\r\n");
+        }
+        builder.append("\r\n");
+        byte[] head;
+        try {
+            head = builder.toString().getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        if (body == null) {
+            return head;
+        }
+        byte[] bytes = new byte[head.length + body.length];
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        System.arraycopy(body, 0, bytes, head.length, body.length);
+        return bytes;
+    }
+
+    /**
+     * 连接的读写，明文或者TLS
+     */
+    private interface Transport {
+        /**
+         * 完成握手，需要等待I/O时返回false
+         */
+        boolean handshake() throws IOException;
+
+        /**
+         * 握手需要等待的事件
+         */
+        int handshakeInterest();
+
+        /**
+         * 尽可能多地写入，不阻塞
+         */
+        void write(ByteBuffer src) throws IOException;
+
+        /**
+         * 是否还有已经加密但未写入连接的数据
+         */
+        boolean hasPendingWrites();
+
+        /**
+         * 读取到dst中，返回读取的字节数，0表示需要等待，-1表示连接已经关闭
+         */
+        int read(ByteBuffer dst) throws IOException;
+    }
+
+    private static class PlainTransport implements Transport {
+        private final SocketChannel mChannel;
+
+        PlainTransport(SocketChannel channel) {
+            mChannel = channel;
+        }
+
+        @Override
+        public boolean handshake() {
+            return true;
+        }
+
+        @Override
+        public int handshakeInterest() {
+            return SelectionKey.OP_WRITE;
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            mChannel.write(src);
+        }
+
+        @Override
+        public boolean hasPendingWrites() {
+            return false;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return mChannel.read(dst);
+        }
+    }
+
+    /**
+     * 通过SSLEngine加密、解密。netIn、netOut、appIn都保持在写入模式。
+     */
+    private class TlsTransport implements Transport {
+        private final SocketChannel mChannel;
+        private final SSLEngine mEngine;
+        private final String mHost;
+        private ByteBuffer mNetIn;
+        private ByteBuffer mNetOut;
+        private ByteBuffer mAppIn;
+        private int mInterest = SelectionKey.OP_WRITE;
+        private boolean mHandshakeDone;
+
+        TlsTransport(SocketChannel channel, String host, int port) throws IOException {
+            mChannel = channel;
+            mHost = host;
+            mEngine = getSslContext().createSSLEngine(host, port);
+            mEngine.setUseClientMode(true);
+            mEngine.beginHandshake();
+            mNetIn = ByteBuffer.allocate(mEngine.getSession().getPacketBufferSize());
+            mNetOut = ByteBuffer.allocate(mEngine.getSession().getPacketBufferSize());
+            mAppIn = ByteBuffer.allocate(mEngine.getSession().getApplicationBufferSize());
+        }
+
+        @Override
+        public boolean handshake() throws IOException {
+            if (mHandshakeDone) {
+                return true;
+            }
+            while (true) {
+                if (!flush()) {
+                    mInterest = SelectionKey.OP_WRITE;
+                    return false;
+                }
+                SSLEngineResult.HandshakeStatus status = mEngine.getHandshakeStatus();
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    wrap(EMPTY);
+                } else if (status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                    SSLEngineResult result = unwrap();
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("Connection closed during handshake");
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        int count = mChannel.read(mNetIn);
+                        if (count == -1) {
+                            throw new EOFException("Connection closed during handshake");
+                        }
+                        if (count == 0) {
+                            mInterest = SelectionKey.OP_READ;
+                            return false;
+                        }
+                    }
+                } else {
+                    mHandshakeDone = true;
+                    if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(mHost, mEngine.getSession())) {
+                        throw new SSLPeerUnverifiedException("Hostname " + mHost + " not verified");
+                    }
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public int handshakeInterest() {
+            return mInterest;
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                if (!flush()) {
+                    return;
+                }
+                wrap(src);
+            }
+            flush();
+        }
+
+        @Override
+        public boolean hasPendingWrites() {
+            return mNetOut.position() > 0;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            while (true) {
+                if (mAppIn.position() > 0) {
+                    mAppIn.flip();
+                    int count = Math.min(mAppIn.remaining(), dst.remaining());
+                    ByteBuffer slice = mAppIn.duplicate();
+                    slice.limit(slice.position() + count);
+                    dst.put(slice);
+                    mAppIn.position(mAppIn.position() + count);
+                    mAppIn.compact();
+                    return count;
+                }
+                SSLEngineResult result = unwrap();
+                //TLS 1.3的会话票据、密钥更新等握手后的消息
+                if (mEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                } else if (mEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    wrap(EMPTY);
+                    flush();
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED && mAppIn.position() == 0) {
+                    return -1;
+                }
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    int count = mChannel.read(mNetIn);
+                    if (count == -1) {
+                        return -1;
+                    }
+                    if (count == 0) {
+                        return 0;
+                    }
+                }
+            }
+        }
+
+        private SSLEngineResult unwrap() throws SSLException {
+            mNetIn.flip();
+            SSLEngineResult result;
+            try {
+                result = mEngine.unwrap(mNetIn, mAppIn);
+            } finally {
+                mNetIn.compact();
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                mAppIn = enlarge(mAppIn, mEngine.getSession().getApplicationBufferSize());
+            } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW
+                    && mNetIn.position() == mNetIn.capacity()) {
+                mNetIn = enlarge(mNetIn, mEngine.getSession().getPacketBufferSize());
+            }
+            return result;
+        }
+
+        private void wrap(ByteBuffer src) throws SSLException {
+            SSLEngineResult result = mEngine.wrap(src, mNetOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                mNetOut = enlarge(mNetOut, mEngine.getSession().getPacketBufferSize());
+            } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("SSLEngine closed");
+            }
+        }
+
+        /**
+         * 写入加密的数据，全部写入时返回true
+         */
+        private boolean flush() throws IOException {
+            if (mNetOut.position() == 0) {
+                return true;
+            }
+            mNetOut.flip();
+            try {
+                mChannel.write(mNetOut);
+                return !mNetOut.hasRemaining();
+            } finally {
+                mNetOut.compact();
+            }
+        }
+
+        private void runDelegatedTasks() {
+            Runnable task;
+            while ((task = mEngine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * 扩大处于写入模式的缓冲区，保留已有的数据
+     */
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(minCapacity, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    /**
+     * 逐步解析HTTP/1.1响应：响应行、header、按长度或者分块传输的响应体
+     */
+    private static class ResponseParser {
+        private static final int STATUS_LINE = 0;
+        private static final int HEADERS = 1;
+        private static final int FIXED = 2;
+        private static final int CHUNK_SIZE = 3;
+        private static final int CHUNK_DATA = 4;
+        private static final int CHUNK_END = 5;
+        private static final int TRAILERS = 6;
+        private static final int UNTIL_EOF = 7;
+        private static final int DONE = 8;
+
+        private final boolean mHead;
+        private final StringBuilder mLine = new StringBuilder(64);
+        private int mState = STATUS_LINE;
+        private int mStatusCode;
+        private Map<String, String> mHeaders = new HashMap<String, String>();
+        private String mTransferEncoding;
+        private String mContentLength;
+        private long mRemaining;
+        private ByteArrayOutputStream mBody;
+
+        ResponseParser(boolean head) {
+            mHead = head;
+        }
+
+        boolean isDone() {
+            return mState == DONE;
+        }
+
+        byte[] getBody() {
+            return mBody == null ? new byte[0] : mBody.toByteArray();
+        }
+
+        void feed(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining() && mState != DONE) {
+                switch (mState) {
+                    case FIXED:
+                    case CHUNK_DATA: {
+                        int count = (int) Math.min(buffer.remaining(), mRemaining);
+                        mBody.write(buffer.array(), buffer.arrayOffset() + buffer.position(), count);
+                        buffer.position(buffer.position() + count);
+                        mRemaining -= count;
+                        if (mRemaining == 0) {
+                            mState = mState == FIXED ? DONE : CHUNK_END;
+                        }
+                        break;
+                    }
+                    case UNTIL_EOF:
+                        mBody.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                        buffer.position(buffer.limit());
+                        break;
+                    default:
+                        String line = readLine(buffer);
+                        if (line != null) {
+                            onLine(line);
+                        }
+                        break;
+                }
+            }
+        }
+
+        void onEof() throws IOException {
+            if (mState == UNTIL_EOF) {
+                mState = DONE;
+            } else if (mState != DONE) {
+                throw new ProtocolException("Unexpected end of stream");
+            }
+        }
+
+        /**
+         * 读取一行，不完整时返回null，下次继续读取
+         */
+        private String readLine(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                char c = (char) (buffer.get() & 0xff);
+                if (c == '\n') {
+                    int length = mLine.length();
+                    if (length > 0 && mLine.charAt(length - 1) == '\r') {
+                        mLine.setLength(length - 1);
+                    }
+                    String line = mLine.toString();
+                    mLine.setLength(0);
+                    return line;
+                }
+                if (mLine.length() >= MAX_LINE_LENGTH) {
+                    throw new ProtocolException("Line too long");
+                }
+                mLine.append(c);
+            }
+            return null;
+        }
+
+        private void onLine(String line) throws IOException {
+            switch (mState) {
+                case STATUS_LINE:
+                    if (!line.startsWith("HTTP/1.") || line.length() < 12) {
+                        throw new ProtocolException("Unexpected status line: " + line);
+                    }
+                    try {
+                        mStatusCode = Integer.parseInt(line.substring(9, 12));
+                    } catch (NumberFormatException e) {
+                        throw new ProtocolException("Unexpected status line: " + line);
+                    }
+                    mState = HEADERS;
+                    break;
+                case HEADERS:
+                    if (line.length() == 0) {
+                        onHeadersDone();
+                        break;
+                    }
+                    int colon = line.indexOf(':');
+                    if (colon <= 0) {
+                        throw new ProtocolException("Unexpected header: " + line);
+                    }
+                    String name = line.substring(0, colon).trim();
+                    String value = line.substring(colon + 1).trim();
+                    mHeaders.put(name, value);
+                    if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                        mTransferEncoding = value;
+                    } else if (name.equalsIgnoreCase("Content-Length")) {
+                        mContentLength = value;
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    int extension = line.indexOf(';');
+                    String size = extension != -1 ? line.substring(0, extension) : line;
+                    try {
+                        mRemaining = Long.parseLong(size.trim(), 16);
+                    } catch (NumberFormatException e) {
+                        throw new ProtocolException("Invalid chunk size: " + line);
+                    }
+                    mState = mRemaining == 0 ? TRAILERS : CHUNK_DATA;
+                    break;
+                case CHUNK_END:
+                    mState = CHUNK_SIZE;
+                    break;
+                case TRAILERS:
+                    if (line.length() == 0) {
+                        mState = DONE;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+
+        private void onHeadersDone() throws IOException {
+            //跳过100 Continue等中间响应
+            if (mStatusCode >= 100 && mStatusCode < 200) {
+                mHeaders = new HashMap<String, String>();
+                mTransferEncoding = null;
+                mContentLength = null;
+                mState = STATUS_LINE;
+                return;
+            }
+            if (mHead || mStatusCode == 204 || mStatusCode == 304) {
+                mState = DONE;
+                return;
+            }
+            if (mTransferEncoding != null && mTransferEncoding.toLowerCase(Locale.US).contains("chunked")) {
+                mBody = new ByteArrayOutputStream(BUFFER_SIZE);
+                mState = CHUNK_SIZE;
+            } else if (mContentLength != null) {
+                try {
+                    mRemaining = Long.parseLong(mContentLength);
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Invalid Content-Length: " + mContentLength);
+                }
+                //不按服务器声明的长度预先分配，错误的Content-Length不会导致OOM
+                mBody = new ByteArrayOutputStream((int) Math.min(mRemaining, BUFFER_SIZE));
+                mState = mRemaining == 0 ? DONE : FIXED;
+            } else {
+                mBody = new ByteArrayOutputStream(BUFFER_SIZE);
+                mState = UNTIL_EOF;
+            }
+        }
+    }
+}
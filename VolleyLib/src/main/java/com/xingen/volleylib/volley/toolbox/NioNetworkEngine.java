@@ -0,0 +1,194 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.AsyncNetwork;
+import com.xingen.volleylib.volley.NetworkEngine;
+import com.xingen.volleylib.volley.NetworkProcessor;
+import com.xingen.volleylib.volley.NetworkResponse;
+import com.xingen.volleylib.volley.Platform;
+import com.xingen.volleylib.volley.Request;
+import com.xingen.volleylib.volley.VolleyError;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link NetworkEngine} that performs requests through a {@link NioNetwork}, so that waiting
+ * for the server does not hold a thread per request.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 路由线程从网络队列中取出请求，交给NioNetwork的I/O线程执行，立即取出下一个请求。
+ * 2. 响应的解析和传递在少量解析线程中执行，解析线程数不随并发请求数增加。
+ * 3. 下载、上传、流式解析等不能异步执行的请求，在按需创建的线程中通过{@link NetworkProcessor#process(Request)}执行。
+ * <p>
+ * 使用时RequestQueue的Network和该引擎使用同一个NioNetwork：
+ * <pre>
+ * NioNetwork network = new NioNetwork();
+ * new RequestQueue(cache, network, new NioNetworkEngine(network), delivery);
+ * </pre>
+ */
+public class NioNetworkEngine implements NetworkEngine {
+
+    /** 默认的解析线程数 */
+    public static final int DEFAULT_PARSE_THREADS = 2;
+
+    private final AsyncNetwork mNetwork;
+    private final int mParseThreads;
+
+    private Router mRouter;
+    private ExecutorService mParseExecutor;
+    private ExecutorService mBlockingExecutor;
+
+    public NioNetworkEngine(AsyncNetwork network) {
+        this(network, DEFAULT_PARSE_THREADS);
+    }
+
+    /**
+     * @param network      执行请求的Network
+     * @param parseThreads 解析响应的线程数
+     */
+    public NioNetworkEngine(AsyncNetwork network, int parseThreads) {
+        mNetwork = network;
+        mParseThreads = parseThreads;
+    }
+
+    @Override
+    public synchronized void start(BlockingQueue<Request<?>> networkQueue, NetworkProcessor processor) {
+        stop();
+        mParseExecutor = Executors.newFixedThreadPool(mParseThreads, newThreadFactory("parse"));
+        mBlockingExecutor = Executors.newCachedThreadPool(newThreadFactory("blocking"));
+        mRouter = new Router(networkQueue, processor, mNetwork, mParseExecutor, mBlockingExecutor);
+        mRouter.start();
+    }
+
+    /**
+     * Stops taking requests. Requests already started are completed, their responses are
+     * parsed on the thread that receives them.
+     */
+    @Override
+    public synchronized void stop() {
+        if (mRouter == null) {
+            return;
+        }
+        mRouter.quit();
+        mRouter = null;
+        mParseExecutor.shutdown();
+        mParseExecutor = null;
+        mBlockingExecutor.shutdown();
+        mBlockingExecutor = null;
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Platform.setBackgroundThreadPriority();
+                        runnable.run();
+                    }
+                }, "VolleyNio-" + name + "-" + mCount.incrementAndGet());
+            }
+        };
+    }
+
+    /**
+     * 路由线程：从网络队列中取出请求，开始异步执行，不等待结果
+     */
+    private static class Router extends Thread {
+        private final BlockingQueue<Request<?>> mNetworkQueue;
+        private final NetworkProcessor mProcessor;
+        private final AsyncNetwork mNetwork;
+        private final ExecutorService mParseExecutor;
+        private final ExecutorService mBlockingExecutor;
+        private volatile boolean mQuit = false;
+
+        Router(BlockingQueue<Request<?>> networkQueue, NetworkProcessor processor, AsyncNetwork network,
+                ExecutorService parseExecutor, ExecutorService blockingExecutor) {
+            super("VolleyNioRouter");
+            mNetworkQueue = networkQueue;
+            mProcessor = processor;
+            mNetwork = network;
+            mParseExecutor = parseExecutor;
+            mBlockingExecutor = blockingExecutor;
+        }
+
+        void quit() {
+            mQuit = true;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            Platform.setBackgroundThreadPriority();
+            while (true) {
+                final Request<?> request;
+                try {
+                    request = mNetworkQueue.take();
+                } catch (InterruptedException e) {
+                    if (mQuit) {
+                        return;
+                    }
+                    continue;
+                }
+                if (!mNetwork.canPerformAsync(request)) {
+                    try {
+                        mBlockingExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                mProcessor.process(request);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        //引擎已经停止，放回队列中
+                        mNetworkQueue.add(request);
+                        return;
+                    }
+                    continue;
+                }
+                if (!mProcessor.begin(request)) {
+                    continue;
+                }
+                mNetwork.performRequest(request, new AsyncNetwork.Callback() {
+                    @Override
+                    public void onResponse(final NetworkResponse networkResponse) {
+                        parse(new Runnable() {
+                            @Override
+                            public void run() {
+                                mProcessor.onNetworkResponse(request, networkResponse);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onError(final VolleyError volleyError) {
+                        parse(new Runnable() {
+                            @Override
+                            public void run() {
+                                mProcessor.onNetworkError(request, volleyError);
+                            }
+                        });
+                    }
+                });
+            }
+        }
+
+        /**
+         * 在解析线程中执行，引擎已经停止时在当前线程中执行
+         */
+        private void parse(Runnable runnable) {
+            try {
+                mParseExecutor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                runnable.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,827 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.AuthFailureError;
+import com.xingen.volleylib.volley.Platform;
+import com.xingen.volleylib.volley.Request;
+import com.xingen.volleylib.volley.StreamingBody;
+import com.xingen.volleylib.volley.VolleyLog;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * An {@link HttpStack} that speaks HTTP/1.1 over its own sockets and keeps connections alive
+ * in a per-route pool.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 请求结束后连接放回连接池，相同scheme、host、port的请求复用连接，省去TCP连接和TLS握手。
+ * 2. 每个route的最大连接数、空闲连接的存活时间可以设置。
+ * 3. 响应体没有读取完就关闭时，在限定的字节数和时间内读取剩余内容，使连接可以继续复用，否则关闭连接。
+ * 4. 记录新建和复用的连接数，用于确认连接复用的效果。
+ * <p>
+ * 同一个连接同时只执行一个请求，不使用pipelining。
+ * 跟随GET、HEAD请求相同协议的重定向，与HttpURLConnection一致，不跟随https到http的重定向；
+ * 重定向到其他origin时不发送Authorization、Cookie、Host。不支持代理。
+ */
+public class PooledHttpStack implements HttpStack {
+
+    /** 每个route默认的最大连接数 */
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 5;
+
+    /** 空闲连接默认的存活时间 */
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 60 * 1000;
+
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+
+    /** 关闭未读完的响应体时，最多读取的字节数 */
+    private static final int DRAIN_LIMIT_BYTES = 64 * 1024;
+
+    /** 关闭未读完的响应体时，读取剩余内容的总时间 */
+    private static final int DRAIN_TIMEOUT_MS = 100;
+
+    /** 空闲超过该时间的连接，复用前检查是否已经被服务器关闭 */
+    private static final long HEALTH_CHECK_IDLE_MS = 1000;
+
+    /** 最多跟随的重定向次数 */
+    private static final int MAX_REDIRECTS = 5;
+
+    /** 重定向到其他origin时不发送的header */
+    private static final String[] ORIGIN_HEADERS = {"Authorization", "Cookie", "Host"};
+
+    /** 分块传输时，每块的大小 */
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    /** 响应行、header的最大长度 */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final SSLSocketFactory mSslSocketFactory;
+    private final ConnectionPool mPool;
+
+    public PooledHttpStack() {
+        this(null);
+    }
+
+    /**
+     * @param sslSocketFactory SSL factory to use for HTTPS connections, null for the default
+     */
+    public PooledHttpStack(SSLSocketFactory sslSocketFactory) {
+        this(sslSocketFactory, DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    /**
+     * @param sslSocketFactory       SSL factory to use for HTTPS connections, null for the default
+     * @param maxConnectionsPerRoute 每个route同时打开的最大连接数
+     * @param idleTimeoutMs          空闲连接的存活时间，为0时不复用连接
+     */
+    public PooledHttpStack(SSLSocketFactory sslSocketFactory, int maxConnectionsPerRoute, long idleTimeoutMs) {
+        if (maxConnectionsPerRoute <= 0) {
+            throw new IllegalArgumentException("maxConnectionsPerRoute must be positive");
+        }
+        mSslSocketFactory = sslSocketFactory;
+        mPool = new ConnectionPool(maxConnectionsPerRoute, idleTimeoutMs);
+    }
+
+    /**
+     * 返回新建的连接数
+     */
+    public long getConnectionsCreated() {
+        return mPool.getCreatedCount();
+    }
+
+    /**
+     * 返回复用已有连接的次数
+     */
+    public long getConnectionsReused() {
+        return mPool.getReusedCount();
+    }
+
+    /**
+     * 返回连接池中空闲的连接数
+     */
+    public int getIdleConnectionCount() {
+        return mPool.getIdleCount();
+    }
+
+    /**
+     * 关闭连接池中全部空闲的连接，例如网络切换后
+     */
+    public void evictIdleConnections() {
+        mPool.evictAll();
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        HashMap<String, String> headers = new HashMap<String, String>();
+        headers.putAll(request.getHeaders());
+        headers.putAll(additionalHeaders);
+        ContentEncoding.addAcceptEncoding(request, headers);
+
+        byte[] body = null;
+        StreamingBody streamingBody = null;
+        String contentType = null;
+        if (request.getMethod() == Request.Method.DEPRECATED_GET_OR_POST) {
+            body = request.getPostBody();
+            contentType = request.getPostBodyContentType();
+        }
+        String method = getMethodName(request.getMethod(), body != null);
+        if (("POST".equals(method) && body == null) || "PUT".equals(method) || "PATCH".equals(method)) {
+            streamingBody = request.getStreamingBody();
+            if (streamingBody != null) {
+                contentType = streamingBody.getContentType();
+            } else {
+                body = request.getBody();
+                contentType = request.getBodyContentType();
+            }
+        }
+
+        URL url = new URL(request.getUrl());
+        int timeoutMs = request.getTimeoutMs();
+        for (int redirects = 0; ; redirects++) {
+            HttpResponse response = execute(url, method, headers, body, streamingBody, contentType, timeoutMs);
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (!isRedirect(statusCode) || !("GET".equals(method) || "HEAD".equals(method))
+                    || redirects >= MAX_REDIRECTS) {
+                return response;
+            }
+            Header location = response.getFirstHeader("Location");
+            if (location == null) {
+                return response;
+            }
+            URL redirect = new URL(url, location.getValue());
+            //不跟随改变协议的重定向，包括https到http
+            if (!redirect.getProtocol().equals(url.getProtocol())) {
+                return response;
+            }
+            if (!isSameOrigin(url, redirect)) {
+                //凭据只发送给原来的origin，之后的重定向也不再发送
+                removeHeaders(headers, ORIGIN_HEADERS);
+            }
+            //丢弃重定向的响应体，连接放回连接池
+            response.getEntity().getContent().close();
+            url = redirect;
+        }
+    }
+
+    /**
+     * 返回请求方法的名称。DEPRECATED_GET_OR_POST有请求体时为POST，否则为GET。
+     */
+    static String getMethodName(int method, boolean hasPostBody) {
+        switch (method) {
+            case Request.Method.DEPRECATED_GET_OR_POST:
+                return hasPostBody ? "POST" : "GET";
+            case Request.Method.GET:
+                return "GET";
+            case Request.Method.DELETE:
+                return "DELETE";
+            case Request.Method.POST:
+                return "POST";
+            case Request.Method.PUT:
+                return "PUT";
+            case Request.Method.HEAD:
+                return "HEAD";
+            case Request.Method.OPTIONS:
+                return "OPTIONS";
+            case Request.Method.TRACE:
+                return "TRACE";
+            case Request.Method.PATCH:
+                return "PATCH";
+            default:
+                throw new IllegalStateException("Unknown method type.");
+        }
+    }
+
+    private static boolean isSameOrigin(URL url, URL other) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        int otherPort = other.getPort() != -1 ? other.getPort() : other.getDefaultPort();
+        return url.getProtocol().equals(other.getProtocol())
+                && url.getHost().equalsIgnoreCase(other.getHost()) && port == otherPort;
+    }
+
+    /**
+     * 删除指定的header，不区分大小写
+     */
+    private static void removeHeaders(Map<String, String> headers, String[] names) {
+        Iterator<String> iterator = headers.keySet().iterator();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            for (String name : names) {
+                if (key.equalsIgnoreCase(name)) {
+                    iterator.remove();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 幂等的请求方法，重复发送不会改变结果
+     */
+    private static boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method)
+                || "DELETE".equals(method) || "OPTIONS".equals(method) || "TRACE".equals(method);
+    }
+
+    private static boolean isRedirect(int statusCode) {
+        return statusCode == 300 || statusCode == 301 || statusCode == 302 || statusCode == 303
+                || statusCode == 307 || statusCode == 308;
+    }
+
+    /**
+     * 在连接池的连接上执行一次请求。复用的连接在发送请求时就已经断开（服务器关闭了空闲连接），
+     * 且请求体可以重新发送时，在新连接上重试一次。非幂等的请求只在还没有写出完整的请求头时重试，
+     * 避免服务器收到两次请求（没有请求体的POST在写出请求头后就已经是完整的请求）。
+     */
+    private HttpResponse execute(URL url, String method, Map<String, String> headers, byte[] body,
+            StreamingBody streamingBody, String contentType, int timeoutMs) throws IOException {
+        String host = url.getHost();
+        boolean https = "https".equals(url.getProtocol());
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        String route = url.getProtocol() + "://" + host + ":" + port;
+        for (int attempt = 0; ; attempt++) {
+            ConnectionPool.Connection connection = acquire(route, host, port, https, timeoutMs);
+            boolean reused = connection.requestCount > 0;
+            connection.requestCount++;
+            ResponseReader reader = new ResponseReader(connection);
+            boolean headWritten = false;
+            try {
+                connection.socket.setSoTimeout(timeoutMs);
+                long contentLength = writeHead(connection, url, method, headers, body, streamingBody, contentType);
+                //写出请求头后，服务器可能已经收到了完整的请求
+                headWritten = true;
+                writeBody(connection, body, streamingBody, contentLength);
+                return reader.read(method);
+            } catch (IOException e) {
+                mPool.release(connection, false);
+                if (reused && attempt == 0 && streamingBody == null && !reader.mStarted
+                        && (isIdempotent(method) || !headWritten)) {
+                    VolleyLog.d("Pooled connection to %s was closed, retrying on a new connection", route);
+                    continue;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 从连接池中取得连接，没有空闲连接时新建
+     */
+    private ConnectionPool.Connection acquire(String route, String host, int port, boolean https,
+            int timeoutMs) throws IOException {
+        while (true) {
+            ConnectionPool.Connection connection = mPool.acquire(route, timeoutMs);
+            if (connection == null) {
+                try {
+                    connection = connect(route, host, port, https, timeoutMs);
+                } catch (IOException e) {
+                    mPool.releaseSlot(route);
+                    throw e;
+                }
+                if (VolleyLog.DEBUG) {
+                    VolleyLog.v("Opened connection to %s", route);
+                }
+                return connection;
+            }
+            if (isHealthy(connection)) {
+                if (VolleyLog.DEBUG) {
+                    VolleyLog.v("Reusing connection to %s [requests=%d]", route, connection.requestCount);
+                }
+                return connection;
+            }
+            mPool.release(connection, false);
+        }
+    }
+
+    private ConnectionPool.Connection connect(String route, String host, int port, boolean https,
+            int timeoutMs) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            if (https) {
+                SSLSocketFactory factory = mSslSocketFactory != null
+                        ? mSslSocketFactory : HttpsURLConnection.getDefaultSSLSocketFactory();
+                SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, host, port, true);
+                socket = sslSocket;
+                sslSocket.startHandshake();
+                if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, sslSocket.getSession())) {
+                    throw new SSLPeerUnverifiedException("Hostname " + host + " not verified");
+                }
+            }
+            return new ConnectionPool.Connection(route, socket);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                //忽略
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 空闲较久的连接，检查是否已经被服务器关闭
+     */
+    private static boolean isHealthy(ConnectionPool.Connection connection) {
+        if (connection.socket.isClosed() || connection.socket.isInputShutdown()
+                || connection.socket.isOutputShutdown()) {
+            return false;
+        }
+        if (Platform.elapsedRealtime() - connection.idleSince < HEALTH_CHECK_IDLE_MS) {
+            return true;
+        }
+        try {
+            int timeout = connection.socket.getSoTimeout();
+            try {
+                connection.socket.setSoTimeout(1);
+                //空闲的连接上不应该有数据，读到结尾表示服务器已经关闭连接
+                connection.in.read();
+                return false;
+            } finally {
+                connection.socket.setSoTimeout(timeout);
+            }
+        } catch (SocketTimeoutException e) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 写出请求行和header
+     *
+     * @return 请求体的长度，-1表示分块传输或者没有请求体
+     */
+    private static long writeHead(ConnectionPool.Connection connection, URL url, String method,
+            Map<String, String> headers, byte[] body, StreamingBody streamingBody, String contentType)
+            throws IOException {
+        String path = url.getFile();
+        StringBuilder builder = new StringBuilder(256);
+        builder.append(method).append(' ').append(path.length() == 0 ? "/" : path).append(" HTTP/1.1\r\n");
+        if (!containsHeader(headers, "Host")) {
+            builder.append("Host: ").append(url.getHost());
+            if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+                builder.append(':').append(url.getPort());
+            }
+            builder.append("\r\n");
+        }
+        if (!containsHeader(headers, "User-Agent")) {
+            String agent = System.getProperty("http.agent");
+            if (agent != null) {
+                builder.append("User-Agent: ").append(agent).append("\r\n");
+            }
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        boolean hasBody = body != null || streamingBody != null;
+        if (hasBody && !containsHeader(headers, HEADER_CONTENT_TYPE) && contentType != null) {
+            builder.append(HEADER_CONTENT_TYPE).append(": ").append(contentType).append("\r\n");
+        }
+        long contentLength = -1;
+        if (body != null) {
+            contentLength = body.length;
+        } else if (streamingBody != null) {
+            contentLength = streamingBody.getContentLength();
+        } else if ("POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method)) {
+            contentLength = 0;
+        }
+        if (contentLength >= 0) {
+            builder.append("Content-Length: ").append(contentLength).append("\r\n");
+        } else if (streamingBody != null) {
+            builder.append("Transfer-Encoding: chunked\r\n");
+        }
+        builder.append("\r\n");
+        connection.out.write(builder.toString().getBytes("UTF-8"));
+        return contentLength;
+    }
+
+    private static void writeBody(ConnectionPool.Connection connection, byte[] body, StreamingBody streamingBody,
+            long contentLength) throws IOException {
+        OutputStream out = connection.out;
+        if (body != null) {
+            out.write(body);
+        } else if (streamingBody != null) {
+            if (contentLength >= 0) {
+                streamingBody.writeTo(new NonClosingOutputStream(out));
+            } else {
+                ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+                streamingBody.writeTo(chunked);
+                chunked.finish();
+            }
+        }
+        out.flush();
+    }
+
+    private static boolean containsHeader(Map<String, String> headers, String name) {
+        for (String key : headers.keySet()) {
+            if (key.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 读取响应行和header，创建HttpResponse，响应体由{@link ResponseBody}按需读取
+     */
+    private class ResponseReader {
+        private final ConnectionPool.Connection mConnection;
+        /** 是否已经读取到响应的数据 */
+        private boolean mStarted;
+
+        ResponseReader(ConnectionPool.Connection connection) {
+            mConnection = connection;
+        }
+
+        HttpResponse read(String method) throws IOException {
+            String statusLine;
+            int statusCode;
+            List<String[]> headers;
+            //跳过100 Continue等中间响应
+            do {
+                statusLine = readLine();
+                statusCode = parseStatusCode(statusLine);
+                headers = readHeaders();
+            } while (statusCode >= 100 && statusCode < 200 && statusCode != 101);
+
+            //例如：HTTP/1.1 200 OK
+            boolean http11 = statusLine.startsWith("HTTP/1.1");
+            String reason = statusLine.length() > 13 ? statusLine.substring(13) : "";
+
+            BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(
+                    new ProtocolVersion("HTTP", 1, http11 ? 1 : 0), statusCode, reason));
+            String connectionHeader = null;
+            String transferEncoding = null;
+            String contentLength = null;
+            String contentEncoding = null;
+            String contentType = null;
+            for (String[] header : headers) {
+                response.addHeader(new BasicHeader(header[0], header[1]));
+                String name = header[0].toLowerCase(Locale.US);
+                if (name.equals("connection")) {
+                    connectionHeader = header[1];
+                } else if (name.equals("transfer-encoding")) {
+                    transferEncoding = header[1];
+                } else if (name.equals("content-length")) {
+                    contentLength = header[1];
+                } else if (name.equals("content-encoding")) {
+                    contentEncoding = header[1];
+                } else if (name.equals("content-type")) {
+                    contentType = header[1];
+                }
+            }
+            boolean keepAlive = http11
+                    ? !"close".equalsIgnoreCase(connectionHeader)
+                    : "keep-alive".equalsIgnoreCase(connectionHeader);
+
+            ResponseBody body;
+            long length = -1;
+            if ("HEAD".equals(method) || statusCode == 204 || statusCode == 304) {
+                length = 0;
+                body = new ResponseBody(mConnection, keepAlive, ResponseBody.FIXED, 0);
+            } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.US).contains("chunked")) {
+                body = new ResponseBody(mConnection, keepAlive, ResponseBody.CHUNKED, 0);
+            } else if (contentLength != null) {
+                try {
+                    length = Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Invalid Content-Length: " + contentLength);
+                }
+                body = new ResponseBody(mConnection, keepAlive, ResponseBody.FIXED, length);
+            } else {
+                //没有长度，读取到连接关闭为止，连接不能复用
+                body = new ResponseBody(mConnection, false, ResponseBody.UNTIL_CLOSE, 0);
+            }
+
+            BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(body);
+            entity.setContentLength(length);
+            if (contentEncoding != null) {
+                entity.setContentEncoding(contentEncoding);
+            }
+            if (contentType != null) {
+                entity.setContentType(contentType);
+            }
+            response.setEntity(entity);
+            if (length == 0) {
+                //没有响应体，立即归还连接
+                body.close();
+            }
+            return response;
+        }
+
+        private int parseStatusCode(String statusLine) throws IOException {
+            if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) {
+                throw new ProtocolException("Unexpected status line: " + statusLine);
+            }
+            try {
+                return Integer.parseInt(statusLine.substring(9, 12));
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Unexpected status line: " + statusLine);
+            }
+        }
+
+        private List<String[]> readHeaders() throws IOException {
+            List<String[]> headers = new ArrayList<String[]>();
+            String line;
+            while ((line = readLine()).length() != 0) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    throw new ProtocolException("Unexpected header: " + line);
+                }
+                headers.add(new String[]{line.substring(0, colon).trim(), line.substring(colon + 1).trim()});
+            }
+            return headers;
+        }
+
+        private String readLine() throws IOException {
+            String line = PooledHttpStack.readLine(mConnection.in);
+            mStarted = true;
+            return line;
+        }
+    }
+
+    /**
+     * 读取一行，去掉结尾的CRLF
+     */
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder builder = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) {
+                throw new ProtocolException("Unexpected end of stream");
+            }
+            if (builder.length() >= MAX_LINE_LENGTH) {
+                throw new ProtocolException("Line too long");
+            }
+            builder.append((char) c);
+        }
+        int length = builder.length();
+        if (length > 0 && builder.charAt(length - 1) == '\r') {
+            builder.setLength(length - 1);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 响应体。读取到结尾时连接放回连接池；提前关闭时，尝试读取剩余内容，读取不完则关闭连接。
+     */
+    private class ResponseBody extends InputStream {
+        static final int FIXED = 0;
+        static final int CHUNKED = 1;
+        static final int UNTIL_CLOSE = 2;
+
+        private final ConnectionPool.Connection mConnection;
+        private final boolean mKeepAlive;
+        private final int mMode;
+        /** FIXED：剩余的字节数；CHUNKED：当前块剩余的字节数 */
+        private long mRemaining;
+        private boolean mFirstChunk = true;
+        private boolean mReleased;
+
+        ResponseBody(ConnectionPool.Connection connection, boolean keepAlive, int mode, long length) {
+            mConnection = connection;
+            mKeepAlive = keepAlive;
+            mMode = mode;
+            mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int count = read(single, 0, 1);
+            return count == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mReleased) {
+                return -1;
+            }
+            try {
+                return readBody(buffer, offset, length);
+            } catch (IOException e) {
+                release(false);
+                throw e;
+            }
+        }
+
+        private int readBody(byte[] buffer, int offset, int length) throws IOException {
+            InputStream in = mConnection.in;
+            if (mMode == UNTIL_CLOSE) {
+                int count = in.read(buffer, offset, length);
+                if (count == -1) {
+                    release(false);
+                }
+                return count;
+            }
+            if (mMode == CHUNKED && mRemaining == 0) {
+                if (!mFirstChunk) {
+                    //上一块结尾的CRLF
+                    readLine(in);
+                }
+                mFirstChunk = false;
+                String sizeLine = readLine(in);
+                int extension = sizeLine.indexOf(';');
+                if (extension != -1) {
+                    sizeLine = sizeLine.substring(0, extension);
+                }
+                try {
+                    mRemaining = Long.parseLong(sizeLine.trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("Invalid chunk size: " + sizeLine);
+                }
+                if (mRemaining == 0) {
+                    //跳过trailer
+                    while (readLine(in).length() != 0) {
+                        //忽略
+                    }
+                    release(true);
+                    return -1;
+                }
+            }
+            if (mRemaining == 0) {
+                release(true);
+                return -1;
+            }
+            int count = in.read(buffer, offset, (int) Math.min(length, mRemaining));
+            if (count == -1) {
+                throw new ProtocolException("Unexpected end of stream");
+            }
+            mRemaining -= count;
+            if (mMode == FIXED && mRemaining == 0) {
+                release(true);
+            }
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (mReleased) {
+                return 0;
+            }
+            return (int) Math.min(mConnection.in.available(), mMode == UNTIL_CLOSE ? Integer.MAX_VALUE : mRemaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mReleased) {
+                return;
+            }
+            if (!mKeepAlive) {
+                release(false);
+                return;
+            }
+            //在总时间内读取剩余的内容，使连接可以复用
+            try {
+                long deadline = Platform.elapsedRealtime() + DRAIN_TIMEOUT_MS;
+                byte[] skip = new byte[4096];
+                int drained = 0;
+                while (!mReleased && drained < DRAIN_LIMIT_BYTES) {
+                    long remaining = deadline - Platform.elapsedRealtime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    mConnection.socket.setSoTimeout((int) remaining);
+                    int count = read(skip, 0, skip.length);
+                    if (count == -1) {
+                        break;
+                    }
+                    drained += count;
+                }
+            } catch (IOException e) {
+                //读取失败时连接已经关闭
+            }
+            if (!mReleased) {
+                release(false);
+            }
+        }
+
+        private void release(boolean reusable) {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+            mPool.release(mConnection, reusable && mKeepAlive);
+        }
+    }
+
+    /**
+     * 写入请求体时，不关闭连接的输出流
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * 分块传输的请求体
+     */
+    private static class ChunkedOutputStream extends OutputStream {
+        private final OutputStream mOut;
+        private final byte[] mBuffer = new byte[CHUNK_SIZE];
+        private int mCount;
+        private boolean mFinished;
+
+        ChunkedOutputStream(OutputStream out) {
+            mOut = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (mCount == mBuffer.length) {
+                writeChunk();
+            }
+            mBuffer[mCount++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (mCount == mBuffer.length) {
+                    writeChunk();
+                }
+                int count = Math.min(length, mBuffer.length - mCount);
+                System.arraycopy(buffer, offset, mBuffer, mCount, count);
+                mCount += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeChunk();
+            mOut.flush();
+        }
+
+        private void writeChunk() throws IOException {
+            if (mCount == 0) {
+                return;
+            }
+            mOut.write((Integer.toHexString(mCount) + "\r\n").getBytes("US-ASCII"));
+            mOut.write(mBuffer, 0, mCount);
+            mOut.write('\r');
+            mOut.write('\n');
+            mCount = 0;
+        }
+
+        /**
+         * 写入最后一块，结束请求体
+         */
+        void finish() throws IOException {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            writeChunk();
+            mOut.write("0\r\n\r\n".getBytes("US-ASCII"));
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+    }
+}
@@ -17,10 +17,12 @@
 package com.xingen.volleylib.volley.toolbox;
 
 
+import com.xingen.volleylib.volley.NetworkError;
 import com.xingen.volleylib.volley.NetworkResponse;
 import com.xingen.volleylib.volley.Request;
 import com.xingen.volleylib.volley.Response;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
 /**
@@ -41,6 +43,8 @@ public class StringRequest extends Request<String> {
                          Response.ErrorListener errorListener) {
         super(method, url, errorListener);
         mListener = listener;
+        //较大的缓存直接从只读缓冲区解码；子类重写解析时可能读取data，需要自行开启
+        setShouldParseBuffer(getClass() == StringRequest.class);
     }
 
     /**
@@ -63,9 +67,14 @@ public class StringRequest extends Request<String> {
     protected Response<String> parseNetworkResponse(NetworkResponse response) {
         String parsed;
         try {
-            parsed = new String(response.data, HttpHeaderParser.parseCharset(response.headers));
-        } catch (UnsupportedEncodingException e) {
-            parsed = new String(response.data);
+            try {
+                parsed = HttpHeaderParser.parseString(response);
+            } catch (UnsupportedEncodingException e) {
+                parsed = new String(response.getData());
+            }
+        } catch (IOException e) {
+            //流式响应读取失败
+            return Response.error(new NetworkError(e));
         }
         return Response.success(parsed, HttpHeaderParser.parseCacheHeaders(response));
     }
@@ -0,0 +1,141 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.NetworkEngine;
+import com.xingen.volleylib.volley.NetworkProcessor;
+import com.xingen.volleylib.volley.Request;
+import com.xingen.volleylib.volley.VolleyLog;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link NetworkEngine} for JVM deployments that performs every request on its own thread,
+ * using virtual threads when the runtime provides them.
+ * <p>
+ * 用途：
+ * <p>
+ * 1. 每个网络请求在一个新的线程中执行，没有固定的线程个数，大量慢请求同时执行时不会因为线程不足而排队。
+ * 2. 运行在支持虚拟线程的JVM（Java 21及以上）时，使用Executors.newVirtualThreadPerTaskExecutor()，
+ * 阻塞在HurlStack中的请求不会占用系统线程；否则使用按需创建的普通线程。
+ * 3. 不适合Android：Android中没有虚拟线程，请使用{@link ElasticNetworkEngine}。
+ * <p>
+ * 一个路由线程从网络队列中取出请求，交给线程池执行，不执行网络操作。
+ */
+public class VirtualThreadNetworkEngine implements NetworkEngine {
+
+    private Router mRouter;
+    private ExecutorService mExecutor;
+    private boolean mVirtual;
+
+    @Override
+    public synchronized void start(BlockingQueue<Request<?>> networkQueue, NetworkProcessor processor) {
+        stop();
+        mExecutor = newVirtualThreadExecutor();
+        mVirtual = mExecutor != null;
+        if (mExecutor == null) {
+            mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Volley-request-" + mCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        mRouter = new Router(networkQueue, processor, mExecutor);
+        mRouter.start();
+    }
+
+    /**
+     * Stops taking requests. Requests already started run to completion on their own threads.
+     */
+    @Override
+    public synchronized void stop() {
+        if (mRouter == null) {
+            return;
+        }
+        mRouter.quit();
+        mRouter = null;
+        mExecutor.shutdown();
+        mExecutor = null;
+    }
+
+    /**
+     * 返回是否在使用虚拟线程执行请求，引擎未开启时返回false
+     */
+    public synchronized boolean isUsingVirtualThreads() {
+        return mRouter != null && mVirtual;
+    }
+
+    /**
+     * 通过反射创建虚拟线程的线程池，运行环境不支持时返回null
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            VolleyLog.d("Virtual threads are not available, using platform threads: %s", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 路由线程：从网络队列中取出请求，每个请求交给一个新的线程执行
+     */
+    private static class Router extends Thread {
+        private final BlockingQueue<Request<?>> mNetworkQueue;
+        private final NetworkProcessor mProcessor;
+        private final ExecutorService mExecutor;
+        private volatile boolean mQuit = false;
+
+        Router(BlockingQueue<Request<?>> networkQueue, NetworkProcessor processor,
+                ExecutorService executor) {
+            super("VolleyVirtualThreadRouter");
+            setDaemon(true);
+            mNetworkQueue = networkQueue;
+            mProcessor = processor;
+            mExecutor = executor;
+        }
+
+        void quit() {
+            mQuit = true;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Request<?> request;
+                try {
+                    request = mNetworkQueue.take();
+                } catch (InterruptedException e) {
+                    if (mQuit) {
+                        return;
+                    }
+                    continue;
+                }
+                request.addMarker("network-route");
+                try {
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            mProcessor.process(request);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    //引擎已经停止，放回队列中
+                    mNetworkQueue.add(request);
+                    return;
+                }
+            }
+        }
+    }
+}
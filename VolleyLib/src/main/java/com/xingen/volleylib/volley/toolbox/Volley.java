@@ -18,6 +18,9 @@ package com.xingen.volleylib.volley.toolbox;
 
 import android.content.Context;
 
+import com.xingen.volleylib.volley.Cache;
+import com.xingen.volleylib.volley.ExecutorDelivery;
+import com.xingen.volleylib.volley.FrameBatchExecutor;
 import com.xingen.volleylib.volley.Network;
 import com.xingen.volleylib.volley.RequestQueue;
 
@@ -34,6 +37,11 @@ public class Volley {
      */
     private static final String DEFAULT_CACHE_DIR = "volley";
 
+    /**
+     * 内存缓存的默认大小
+     */
+    private static final int DEFAULT_MEMORY_CACHE_BYTES = 1024 * 1024;
+
 
     public static RequestQueue newRequestQueue(Context context) {
         return newRequestQueue(context, (Network) null);
@@ -61,7 +69,12 @@ public class Volley {
             network = new BasicNetwork(new HurlStack());
         }
         //创建一个请求队列，添加磁盘缓存的操作类，执行网络工作的操作类
-        RequestQueue queue = new RequestQueue(new DiskBasedCache(cacheDir), network);
+        //磁盘缓存之前添加一层内存缓存
+        Cache cache = new LruMemoryCache(new DiskBasedCache(cacheDir), DEFAULT_MEMORY_CACHE_BYTES);
+        //下载、上传与普通请求分开执行，线程随请求数量增减
+        //响应结果在主线程中按帧批量传递，与上传、下载进度共用一个队列，保证先后顺序
+        RequestQueue queue = new RequestQueue(cache, network, new ElasticNetworkEngine(),
+                new ExecutorDelivery(FrameBatchExecutor.getMainThreadExecutor()));
         //开启。
         queue.start();
         return queue;
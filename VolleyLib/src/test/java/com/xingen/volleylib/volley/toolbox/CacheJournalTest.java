@@ -0,0 +1,125 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.Cache;
+import com.xingen.volleylib.volley.toolbox.DiskBasedCache.CacheHeader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays {@link CacheJournal} files written to a temporary directory, including damaged ones.
+ */
+public class CacheJournalTest {
+
+    private File mRoot;
+    private CacheJournal mJournal;
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = File.createTempFile("journal", "test");
+        mRoot.delete();
+        mRoot.mkdirs();
+        mJournal = new CacheJournal(mRoot);
+    }
+
+    @After
+    public void tearDown() {
+        mJournal.delete();
+        File[] files = mRoot.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mRoot.delete();
+    }
+
+    @Test
+    public void replaysWrittenRecords() {
+        writeJournal("a", "b");
+        mJournal.openForAppend();
+        mJournal.appendRemove("a");
+
+        Map<String, CacheHeader> entries = mJournal.replay();
+        assertEquals(1, entries.size());
+        assertEquals(5, entries.get("b").size);
+        assertTrue(mJournal.needsRewrite(1));
+    }
+
+    @Test
+    public void truncatedJournalKeepsCompleteRecords() throws IOException {
+        writeJournal("a", "b");
+        File file = new File(mRoot, CacheJournal.JOURNAL_FILE);
+        //去掉最后一条记录末尾的几个字节
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(file.length() - 3);
+        } finally {
+            raf.close();
+        }
+
+        Map<String, CacheHeader> entries = mJournal.replay();
+        assertEquals(1, entries.size());
+        assertTrue(entries.containsKey("a"));
+        assertTrue(mJournal.needsRewrite(1));
+    }
+
+    @Test
+    public void negativeStringLengthIsRejected() throws IOException {
+        writeJournal("a");
+        appendPutWithKeyLength(-1);
+
+        assertNull(mJournal.replay());
+    }
+
+    @Test
+    public void stringLengthBeyondJournalIsRejected() throws IOException {
+        writeJournal("a");
+        appendPutWithKeyLength(Integer.MAX_VALUE);
+
+        assertNull(mJournal.replay());
+    }
+
+    @Test
+    public void missingJournalReturnsNull() {
+        assertFalse(new File(mRoot, CacheJournal.JOURNAL_FILE).exists());
+        assertNull(mJournal.replay());
+    }
+
+    private void writeJournal(String... keys) {
+        List<CacheHeader> headers = new ArrayList<CacheHeader>();
+        for (String key : keys) {
+            Cache.Entry entry = new Cache.Entry();
+            entry.data = new byte[5];
+            entry.etag = "etag";
+            headers.add(new CacheHeader(key, entry));
+        }
+        mJournal.rewrite(headers);
+    }
+
+    private void appendPutWithKeyLength(long length) throws IOException {
+        OutputStream out = new FileOutputStream(new File(mRoot, CacheJournal.JOURNAL_FILE), true);
+        try {
+            out.write(CacheJournal.OP_PUT);
+            DiskBasedCache.writeLong(out, length);
+            out.write(new byte[16]);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Decodes response bodies with {@link ContentEncoding}.
+ */
+public class ContentEncodingTest {
+
+    private static final byte[] CONTENT = "hello, hello, hello".getBytes();
+
+    @Test
+    public void emptyGzipBodyDecodesToEmpty() throws IOException {
+        InputStream in = ContentEncoding.decode("gzip", new ByteArrayInputStream(new byte[0]));
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    @Test
+    public void emptyDeflateBodyDecodesToEmpty() throws IOException {
+        InputStream in = ContentEncoding.decode("deflate", new ByteArrayInputStream(new byte[0]));
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    @Test
+    public void gzipBody() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(CONTENT);
+        gzip.close();
+        assertArrayEquals(CONTENT, readAll(ContentEncoding.decode("gzip", new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    @Test
+    public void deflateBody() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(bytes);
+        deflate.write(CONTENT);
+        deflate.close();
+        assertArrayEquals(CONTENT, readAll(ContentEncoding.decode("deflate", new ByteArrayInputStream(bytes.toByteArray()))));
+    }
+
+    @Test
+    public void unsupportedEncoding() {
+        try {
+            ContentEncoding.decode("unknown", new ByteArrayInputStream(CONTENT));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,258 @@
+package com.xingen.volleylib.volley.toolbox;
+
+import com.xingen.volleylib.volley.AuthFailureError;
+import com.xingen.volleylib.volley.ClientError;
+import com.xingen.volleylib.volley.DefaultRetryPolicy;
+import com.xingen.volleylib.volley.NetworkError;
+import com.xingen.volleylib.volley.NetworkResponse;
+import com.xingen.volleylib.volley.Request;
+import com.xingen.volleylib.volley.Response;
+import com.xingen.volleylib.volley.ServerError;
+import com.xingen.volleylib.volley.VolleyError;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link NioNetwork} against an in-process HTTP server on a loopback socket.
+ */
+public class NioNetworkTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private TestServer mServer;
+    private NioNetwork mNetwork;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new TestServer();
+        mServer.start();
+        mNetwork = new NioNetwork();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mNetwork.shutdown();
+        mServer.close();
+    }
+
+    @Test
+    public void fixedLengthResponse() throws VolleyError {
+        NetworkResponse response = mNetwork.performRequest(newRequest(Request.Method.GET, "/fixed", null));
+        assertEquals(200, response.statusCode);
+        assertEquals("hello", new String(response.data, ASCII));
+    }
+
+    @Test
+    public void chunkedResponse() throws VolleyError {
+        NetworkResponse response = mNetwork.performRequest(newRequest(Request.Method.GET, "/chunked", null));
+        assertEquals("hello world", new String(response.data, ASCII));
+    }
+
+    @Test
+    public void postBodyIsSent() throws VolleyError {
+        byte[] body = "a=1&b=2".getBytes(ASCII);
+        NetworkResponse response = mNetwork.performRequest(newRequest(Request.Method.POST, "/echo", body));
+        assertArrayEquals(body, response.data);
+    }
+
+    @Test
+    public void emptyGzipResponse() throws VolleyError {
+        NetworkResponse response = mNetwork.performRequest(newRequest(Request.Method.GET, "/empty-gzip", null));
+        assertEquals(204, response.statusCode);
+        assertEquals(0, response.data.length);
+    }
+
+    @Test
+    public void clientErrorStatus() {
+        try {
+            mNetwork.performRequest(newRequest(Request.Method.GET, "/status/404", null));
+            fail();
+        } catch (VolleyError e) {
+            assertTrue(e instanceof ClientError);
+            assertEquals(404, e.networkResponse.statusCode);
+        }
+    }
+
+    @Test
+    public void serverErrorStatus() {
+        try {
+            mNetwork.performRequest(newRequest(Request.Method.GET, "/status/503", null));
+            fail();
+        } catch (VolleyError e) {
+            assertTrue(e instanceof ServerError);
+            assertFalse(e instanceof ClientError);
+        }
+    }
+
+    @Test
+    public void authFailureStatus() {
+        try {
+            mNetwork.performRequest(newRequest(Request.Method.GET, "/status/401", null));
+            fail();
+        } catch (VolleyError e) {
+            assertTrue(e instanceof AuthFailureError);
+        }
+    }
+
+    @Test
+    public void wrongContentLengthDoesNotPreallocate() {
+        //声明2GB，只发送3个字节后关闭连接
+        try {
+            mNetwork.performRequest(newRequest(Request.Method.GET, "/huge", null));
+            fail();
+        } catch (VolleyError e) {
+            assertTrue(e instanceof NetworkError);
+        }
+    }
+
+    private Request<byte[]> newRequest(int method, String path, byte[] body) {
+        Request<byte[]> request = new BytesRequest(method, mServer.getUrl(path), body);
+        request.setRetryPolicy(new DefaultRetryPolicy(2000, 0, 1f));
+        return request;
+    }
+
+    private static class BytesRequest extends Request<byte[]> {
+        private final byte[] mBody;
+
+        BytesRequest(int method, String url, byte[] body) {
+            super(method, url, null);
+            mBody = body;
+        }
+
+        @Override
+        public byte[] getBody() {
+            return mBody;
+        }
+
+        @Override
+        protected Response<byte[]> parseNetworkResponse(NetworkResponse response) {
+            return Response.success(response.data, null);
+        }
+
+        @Override
+        protected void deliverResponse(byte[] response) {
+        }
+    }
+
+    /**
+     * 最小的HTTP/1.1服务器，每个连接一个线程，按路径返回固定的响应
+     */
+    private static class TestServer extends Thread {
+        private final ServerSocket mServerSocket;
+
+        TestServer() throws IOException {
+            mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            setDaemon(true);
+        }
+
+        String getUrl(String path) {
+            return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+        }
+
+        void close() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = mServerSocket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                Thread thread = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(socket);
+                        } catch (IOException ignored) {
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException ignored) {
+                            }
+                        }
+                    }
+                };
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private void serve(Socket socket) throws IOException {
+            InputStream in = socket.getInputStream();
+            String head = readHead(in);
+            String path = head.substring(head.indexOf(' ') + 1, head.indexOf(' ', head.indexOf(' ') + 1));
+            int contentLength = 0;
+            for (String line : head.split("\r\n")) {
+                if (line.toLowerCase(Locale.US).startsWith("content-length:")) {
+                    contentLength = Integer.parseInt(line.substring(15).trim());
+                }
+            }
+            byte[] body = new byte[contentLength];
+            int read = 0;
+            while (read < contentLength) {
+                int n = in.read(body, read, contentLength - read);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of request body");
+                }
+                read += n;
+            }
+
+            OutputStream out = socket.getOutputStream();
+            if (path.equals("/fixed")) {
+                write(out, "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello");
+            } else if (path.equals("/chunked")) {
+                write(out, "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                        + "5\r\nhello\r\n6\r\n world\r\n0\r\n\r\n");
+            } else if (path.equals("/echo")) {
+                write(out, "HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n");
+                out.write(body);
+            } else if (path.equals("/empty-gzip")) {
+                write(out, "HTTP/1.1 204 No Content\r\nContent-Encoding: gzip\r\nContent-Length: 0\r\n\r\n");
+            } else if (path.startsWith("/status/")) {
+                write(out, "HTTP/1.1 " + path.substring(8) + " Error\r\nContent-Length: 4\r\n\r\nnope");
+            } else if (path.equals("/huge")) {
+                write(out, "HTTP/1.1 200 OK\r\nContent-Length: 2000000000\r\n\r\nabc");
+            } else {
+                write(out, "HTTP/1.1 500 Unknown\r\nContent-Length: 0\r\n\r\n");
+            }
+            out.flush();
+        }
+
+        private static String readHead(InputStream in) throws IOException {
+            StringBuilder head = new StringBuilder();
+            while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Unexpected end of request head");
+                }
+                head.append((char) b);
+            }
+            return head.toString();
+        }
+
+        private static void write(OutputStream out, String s) throws IOException {
+            out.write(s.getBytes(ASCII));
+        }
+    }
+}